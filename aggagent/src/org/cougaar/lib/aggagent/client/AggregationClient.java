@@ -25,6 +25,11 @@
  */
 package org.cougaar.lib.aggagent.client;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URLEncoder;
 import java.util.Collection;
 import java.util.LinkedList;
@@ -35,6 +40,7 @@ import org.cougaar.lib.aggagent.query.AggregationResultSet;
 import org.cougaar.lib.aggagent.query.Alert;
 import org.cougaar.lib.aggagent.query.AlertDescriptor;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
 import org.cougaar.lib.aggagent.util.XmlUtils;
 import org.cougaar.lib.aggagent.util.Enum.QueryType;
 import org.cougaar.util.log.Logger;
@@ -67,6 +73,8 @@ public class AggregationClient
   private String aggregationURL = null;
   private String keepAliveURL = null;
   private Timer pullTimer = new Timer();
+  private boolean multiplexMonitors = false;
+  private MonitorMultiplexer multiplexer = null;
   private Logger logger;
   
   /**
@@ -178,6 +186,71 @@ public class AggregationClient
     return response;
   }
 
+  /**
+   * Run a transient query on the aggregation agent, reporting its results to
+   * the given listener as each agent responds rather than all at once.  This
+   * method returns after the listener's queryComplete method has been
+   * called.
+   *
+   * @param aq aggregation query object that fully describes the query.  Query
+   *           must be transient.
+   * @param l  listener to be told of the query's results
+   *
+   * @return true if successful; false otherwise
+   */
+  public boolean createQuery(AggregationQuery aq, QueryStreamListener l)
+  {
+    if (aq.getType() != QueryType.TRANSIENT)
+      throw new IllegalArgumentException("only transient queries stream");
+
+    String taggedURL = aggregationURL + "&CREATE_QUERY=1&STREAM=1";
+    InputStream in = null;
+    try {
+      in = XmlUtils.sendRequest(taggedURL, aq.toXml());
+      Reader r = new BufferedReader(new InputStreamReader(in));
+      StringBuffer frame = new StringBuffer();
+      int c;
+      while ((c = r.read()) != -1) {
+        if (c != '\f') {
+          frame.append((char) c);
+          continue;
+        }
+        Element root = XmlUtils.parse(frame.toString());
+        frame.setLength(0);
+        if (root.getNodeName().equals(QueryResultAdapter.QUERY_COMPLETE_TAG))
+        {
+          LinkedList missing = new LinkedList();
+          NodeList nl = root.getElementsByTagName(
+            QueryResultAdapter.MISSING_CLUSTER_TAG);
+          for (int i = 0; i < nl.getLength(); i++)
+            missing.add(XmlUtils.getElementText((Element) nl.item(i)).trim());
+          l.queryComplete(missing);
+          return true;
+        }
+        String agentId = root.getAttribute(AggregationResultSet.AGENT_ATT);
+        if (agentId.length() > 0)
+          l.agentResponded(agentId, new AggregationResultSet(root));
+        else
+          l.aggregateChanged(new AggregationResultSet(root));
+      }
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+    finally {
+      if (in != null)
+        try {
+          in.close();
+        }
+        catch (IOException ioe) { }
+    }
+
+    // the stream ended without a completion frame, e.g., because the
+    // aggregation agent refused the query
+    return false;
+  }
+
   /**
    * Request the creation of an alert on aggregation agent.
    *
@@ -240,6 +313,36 @@ public class AggregationClient
     return null;
   }
 
+  /**
+   * Bring up to date a result set previously obtained from the aggregation
+   * agent.  Only the changes made since the version of the given copy are
+   * transferred, unless the aggregation agent no longer has them, in which
+   * case a whole new result set is sent.
+   *
+   * @param queryId id of query result adapter for needed result set.
+   * @param current the client's copy of the result set
+   *
+   * @return the given result set, with the changes applied, or a new result
+   *         set if a whole one was sent.  Returns null if query is not found.
+   */
+  public AggregationResultSet getUpdatedResultSet(String queryId,
+                                                  AggregationResultSet current)
+  {
+    String loadedURL = aggregationURL + "&GET_RESULT_SET=1&QUERY_ID=" +
+      queryId + "&SINCE=" + current.getVersion();
+    Element root = XmlUtils.requestXML(loadedURL, null);
+    if (root.getNodeName().equals(ResultSetChanges.RESULT_SET_CHANGES_TAG))
+    {
+      current.applyChanges(new ResultSetChanges(root));
+      return current;
+    }
+    if (root.getNodeName().equals(AggregationResultSet.RESULT_SET_TAG))
+      return new AggregationResultSet(root);
+
+    // result set not found
+    return null;
+  }
+
   /**
    * Request cancelation of an active persistent query.  Removes query from
    * aggregation agent's blackboard.  Cancels all collection activity related
@@ -309,6 +412,10 @@ public class AggregationClient
    */
   public AlertMonitor createAlertMonitor()
   {
+    MonitorMultiplexer mux = getMultiplexer();
+    if (mux != null)
+      return new AlertMonitor(mux);
+
     // setup keep alive task on the client
     return new AlertMonitor(keepAliveURL, Monitor.KEEP_ALIVE_METHOD);
   }
@@ -349,10 +456,51 @@ public class AggregationClient
    */
   public ResultSetMonitor createResultSetMonitor()
   {
+    MonitorMultiplexer mux = getMultiplexer();
+    if (mux != null)
+      return new ResultSetMonitor(mux);
+
     // setup keep alive task on the client
     return new ResultSetMonitor(keepAliveURL, Monitor.KEEP_ALIVE_METHOD);
   }
 
+  /**
+   * Specify whether keep alive monitors created hereafter (by
+   * createAlertMonitor() and createResultSetMonitor()) should share a single
+   * connection to the aggregation agent, read by a single thread, instead of
+   * each having a connection and thread of its own.  This is appropriate
+   * for a client with many monitors.
+   *
+   * @param b true to share a connection; false otherwise
+   */
+  public void setMultiplexMonitors(boolean b)
+  {
+    multiplexMonitors = b;
+  }
+
+  // Get the shared connection for keep alive monitors, making it if need
+  // be.  Returns null if monitors are not to share a connection, or if it
+  // could not be made.
+  private synchronized MonitorMultiplexer getMultiplexer()
+  {
+    if (!multiplexMonitors)
+      return null;
+    if (multiplexer == null || multiplexer.isClosed())
+    {
+      multiplexer = null;
+      MonitorMultiplexer mux = new MonitorMultiplexer(keepAliveURL);
+      try {
+        mux.start();
+        multiplexer = mux;
+      }
+      catch (IOException ioe) {
+        logger.warn("Cannot share a connection among monitors; " +
+                    "each will have its own", ioe);
+      }
+    }
+    return multiplexer;
+  }
+
   /**
    * Create an monitor object that can be used to keep a set of monitored
    * result sets current by periodically pulling from a passive session on
@@ -49,6 +49,11 @@ import org.w3c.dom.Element;
       super(serverURL, "alert", updateMethod);
     }
 
+    AlertMonitor(MonitorMultiplexer multiplexer)
+    {
+      super("alert", multiplexer);
+    }
+
     /**
      * Monitor an alert managed by the aggregation agent.  Returns a 'live'
      * alert descriptor for a given persistent query. Update listeners can be
@@ -74,6 +74,13 @@ import org.w3c.dom.NodeList;
      */
     public static final int KEEP_ALIVE_METHOD = 1;
 
+    /**
+     * MULTIPLEXED_METHOD is an update method in which the client's keep alive
+     * session shares a single connection with those of other monitors (see
+     * MonitorMultiplexer).
+     */
+    public static final int MULTIPLEXED_METHOD = 2;
+
     private Object lock = new Object();
     private boolean notifyKeepAliveExit = false;
     private int updateMethod;
@@ -81,6 +88,7 @@ import org.w3c.dom.NodeList;
     private HashMap monitoredObjectMap = new HashMap();
     private String serverURL = null;
     private String monitorTag = null;
+    private MonitorMultiplexer multiplexer = null;
     private UpdateObservable updateObservable = new UpdateObservable();
 
     private String passiveSessionKey = null;
@@ -216,6 +224,21 @@ import org.w3c.dom.NodeList;
       this.updateMethod = updateMethod;
     }
 
+    /**
+     * Create a new monitor whose keep alive session is carried by the given
+     * multiplexer.
+     *
+     * @param monitorTag   magic text string used to tell aggregation PSP what
+     *                     type of objects are being monitored.
+     *                     (e.g. "alert", "result_set")
+     * @param multiplexer  the connection shared by this monitor's session
+     */
+    Monitor(String monitorTag, MonitorMultiplexer multiplexer)
+    {
+      this(null, monitorTag, MULTIPLEXED_METHOD);
+      this.multiplexer = multiplexer;
+    }
+
     /**
      * Change mode to monitor all objects on the aggregation agent that are of
      * the type that this monitor handles.  Without calling this method, only
@@ -308,6 +331,11 @@ import org.w3c.dom.NodeList;
         cancelPassiveSession();
         return r;
       }
+      else if (updateMethod == MULTIPLEXED_METHOD)
+      {
+        multiplexer.close(this);
+        return true;
+      }
       else if ((updateMethod == KEEP_ALIVE_METHOD) &&
                (keepAliveThread != null))
       {
@@ -435,6 +463,10 @@ import org.w3c.dom.NodeList;
       {
         cancelPassiveSession();
       }
+      else if (updateMethod == MULTIPLEXED_METHOD)
+      {
+        multiplexer.close(this);
+      }
       else
       {
         keepAliveThread = null; // flag thread to exit
@@ -453,6 +485,12 @@ import org.w3c.dom.NodeList;
         keepAliveThread = new Thread(keepAliveTask);
         keepAliveThread.start();
       }
+      else if (updateMethod == MULTIPLEXED_METHOD)
+      {
+        String monitorRequest = createMonitorRequest();
+        if (monitorRequest != null)
+          multiplexer.open(this, monitorRequest);
+      }
     }
 
     private String createMonitorRequest()
@@ -508,6 +546,14 @@ import org.w3c.dom.NodeList;
       return response;
     }
 
+    /**
+     * Apply an update received by the multiplexer.
+     */
+    void receiveUpdate(Element incrementalUpdate)
+    {
+      updateMonitoredObjects(incrementalUpdate);
+    }
+
     private void updateMonitoredObjects(Element incrementalUpdate)
     {
       // update result set based on incremental change xml
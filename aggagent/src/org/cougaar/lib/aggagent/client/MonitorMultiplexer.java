@@ -0,0 +1,519 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+package org.cougaar.lib.aggagent.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.lib.aggagent.util.XmlUtils;
+import org.cougaar.util.log.Logger;
+import org.cougaar.util.log.Logging;
+import org.w3c.dom.Element;
+
+/**
+ * A MonitorMultiplexer carries the keep-alive sessions of any number of
+ * monitors over a single connection to the aggregation agent's keep-alive
+ * servlet, read by a single thread using a Selector.  Each update arrives
+ * as a frame:  the number of the monitor's channel and the length of the
+ * message, as four-byte big-endian integers, followed by the message in
+ * UTF-8.  Frames are decoded from the buffer whole, and messages on the
+ * control channel (-1) are not delivered to any monitor.
+ * <br><br>
+ * Monitors are added and removed with short requests of their own; only the
+ * updates share the connection.  The updates for all monitors are
+ * delivered on the multiplexer's thread, so a slow listener delays them
+ * all.
+ * <br><br>
+ * Should the connection fail, the multiplexer connects again, and once the
+ * servlet has accepted the new connection, the sessions of all monitors are
+ * opened again on it.  Each new session begins by reporting the objects it
+ * monitors, which brings the monitors up to date.  Only close() ends the
+ * connection for good.
+ */
+class MonitorMultiplexer implements Runnable
+{
+  private static final int CONTROL_CHANNEL = -1;
+  private static final int HEADER_SIZE = 8;
+  private static final long CONNECT_TIMEOUT = 30000;
+  private static final long RECONNECT_DELAY = 5000;
+
+  private String keepAliveURL = null;
+  private Logger logger;
+  private SocketChannel channel = null;
+  private Selector selector = null;
+  private ByteBuffer in = ByteBuffer.allocate(65536);
+  private boolean headersRead = false;
+  private Thread thread = null;
+
+  // the id of the current connection, or null while connecting
+  private String muxId = null;
+  private boolean closed = false;
+  private int channelCounter = 0;
+  // Integer channel -> Monitor
+  private Map monitors = new HashMap();
+  // Monitor -> Session
+  private Map sessions = new HashMap();
+
+  private static class Session
+  {
+    public Integer channel;
+    public String request;
+    public String sessionId;
+    // true while the session waits for a connection to be opened on
+    public boolean pending = false;
+
+    public Session(Integer channel, String request)
+    {
+      this.channel = channel;
+      this.request = request;
+    }
+  }
+
+  /**
+   * Create a new multiplexer for the keep-alive servlet at the given URL.
+   * The connection is not made until start() is called.
+   *
+   * @param keepAliveURL text url of the keep alive aggregation servlet
+   */
+  public MonitorMultiplexer(String keepAliveURL)
+  {
+    this.keepAliveURL = keepAliveURL;
+    logger = Logging.getLogger(this);
+  }
+
+  /**
+   * Connect to the aggregation agent and wait for it to accept the
+   * multiplexed connection.
+   */
+  public void start() throws IOException
+  {
+    connect();
+    thread = new Thread(this, "MonitorMultiplexer");
+    thread.setDaemon(true);
+    thread.start();
+
+    synchronized (this)
+    {
+      long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+      long wait;
+      while (muxId == null && !closed &&
+             (wait = deadline - System.currentTimeMillis()) > 0)
+      {
+        try {
+          wait(wait);
+        } catch (InterruptedException e) {
+        }
+      }
+      if (muxId == null)
+      {
+        close();
+        throw new IOException("Multiplexed connection refused by " +
+                              keepAliveURL);
+      }
+    }
+  }
+
+  // Open the connection and send the request for it.  The servlet's reply,
+  // including the id of the connection, is read by the multiplexer's thread.
+  private void connect() throws IOException
+  {
+    URL url = new URL(keepAliveURL + "&KEEP_ALIVE_MUX=1");
+    int port = (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+    SocketChannel sc =
+      SocketChannel.open(new InetSocketAddress(url.getHost(), port));
+    try {
+      // HTTP/1.0, so that the response is not sent in chunks
+      String request = "PUT " + url.getFile() + " HTTP/1.0\r\n" +
+        "Host: " + url.getHost() + ":" + port + "\r\n" +
+        "Content-Length: 0\r\n\r\n";
+      ByteBuffer out = ByteBuffer.wrap(request.getBytes("ISO-8859-1"));
+      while (out.hasRemaining())
+        sc.write(out);
+
+      sc.configureBlocking(false);
+      Selector sel = Selector.open();
+      sc.register(sel, SelectionKey.OP_READ);
+      synchronized (this)
+      {
+        channel = sc;
+        selector = sel;
+      }
+    }
+    catch (IOException e) {
+      sc.close();
+      throw e;
+    }
+  }
+
+  // Drop the current connection.  The servlet cancels the sessions that were
+  // using it, so they are marked to be opened again on the next one.
+  private void disconnect()
+  {
+    synchronized (this)
+    {
+      muxId = null;
+      for (Iterator i = sessions.values().iterator(); i.hasNext(); )
+      {
+        Session s = (Session) i.next();
+        s.sessionId = null;
+        s.pending = true;
+      }
+    }
+    try {
+      if (selector != null)
+        selector.close();
+      if (channel != null)
+        channel.close();
+    } catch (IOException e) {
+    }
+    in.clear();
+    headersRead = false;
+  }
+
+  /**
+   * Start a keep-alive session for the given monitor on this connection.  If
+   * the connection is being remade, the session is opened once it has been.
+   *
+   * @param m              the monitor
+   * @param monitorRequest description of the objects to be monitored
+   *
+   * @return true if successful; false otherwise
+   */
+  public boolean open(Monitor m, String monitorRequest)
+  {
+    Session s;
+    synchronized (this)
+    {
+      if (closed || sessions.containsKey(m))
+        return false;
+      s = new Session(new Integer(channelCounter++), monitorRequest);
+      monitors.put(s.channel, m);
+      sessions.put(m, s);
+      if (muxId == null)
+      {
+        s.pending = true;
+        return true;
+      }
+    }
+
+    if (request(s))
+      return true;
+
+    synchronized (this)
+    {
+      monitors.remove(s.channel);
+      sessions.remove(m);
+    }
+    return false;
+  }
+
+  // Ask the servlet to add a session to the current connection
+  private boolean request(Session s)
+  {
+    String id;
+    synchronized (this)
+    {
+      id = muxId;
+    }
+    if (id == null)
+      return false;
+
+    String response = XmlUtils.requestString(keepAliveURL + "&MUX_ID=" +
+      id + "&CHANNEL=" + s.channel, s.request);
+    if (response != null && response.indexOf("session_created") != -1)
+    {
+      try {
+        String sessionId = XmlUtils.parse(response).getAttribute("id");
+        synchronized (this)
+        {
+          s.sessionId = sessionId;
+        }
+        return true;
+      }
+      catch (Exception e) {
+        logger.error("Bad reply to keep alive session request", e);
+      }
+    }
+    return false;
+  }
+
+  // Open the sessions that have been waiting for the connection just made.
+  // The requests are made on a thread of their own, since the initial
+  // updates they provoke must be read meanwhile.
+  private void reopenSessions()
+  {
+    Thread t = new Thread("MonitorMultiplexer reopen") {
+        public void run()
+        {
+          List waiting = new LinkedList();
+          synchronized (MonitorMultiplexer.this)
+          {
+            for (Iterator i = sessions.values().iterator(); i.hasNext(); )
+            {
+              Session s = (Session) i.next();
+              if (s.pending)
+              {
+                s.pending = false;
+                waiting.add(s);
+              }
+            }
+          }
+          for (Iterator i = waiting.iterator(); i.hasNext(); )
+          {
+            Session s = (Session) i.next();
+            if (!request(s))
+              logger.error("Cannot reopen keep alive session on channel " +
+                           s.channel);
+          }
+        }
+      };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * End the given monitor's keep-alive session, if it has one.
+   */
+  public void close(Monitor m)
+  {
+    String sessionId;
+    synchronized (this)
+    {
+      Session s = (Session) sessions.remove(m);
+      if (s == null)
+        return;
+      monitors.remove(s.channel);
+      sessionId = s.sessionId;
+    }
+    if (sessionId != null)
+      XmlUtils.requestString(
+        keepAliveURL + "&CANCEL_SESSION_ID=" + sessionId, null);
+  }
+
+  /**
+   * Close the connection, ending the sessions of all monitors.
+   */
+  public void close()
+  {
+    Selector sel;
+    synchronized (this)
+    {
+      closed = true;
+      notifyAll();
+      sel = selector;
+    }
+    if (sel != null)
+      sel.wakeup();
+  }
+
+  public void run()
+  {
+    try {
+      while (!isClosed())
+      {
+        try {
+          read();
+          if (!isClosed())
+            logger.warn("Multiplexed keep alive connection closed by " +
+                        keepAliveURL + "; reconnecting");
+        }
+        catch (IOException e) {
+          if (!isClosed())
+            logger.warn("Error reading from multiplexed keep alive; " +
+                        "reconnecting", e);
+        }
+        disconnect();
+        reconnect();
+      }
+    }
+    finally {
+      close();
+      disconnect();
+    }
+  }
+
+  // Read frames until the connection ends or is closed
+  private void read() throws IOException
+  {
+    while (!isClosed())
+    {
+      selector.select();
+      Iterator keys = selector.selectedKeys().iterator();
+      while (keys.hasNext())
+      {
+        keys.next();
+        keys.remove();
+        if (channel.read(in) == -1)
+          return;
+        in.flip();
+        readFrames();
+        in.compact();
+      }
+    }
+  }
+
+  // Try to connect again every so often, until successful or closed
+  private void reconnect()
+  {
+    while (true)
+    {
+      synchronized (this)
+      {
+        if (closed)
+          return;
+        try {
+          wait(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+        }
+        if (closed)
+          return;
+      }
+      try {
+        connect();
+        return;
+      }
+      catch (IOException e) {
+        logger.warn("Cannot reconnect to " + keepAliveURL, e);
+      }
+    }
+  }
+
+  /**
+   * Tell whether the connection has been closed deliberately.  A connection
+   * that fails is made again.
+   */
+  public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  // Consume the complete frames (and, at first, the HTTP response headers)
+  // in the buffer, which is ready for reading.  Whatever is left is the
+  // beginning of a frame.
+  private void readFrames() throws IOException
+  {
+    if (!headersRead && !skipHeaders())
+      return;
+
+    while (in.remaining() >= HEADER_SIZE)
+    {
+      int start = in.position();
+      int channelNum = in.getInt(start);
+      int length = in.getInt(start + 4);
+      if (length < 0)
+        throw new IOException("Bad frame length " + length);
+      if (in.remaining() < HEADER_SIZE + length)
+      {
+        if (HEADER_SIZE + length > in.capacity())
+          grow(HEADER_SIZE + length);
+        return;
+      }
+      String message = new String(in.array(), in.arrayOffset() + start +
+                                  HEADER_SIZE, length, "UTF-8");
+      in.position(start + HEADER_SIZE + length);
+      deliver(channelNum, message);
+    }
+  }
+
+  // Skip past the blank line ending the HTTP response headers, checking
+  // that the request succeeded.  Returns false if the headers are not all
+  // here yet.
+  private boolean skipHeaders() throws IOException
+  {
+    int limit = in.limit();
+    for (int i = in.position(); i + 3 < limit; i++)
+    {
+      if (in.get(i) == '\r' && in.get(i + 1) == '\n' &&
+          in.get(i + 2) == '\r' && in.get(i + 3) == '\n')
+      {
+        String headers = new String(in.array(), in.arrayOffset() +
+                                    in.position(), i - in.position(),
+                                    "ISO-8859-1");
+        int space = headers.indexOf(' ');
+        if (space == -1 || !headers.startsWith("200", space + 1))
+          throw new IOException("Multiplexed connection failed:  " +
+            headers.substring(0, headers.indexOf('\r') == -1 ?
+              headers.length() : headers.indexOf('\r')));
+        in.position(i + 4);
+        headersRead = true;
+        return true;
+      }
+    }
+    if (limit == in.capacity())
+      grow(2 * in.capacity());
+    return false;
+  }
+
+  // Enlarge the buffer, keeping the unread contents ready for reading
+  private void grow(int size)
+  {
+    ByteBuffer bigger = ByteBuffer.allocate(size);
+    bigger.put(in);
+    bigger.flip();
+    in = bigger;
+  }
+
+  private void deliver(int channelNum, String message)
+  {
+    try {
+      if (channelNum == CONTROL_CHANNEL)
+      {
+        if (message.startsWith("<mux_created"))
+        {
+          Element root = XmlUtils.parse(message);
+          synchronized (this)
+          {
+            muxId = root.getAttribute("id");
+            notifyAll();
+          }
+          reopenSessions();
+        }
+        return;
+      }
+
+      Monitor m;
+      synchronized (this)
+      {
+        m = (Monitor) monitors.get(new Integer(channelNum));
+      }
+      if (m != null)
+        m.receiveUpdate(XmlUtils.parse(message));
+    }
+    catch (Exception e) {
+      logger.error("Error handling update on channel " + channelNum, e);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+package org.cougaar.lib.aggagent.client;
+
+import java.util.Collection;
+
+import org.cougaar.lib.aggagent.query.AggregationResultSet;
+
+/**
+ * Receives the results of a streamed transient query (see
+ * AggregationClient.createQuery(AggregationQuery, QueryStreamListener)) as
+ * they arrive from the aggregation agent.
+ */
+public interface QueryStreamListener
+{
+  /**
+   * An agent has responded to a query that has no aggregator.
+   *
+   * @param agentId      the name of the responding agent
+   * @param contribution a result set holding only that agent's results
+   */
+  public void agentResponded(String agentId,
+                             AggregationResultSet contribution);
+
+  /**
+   * More agents have responded to an aggregated query.
+   *
+   * @param current the aggregated result set as it now stands
+   */
+  public void aggregateChanged(AggregationResultSet current);
+
+  /**
+   * The query is finished; no more results will arrive.
+   *
+   * @param missingAgents names of the source agents that did not respond
+   *                      before the query timed out
+   */
+  public void queryComplete(Collection missingAgents);
+}
@@ -65,6 +65,15 @@ import org.w3c.dom.Element;
       super(serverURL, AggregationResultSet.RESULT_SET_TAG, updateMethod);
     }
 
+    /**
+     * Create a new monitor whose keep alive session is carried by the given
+     * multiplexer.
+     */
+    ResultSetMonitor(MonitorMultiplexer multiplexer)
+    {
+      super(AggregationResultSet.RESULT_SET_TAG, multiplexer);
+    }
+
     /**
      * Monitor a result set managed by the aggregation agent.  Returns a 'live'
      * result set for a given persistent query. Update listeners can be added
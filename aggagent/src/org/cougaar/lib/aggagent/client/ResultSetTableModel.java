@@ -25,26 +25,90 @@
  */
 package org.cougaar.lib.aggagent.client;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import javax.swing.table.AbstractTableModel;
 
 import org.cougaar.lib.aggagent.query.AggregationResultSet;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
 import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
 import org.cougaar.lib.aggagent.query.UpdateListener;
 
 /**
- * This class provides a table model of an AggregationResultSet
+ * This class provides a table model of an AggregationResultSet.
+ * <br><br>
+ * The rows are indexed by the identifiers of their atoms.  When the result
+ * set changes, the model asks it for the atoms changed since the version
+ * last seen (see AggregationResultSet.getChangesSince) and adjusts only the
+ * affected rows, firing row-level table events.  The rows are rebuilt from
+ * scratch only when the changes are not known, or are so many that doing so
+ * is cheaper.
+ * <br><br>
+ * The rows may be kept sorted by any column (see setSortColumn); otherwise,
+ * they appear in the order in which their atoms were first seen.  Values
+ * that look like numbers are sorted numerically, ahead of all others.
  */
 public class ResultSetTableModel extends AbstractTableModel
 {
+  // below this many changes, they are always applied one by one
+  private static final int MIN_INCREMENTAL = 64;
+
   private Vector idHeaders = new Vector();
   private Vector valueHeaders = new Vector();
-  private Vector dataAtoms = new Vector();
   private AggregationResultSet observedResultSet = null;
   private UpdateListener resultSetListener = null;
 
+  // the rows, in display order, and the same rows indexed by their keys
+  private List rows = new ArrayList();
+  private Map rowIndex = new HashMap();
+  private long version = 0;
+  private long rowCounter = 0;
+
+  private String sortColumn = null;
+  private boolean ascending = true;
+  private Comparator rowOrder = new RowOrder();
+
+  // One row of the table:  an atom, along with its complete set of
+  // identifiers (including the agent name), which is its key in rowIndex
+  private static class Row
+  {
+    public Map key;
+    public ResultSetDataAtom atom;
+    // the order in which this row was first seen, which breaks ties
+    public long sequence;
+    // the value of the sort column, as compared by RowOrder
+    public Object sortKey;
+
+    public Row(Map key, ResultSetDataAtom atom, long sequence)
+    {
+      this.key = key;
+      this.atom = atom;
+      this.sequence = sequence;
+    }
+  }
+
+  private class RowOrder implements Comparator
+  {
+    public int compare(Object o1, Object o2)
+    {
+      Row r1 = (Row)o1;
+      Row r2 = (Row)o2;
+      int c = compareKeys(r1.sortKey, r2.sortKey);
+      if (c != 0)
+        return ascending ? c : -c;
+      if (r1.sequence == r2.sequence)
+        return 0;
+      return r1.sequence < r2.sequence ? -1 : 1;
+    }
+  }
+
   public ResultSetTableModel()
   {
     resultSetListener = new UpdateListener() {
@@ -58,7 +122,7 @@ public class ResultSetTableModel extends AbstractTableModel
         };
         public void objectChanged(Object sourceObject)
         {
-          updateInternalRepOfResultSet(observedResultSet);
+          applyChanges(observedResultSet);
         }
       };
   }
@@ -82,36 +146,89 @@ public class ResultSetTableModel extends AbstractTableModel
     return observedResultSet;
   }
 
+  /**
+   * Keep the rows sorted by the given column, or in the order in which
+   * they were first seen if the column is -1.
+   *
+   * @param column    index of the column to sort by, or -1
+   * @param ascending true to sort in ascending order; false for descending
+   */
+  public void setSortColumn(int column, boolean ascending)
+  {
+    sortColumn = (column < 0 ? null : getColumnName(column));
+    this.ascending = ascending;
+    for (Iterator i = rows.iterator(); i.hasNext(); )
+      computeSortKey((Row)i.next());
+    Collections.sort(rows, rowOrder);
+    fireTableDataChanged();
+  }
+
+  /**
+   * Get the index of the column by which the rows are sorted, or -1 if they
+   * are not.
+   */
+  public int getSortColumn()
+  {
+    if (sortColumn == null)
+      return -1;
+    int i = idHeaders.indexOf(sortColumn);
+    if (i != -1)
+      return i;
+    i = valueHeaders.indexOf(sortColumn);
+    return (i == -1 ? -1 : idHeaders.size() + i);
+  }
+
+  private void applyChanges(AggregationResultSet rs)
+  {
+    if (rs == null)
+      return;
+
+    ResultSetChanges changes = rs.getChangesSince(version);
+    if (changes.isFull() ||
+        changes.size() > Math.max(MIN_INCREMENTAL, rows.size() / 8))
+    {
+      updateInternalRepOfResultSet(rs);
+      return;
+    }
+
+    for (Iterator i = changes.getChanges(); i.hasNext(); )
+    {
+      ResultSetChanges.Change c = (ResultSetChanges.Change)i.next();
+      if (c.isRemoval())
+        removeRow(c.getKey());
+      else
+        putRow(c.getKey(), c.getTaggedAtom());
+    }
+    version = changes.getToVersion();
+  }
+
   private void updateInternalRepOfResultSet(AggregationResultSet rs)
   {
     Vector oldIdHeaders = (Vector)idHeaders.clone();
     Vector oldValueHeaders = (Vector)valueHeaders.clone();
     idHeaders.clear();
     valueHeaders.clear();
-    dataAtoms.clear();
+    rows.clear();
+    rowIndex.clear();
     if (rs != null)
     {
+      // changes made while the rows are gathered will be applied again later
+      version = rs.getVersion();
       Iterator atoms = rs.getAllAtoms();
-      boolean first = true;
       while (atoms.hasNext())
       {
         ResultSetDataAtom da = (ResultSetDataAtom)atoms.next();
+        Map key = ResultSetChanges.getKey(da);
+        if (idHeaders.isEmpty())
+          setHeaders(da);
 
-        if (first)
-        {
-          first = false;
-          for (Iterator i = da.getIdentifierNames(); i.hasNext();)
-          {
-            idHeaders.add(i.next());
-          }
-          for (Iterator i = da.getValueNames(); i.hasNext();)
-          {
-            valueHeaders.add(i.next());
-          }
-        }
-
-        dataAtoms.add(da);
+        Row r = new Row(key, da, rowCounter++);
+        computeSortKey(r);
+        rows.add(r);
+        rowIndex.put(key, r);
       }
+      if (sortColumn != null)
+        Collections.sort(rows, rowOrder);
     }
 
     // fire proper table change event
@@ -126,9 +243,137 @@ public class ResultSetTableModel extends AbstractTableModel
     }
   }
 
+  // Take the column headers from an atom as given by getAllAtoms, so that
+  // the columns come out the same whether the rows were built from the
+  // whole result set or from changes to it
+  private void setHeaders(ResultSetDataAtom da)
+  {
+    for (Iterator i = da.getIdentifierNames(); i.hasNext();)
+    {
+      idHeaders.add(i.next());
+    }
+    for (Iterator i = da.getValueNames(); i.hasNext();)
+    {
+      valueHeaders.add(i.next());
+    }
+  }
+
+  // Insert a row for a new atom, or replace the atom of an existing row,
+  // moving it if its place in the sort order has changed
+  private void putRow(Map key, ResultSetDataAtom da)
+  {
+    Row r = (Row)rowIndex.get(key);
+    if (r == null)
+    {
+      r = new Row(key, da, rowCounter++);
+      computeSortKey(r);
+      int at = insertionPoint(r);
+      rows.add(at, r);
+      rowIndex.put(key, r);
+      if (idHeaders.isEmpty())
+      {
+        setHeaders(da);
+        fireTableStructureChanged();
+      }
+      else
+      {
+        fireTableRowsInserted(at, at);
+      }
+      return;
+    }
+
+    int from = indexOf(r);
+    Object oldSortKey = r.sortKey;
+    r.atom = da;
+    computeSortKey(r);
+    if (compareKeys(oldSortKey, r.sortKey) == 0)
+    {
+      fireTableRowsUpdated(from, from);
+      return;
+    }
+
+    rows.remove(from);
+    int to = insertionPoint(r);
+    rows.add(to, r);
+    if (to == from)
+    {
+      fireTableRowsUpdated(to, to);
+    }
+    else
+    {
+      fireTableRowsDeleted(from, from);
+      fireTableRowsInserted(to, to);
+    }
+  }
+
+  private void removeRow(Map key)
+  {
+    Row r = (Row)rowIndex.remove(key);
+    if (r == null)
+      return;
+    int at = indexOf(r);
+    rows.remove(at);
+    fireTableRowsDeleted(at, at);
+  }
+
+  // Find a row known to be present.  The order is total, so the search
+  // finds exactly this row.
+  private int indexOf(Row r)
+  {
+    return Collections.binarySearch(rows, r, rowOrder);
+  }
+
+  // Find the place for a row not yet present
+  private int insertionPoint(Row r)
+  {
+    return -1 - Collections.binarySearch(rows, r, rowOrder);
+  }
+
+  private void computeSortKey(Row r)
+  {
+    if (sortColumn == null)
+    {
+      r.sortKey = null;
+      return;
+    }
+    Object value = r.key.get(sortColumn);
+    if (value == null)
+      value = r.atom.getValue(sortColumn);
+    if (value instanceof Number)
+    {
+      r.sortKey = new Double(((Number)value).doubleValue());
+    }
+    else if (value != null)
+    {
+      String s = value.toString();
+      try {
+        r.sortKey = Double.valueOf(s);
+      }
+      catch (NumberFormatException nfe) {
+        r.sortKey = s;
+      }
+    }
+    else
+    {
+      r.sortKey = null;
+    }
+  }
+
+  // Nulls come first, then numbers, then strings
+  private static int compareKeys(Object k1, Object k2)
+  {
+    if (k1 == null || k2 == null)
+      return (k1 == null ? 0 : 1) - (k2 == null ? 0 : 1);
+    boolean n1 = k1 instanceof Double;
+    boolean n2 = k2 instanceof Double;
+    if (n1 != n2)
+      return n1 ? -1 : 1;
+    return ((Comparable)k1).compareTo(k2);
+  }
+
   public int getRowCount()
   {
-    return dataAtoms.size();
+    return rows.size();
   }
 
   public int getColumnCount()
@@ -155,16 +400,16 @@ public class ResultSetTableModel extends AbstractTableModel
   public Object getValueAt(int row, int column)
   {
     Object value = null;
-    ResultSetDataAtom da = (ResultSetDataAtom)dataAtoms.elementAt(row);
+    Row r = (Row)rows.get(row);
 
     int idCount = idHeaders.size();
     if (column < idCount)
     {
-      value = da.getIdentifier(idHeaders.elementAt(column));
+      value = r.key.get(idHeaders.elementAt(column));
     }
     else
     {
-      value = da.getValue(valueHeaders.elementAt(column - idCount));
+      value = r.atom.getValue(valueHeaders.elementAt(column - idCount));
     }
 
     return value;
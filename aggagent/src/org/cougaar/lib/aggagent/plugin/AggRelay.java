@@ -95,6 +95,14 @@ implements Relay.Source, Relay.Target
     return content;
   }
 
+  /**
+   * Replace the content of this relay.  The new content reaches the target
+   * when the relay is published as changed.
+   */
+  public void setContent(XMLMessage content) {
+    this.content = content;
+  }
+
 
   private static final class SimpleRelayFactory
   implements TargetFactory, java.io.Serializable {
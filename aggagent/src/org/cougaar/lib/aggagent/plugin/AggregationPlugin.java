@@ -25,10 +25,18 @@
  */
 package org.cougaar.lib.aggagent.plugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.TimerTask;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import org.cougaar.core.blackboard.IncrementalSubscription;
@@ -37,17 +45,27 @@ import org.cougaar.core.plugin.ComponentPlugin;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.UIDService;
 import org.cougaar.lib.aggagent.query.AggregationQuery;
+import org.cougaar.lib.aggagent.query.QueryRegistry;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
 import org.cougaar.lib.aggagent.session.UpdateDelta;
 import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.lib.aggagent.util.XmlUtils;
 import org.cougaar.lib.aggagent.util.Enum.QueryType;
 import org.cougaar.lib.aggagent.util.Enum.UpdateMethod;
+import org.cougaar.lib.aggagent.util.Enum.WireFormat;
 import org.cougaar.util.UnaryPredicate;
 import org.w3c.dom.Element;
 
 /**
  * Receives aggregation requests in the form of QueryResultAdapter objects.
+ * <br><br>
+ * If given a parameter of the form "checkpoint_dir=<i>directory</i>", the
+ * Plugin keeps a checkpoint of its persistent queries' result sets in that
+ * directory (see ResultSetCheckpoint).  After a restart, the result sets are
+ * restored from the checkpoint, and the source agents are asked to resume
+ * their sessions instead of sending all of their data again.  A parameter
+ * "snapshot_interval=<i>n</i>" sets the number of updates logged between
+ * snapshots (default 1000).
  */
 public class AggregationPlugin extends ComponentPlugin
 {
@@ -55,6 +73,32 @@ public class AggregationPlugin extends ComponentPlugin
   private IncrementalSubscription querySub;
   private IncrementalSubscription messageSub;
 
+  // the relays in messageSub, organized by query and target agent
+  private RelayIndex relayIndex = new RelayIndex();
+
+  // relays sent before a restart, which are withdrawn once new ones sent on
+  // behalf of the same queries start to bear responses
+  private Set oldRelays = new HashSet();
+
+  // the last chunk of a transient response handled on each relay, so that a
+  // relay changed here (to acknowledge the chunk) is not mistaken for one
+  // bearing the next
+  private Map handledChunks = new HashMap();
+
+  // the queries in querySub, by ID; shared with the agent's servlets
+  private QueryRegistry queries;
+
+  // the timetable for PULL queries, and the alarm set for the next one due
+  private PullScheduler pullScheduler = new PullScheduler();
+  private WakeAlarm pullAlarm = null;
+
+  // relays carrying batched update requests are indexed under this query ID
+  private static final String PULL_BATCH_ID = "";
+
+  // the on-disk copy of the persistent queries' result sets, if any
+  private ResultSetCheckpoint checkpoint = null;
+  private int snapshotInterval = 1000;
+
   private static class QuerySeeker implements UnaryPredicate
   {
     public boolean execute (Object o)
@@ -75,8 +119,42 @@ public class AggregationPlugin extends ComponentPlugin
   public void setupSubscriptions()
   {
     me = getAgentIdentifier();
+    queries = QueryRegistry.forAgent(me.toString());
+    queries.clear();
     querySub = subscribeIncr(new QuerySeeker());
     messageSub = subscribeIncr(new MessageSeeker(true));
+    readParameters();
+  }
+
+  private void readParameters () {
+    Collection params = getParameters();
+    if (params == null)
+      return;
+
+    String checkpointDir = null;
+    for (Iterator i = params.iterator(); i.hasNext(); ) {
+      String p = i.next().toString();
+      int eq = p.indexOf('=');
+      String name = eq < 0 ? p : p.substring(0, eq).trim();
+      String value = eq < 0 ? "" : p.substring(eq + 1).trim();
+      if (name.equals("checkpoint_dir")) {
+        checkpointDir = value;
+      }
+      else if (name.equals("snapshot_interval")) {
+        try {
+          snapshotInterval = Integer.parseInt(value);
+        }
+        catch (NumberFormatException nfe) {
+          if (log != null && log.isWarnEnabled()) log.warn("AggPlugin:("+me+"):bad snapshot_interval \""+value+"\"");
+        }
+      }
+      else if (log != null && log.isWarnEnabled()) {
+        log.warn("AggPlugin:("+me+"):unrecognized parameter \""+p+"\"");
+      }
+    }
+    if (checkpointDir != null)
+      checkpoint = new ResultSetCheckpoint(
+        new File(checkpointDir, me.toString()), snapshotInterval);
   }
 
   public void execute()
@@ -84,10 +162,14 @@ public class AggregationPlugin extends ComponentPlugin
 
     if (log != null && log.isDebugEnabled()) log.debug("("+me+")AggPlugin: execute");
 
+    indexMessages();
+    registerQueries();
     checkNewMessages();
     checkNewQueries();
     checkUpdatedQueries();
     checkRemovedQueries();
+    pullQueries();
+    flushCheckpoint();
   }
 
   private void checkNewMessages() {
@@ -102,6 +184,51 @@ public class AggregationPlugin extends ComponentPlugin
     }
   }
 
+  /**
+   *  Keep the relay index in line with the messageSub.  Relays sent by this
+   *  Plugin are indexed as they are published, so a relay that arrives here
+   *  unindexed was sent before a restart, and its content must be examined
+   *  (once) to find its query.  Batched update requests carry no query ID,
+   *  and so are indexed under PULL_BATCH_ID.
+   */
+  private void indexMessages() {
+    for (Enumeration e = messageSub.getAddedList(); e.hasMoreElements();)
+    {
+      AggRelay ar = (AggRelay) e.nextElement();
+      if (!relayIndex.contains(ar)) {
+        try {
+          XMLMessage xmsg = (XMLMessage) ar.getContent();
+          Element root = XmlUtils.parse(xmsg.getText());
+          relayIndex.add(root.getAttribute("query_id"), ar);
+          oldRelays.add(ar);
+        }
+        catch (Exception ex) {
+          if (log != null && log.isErrorEnabled())
+            log.error("AggPlugin:("+me+"):unable to index relay "+ar+": "+ex);
+        }
+      }
+    }
+    for (Enumeration e = messageSub.getRemovedList(); e.hasMoreElements();)
+    {
+      AggRelay ar = (AggRelay) e.nextElement();
+      relayIndex.remove(ar);
+      oldRelays.remove(ar);
+      handledChunks.remove(ar);
+    }
+  }
+
+  /**
+   *  Keep the query registry in line with the querySub.  This is done before
+   *  any messages are handled, so that responses can be matched to queries
+   *  by ID.
+   */
+  private void registerQueries() {
+    for (Enumeration e = querySub.getAddedList(); e.hasMoreElements();)
+      queries.add((QueryResultAdapter) e.nextElement());
+    for (Enumeration e = querySub.getRemovedList(); e.hasMoreElements();)
+      queries.remove((QueryResultAdapter) e.nextElement());
+  }
+
   private void checkNewQueries() {
     for(Enumeration e = querySub.getAddedList(); e.hasMoreElements();)
     {
@@ -110,6 +237,7 @@ public class AggregationPlugin extends ComponentPlugin
 
       if (aq.getType() == QueryType.PERSISTENT)
       {
+        Map resume = restoreCheckpoint(qra);
         if (aq.getUpdateMethod() == UpdateMethod.PUSH)
         {
           // create a push session on each of the source clusters listed
@@ -117,7 +245,8 @@ public class AggregationPlugin extends ComponentPlugin
           for (Enumeration sc = aq.getSourceClusters(); sc.hasMoreElements();)
           {
             String clusterString = (String)sc.nextElement();
-            requestPushSession(qra.getID(), clusterString, qra);
+            requestPushSession(qra.getID(), clusterString, qra,
+              (ResultSetCheckpoint.Position) resume.get(clusterString));
           }
         }
         else
@@ -125,15 +254,14 @@ public class AggregationPlugin extends ComponentPlugin
           for (Enumeration sc = aq.getSourceClusters(); sc.hasMoreElements();)
           {
             String clusterString = (String)sc.nextElement();
-            requestPullSession(qra.getID(), clusterString, qra);
+            requestPullSession(qra.getID(), clusterString, qra,
+              (ResultSetCheckpoint.Position) resume.get(clusterString));
           }
-          // set up the aggregator timer
+          // schedule the periodic update requests
           if (qra.getQuery().getPullRate() >= 0)
           {
-            java.util.Timer pullTimer = new java.util.Timer();
             long waitPeriod = (long)(qra.getQuery().getPullRate() * 1000);
-            pullTimer.scheduleAtFixedRate(getTimerTask(qra), 0, waitPeriod);
-            qra.getQuery().setPullTimer(pullTimer);
+            pullScheduler.add(qra, waitPeriod, System.currentTimeMillis());
           }
         }
       }
@@ -162,20 +290,14 @@ public class AggregationPlugin extends ComponentPlugin
           Vector removedClusters = qra.getAndResetRemovedClusters();
           // remove the old cluster relays
           if (removedClusters != null && !removedClusters.isEmpty()) {
-            Iterator iter = messageSub.getCollection().iterator();
-            while(iter.hasNext()) {
-                AggRelay ar = (AggRelay) iter.next();
-                XMLMessage xmsg = (XMLMessage)ar.getContent();
-                Element root = XmlUtils.parse(xmsg.getText());
-                String this_query_id = root.getAttribute("query_id");
-                Iterator targets = ar.getTargets().iterator();
-                while (targets.hasNext()) {
-                  String this_cluster_id = targets.next().toString();
-                  if (queryId.equals(this_query_id) && removedClusters.contains(this_cluster_id)) {
-                    getBlackboardService().publishRemove(ar);
-                  }
-                }
+            for (Iterator c = removedClusters.iterator(); c.hasNext(); ) {
+              Iterator iter =
+                relayIndex.removeAgent(queryId, (String) c.next()).iterator();
+              while (iter.hasNext())
+                getBlackboardService().publishRemove(iter.next());
             }
+            if (aq.getUpdateMethod() == UpdateMethod.PULL)
+              withdrawPullBatches(removedClusters.iterator());
             if (log != null && log.isDebugEnabled()) log.debug("("+me+")Updating remote session "+qra.getID());
           }
           Vector addedClusters = qra.getAndResetAddedClusters();
@@ -186,9 +308,9 @@ public class AggregationPlugin extends ComponentPlugin
             while (newClusters.hasMoreElements()) {
               String clusterId = (String) newClusters.nextElement();
               if (aq.getUpdateMethod() == UpdateMethod.PUSH) {
-                requestPushSession(queryId, clusterId, qra);
+                requestPushSession(queryId, clusterId, qra, null);
               } else {
-                requestPullSession(queryId, clusterId, qra);
+                requestPullSession(queryId, clusterId, qra, null);
               }
             }
           }
@@ -212,18 +334,89 @@ public class AggregationPlugin extends ComponentPlugin
         if (aq.getUpdateMethod() == UpdateMethod.PULL)
         {
           // cancel local pull session
-          qra.getQuery().getPullTimer().cancel();
+          pullScheduler.remove(queryId);
+          withdrawPullBatches(aq.getSourceClustersVector().iterator());
         }
 
         // cancel session on each of the source clusters listed in query
         if (log != null && log.isDebugEnabled()) log.debug("("+me+")Cancelling remote session "+queryId);
         cancelRemoteSession(queryId);
+        discardCheckpoint(queryId);
       }
     }
   }
 
+  /**
+   *  Restore a newly found persistent query's result set from the
+   *  checkpoint, if there is one, and begin checkpointing the query.  The
+   *  positions reached by the query's sessions before a restart are
+   *  returned, by source agent; the Map is empty if there were none.
+   */
+  private Map restoreCheckpoint (QueryResultAdapter qra) {
+    if (checkpoint == null)
+      return Collections.EMPTY_MAP;
+    try {
+      Map ret = checkpoint.restore(qra);
+      if (!ret.isEmpty()) {
+        getBlackboardService().publishChange(qra);
+        if (log != null && log.isInfoEnabled()) log.info("AggPlugin:("+me+"):restored query "+qra.getID()+" from checkpoint");
+      }
+      return ret;
+    }
+    catch (IOException ioe) {
+      if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):unable to checkpoint query "+qra.getID()+": "+ioe);
+      discardCheckpoint(qra.getID());
+      return Collections.EMPTY_MAP;
+    }
+  }
+
+  private void recordCheckpoint (QueryResultAdapter qra, UpdateDelta delta) {
+    if (checkpoint == null)
+      return;
+    try {
+      checkpoint.record(qra, delta);
+    }
+    catch (IOException ioe) {
+      if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):unable to checkpoint query "+qra.getID()+": "+ioe);
+      discardCheckpoint(qra.getID());
+    }
+  }
+
+  private void discardCheckpoint (String queryId) {
+    if (checkpoint == null)
+      return;
+    try {
+      checkpoint.discard(queryId);
+    }
+    catch (IOException ioe) {
+      if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):unable to discard checkpoint of query "+queryId+": "+ioe);
+    }
+  }
+
+  private void flushCheckpoint () {
+    if (checkpoint == null)
+      return;
+    try {
+      checkpoint.flush();
+    }
+    catch (IOException ioe) {
+      if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):unable to write checkpoint: "+ioe);
+    }
+  }
+
   private String frameRequestXml (String action, String qId, String cId,
       boolean requester, AggregationQuery query)
+  {
+    return frameRequestXml(action, qId, cId, requester, query, null, null);
+  }
+
+  // A request to a delegate aggregation agent carries, in addition, the
+  // query that the delegate is to carry out on this agent's behalf.  A
+  // request made after a restart may ask to resume the session that was in
+  // progress beforehand, from the position recorded in the checkpoint.
+  private String frameRequestXml (String action, String qId, String cId,
+      boolean requester, AggregationQuery query, AggregationQuery delegate,
+      ResultSetCheckpoint.Position resume)
   {
     InverseSax request = new InverseSax();
     request.addElement(action);
@@ -233,8 +426,34 @@ public class AggregationPlugin extends ComponentPlugin
     if (requester)
       request.addAttribute(
         "requester", getAgentIdentifier().toString());
-    if (query != null)
+    if (resume != null) {
+      request.addAttribute("resume_session", resume.getSession());
+      request.addAttribute("resume_seq", String.valueOf(resume.getSequence()));
+    }
+    if (query != null) {
+      if (!WireFormat.XML.equals(query.getWireFormat()))
+        request.addAttribute("wire_format", query.getWireFormat().toString());
+      if (action.equals("push_request"))
+        query.getPushPolicy().includeXml(request);
+      boolean persistent = !action.equals("transient_query_request");
+      if (query.getChunkSize() > 0 && !persistent)
+        request.addAttribute(AggregationQuery.CHUNK_SIZE_ATT,
+          String.valueOf(query.getChunkSize()));
+      if (query.getFieldDiffs() && persistent)
+        request.addAttribute(AggregationQuery.FIELD_DIFFS_ATT, "true");
+      boolean combine =
+        query.getCombine() && persistent && query.getAggSpec() != null;
+      if (combine)
+        request.addAttribute(AggregationQuery.COMBINE_ATT, "true");
       query.includeScriptXml(request);
+      if (combine)
+        query.getAggSpec().includeXml(request);
+    }
+    if (delegate != null) {
+      request.addElement("delegate");
+      delegate.includeXml(request);
+      request.endElement();
+    }
     request.endElement();
     return request.toString();
   }
@@ -243,19 +462,43 @@ public class AggregationPlugin extends ComponentPlugin
    * send query to cluster
    */
   private void queryCluster (String cId, QueryResultAdapter qra) {
-    sendMessage(createAggAddress(cId), frameRequestXml(
+    if (refuseDelegate(cId, qra))
+      return;
+    sendMessage(qra.getID(), createAggAddress(cId), frameRequestXml(
       "transient_query_request", qra.getID(), cId, false, qra.getQuery()));
   }
 
+  // A delegate reports the partial atoms of its own result set, which can
+  // stand in for its sources' data only if they merge with those of the
+  // other sources, i.e., if the query is persistent and combined and its
+  // melder is mergeable (see AggregationQuery.addDelegate()).  Otherwise no
+  // request is sent, and an error is recorded for the delegate instead.
+  private boolean refuseDelegate (String clusterId, QueryResultAdapter qra) {
+    if (!qra.getQuery().isDelegate(clusterId) || qra.isMergingPartials())
+      return false;
+
+    UpdateDelta del = new UpdateDelta(clusterId, qra.getID(), "");
+    del.setErrorReport(new Exception("Cannot delegate query " + qra.getID() +
+      " to " + clusterId + ": delegation requires a persistent, combined " +
+      "query with a mergeable melder"));
+    qra.updateResults(del);
+    getBlackboardService().publishChange(qra);
+    if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):refused delegation of "+qra.getID()+" to "+clusterId);
+    return true;
+  }
+
   /**
    * Send request to given Generic Plugin URL for a push session back to
    * this cluster.
    */
-  private void requestPushSession (
-      String queryId, String clusterId, QueryResultAdapter qra)
+  private void requestPushSession (String queryId, String clusterId,
+      QueryResultAdapter qra, ResultSetCheckpoint.Position resume)
   {
-    sendMessage(createAggAddress(clusterId),
-      frameRequestXml("push_request", queryId, null, true, qra.getQuery()));
+    if (refuseDelegate(clusterId, qra))
+      return;
+    sendMessage(queryId, createAggAddress(clusterId),
+      frameRequestXml("push_request", queryId, null, true, qra.getQuery(),
+        qra.getQuery().getDelegateQuery(clusterId), resume));
     if (log != null && log.isDebugEnabled()) log.debug("AggPlugin:("+me+"):requestPushSession:  sent message");
   }
 
@@ -263,33 +506,89 @@ public class AggregationPlugin extends ComponentPlugin
    * Send request to given Generic Plugin URL for a pull session back to
    * this cluster.
    */
-  private void requestPullSession (
-      String queryId, String clusterId, QueryResultAdapter qra)
+  private void requestPullSession (String queryId, String clusterId,
+      QueryResultAdapter qra, ResultSetCheckpoint.Position resume)
   {
-    sendMessage(createAggAddress(clusterId),
-      frameRequestXml("pull_request", queryId, null, true, qra.getQuery()));
+    if (refuseDelegate(clusterId, qra))
+      return;
+    sendMessage(queryId, createAggAddress(clusterId),
+      frameRequestXml("pull_request", queryId, null, true, qra.getQuery(),
+        qra.getQuery().getDelegateQuery(clusterId), resume));
   }
 
-  private TimerTask getTimerTask(QueryResultAdapter qra) {
-    return new PullTimerTask(qra);
+  /**
+   * Send update requests for the PULL queries that are due.  The requests
+   * bound for each source agent are gathered into a single message, which
+   * replaces the previous one sent to that agent.  Then arrange to be woken
+   * when the next query falls due.
+   */
+  private void pullQueries() {
+    long now = System.currentTimeMillis();
+    Map requests = new HashMap();
+    for (Iterator i = pullScheduler.takeDue(now).iterator(); i.hasNext(); ) {
+      QueryResultAdapter qra = (QueryResultAdapter) i.next();
+      Enumeration sources = qra.getQuery().getSourceClusters();
+      while (sources.hasMoreElements()) {
+        Object clusterId = sources.nextElement();
+        List queryIds = (List) requests.get(clusterId);
+        if (queryIds == null)
+          requests.put(clusterId, queryIds = new LinkedList());
+        queryIds.add(qra.getID());
+      }
+    }
+
+    for (Iterator i = requests.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) i.next();
+      String clusterId = (String) entry.getKey();
+      Iterator old = relayIndex.removeAgent(PULL_BATCH_ID, clusterId).iterator();
+      while (old.hasNext())
+        getBlackboardService().publishRemove(old.next());
+      sendMessage(PULL_BATCH_ID, createAggAddress(clusterId),
+        frameUpdateRequests((List) entry.getValue()));
+    }
+
+    long next = pullScheduler.getNextDue();
+    if (next != Long.MAX_VALUE && (pullAlarm == null ||
+        pullAlarm.hasExpired() || pullAlarm.getExpirationTime() > next))
+    {
+      if (pullAlarm != null)
+        pullAlarm.cancel();
+      pullAlarm = new WakeAlarm(getBlackboardService(), next);
+      getAlarmService().addRealTimeAlarm(pullAlarm);
+    }
   }
-    
+
+  /**
+   * Remove the batched update requests last sent to those of the given agents
+   * from which no PULL query remains to be pulled.
+   */
+  private void withdrawPullBatches (Iterator agents) {
+    while (agents.hasNext()) {
+      String clusterId = (String) agents.next();
+      if (pullScheduler.isPulling(clusterId))
+        continue;
+      Iterator old = relayIndex.removeAgent(PULL_BATCH_ID, clusterId).iterator();
+      while (old.hasNext())
+        getBlackboardService().publishRemove(old.next());
+    }
+  }
+
+  private String frameUpdateRequests (List queryIds) {
+    InverseSax request = new InverseSax();
+    request.addElement("update_requests");
+    request.addAttribute("requester", getAgentIdentifier().toString());
+    for (Iterator i = queryIds.iterator(); i.hasNext(); )
+      request.addEltAtt("update_request", "query_id", (String) i.next());
+    request.endElement();
+    return request.toString();
+  }
+
   private void cancelRemoteSession(String queryId) {
-      // todo: this is horribly inefficient.
-      try {
-          Iterator iter = messageSub.getCollection().iterator();
-          while(iter.hasNext()) {
-              AggRelay ar = (AggRelay) iter.next();
-              XMLMessage xmsg = (XMLMessage)ar.getContent();
-              Element root = XmlUtils.parse(xmsg.getText());
-              String this_id = root.getAttribute("query_id");
-              if (queryId.equals(this_id)) {
-                  getBlackboardService().publishRemove(ar);
-                  if (log != null && log.isDebugEnabled()) log.debug("AggPlugin:("+me+"):canceled session at "+ar.getTargets().iterator().next());
-              }
-          }
-      } catch (Exception ioe) {
-          if (log != null && log.isErrorEnabled()) log.error("AggPlugin:("+me+"):error canceling session"+ioe);
+      Iterator iter = relayIndex.removeQuery(queryId).iterator();
+      while(iter.hasNext()) {
+          AggRelay ar = (AggRelay) iter.next();
+          getBlackboardService().publishRemove(ar);
+          if (log != null && log.isDebugEnabled()) log.debug("AggPlugin:("+me+"):canceled session at "+ar.getTargets().iterator().next());
       }
   }
 
@@ -301,13 +600,13 @@ public class AggregationPlugin extends ComponentPlugin
     try {
       if (log != null && log.isDebugEnabled()) log.debug("AggPlugin:("+me+"):receiveMessage");
       XMLMessage xmsg = (XMLMessage)relay.getResponse();
-      Element root = XmlUtils.parse(xmsg.getText());
-//      String requestName = root.getNodeName();
+      if (xmsg == handledChunks.get(relay))
+        return;
 
       //
       // Handle a response to one of my previous queries
       //
-      UpdateDelta delta = new UpdateDelta(root);
+      UpdateDelta delta = PayloadCodec.decodeMessage(xmsg);
  
       String updatedQuery = delta.getQueryId();
       String updatedCluster = delta.getAgentId();
@@ -317,21 +616,31 @@ public class AggregationPlugin extends ComponentPlugin
         getAgentIdentifier() +
         " --- Query update to :" + updatedQuery + " from " + updatedCluster);
 
-      // find query result adapter on blackboard
-      Iterator updatedQueries = getBlackboardService().query(
-        new QueryRAFinder(updatedQuery)).iterator();
-
-      if (updatedQueries.hasNext()) {
-        QueryResultAdapter qra = (QueryResultAdapter)updatedQueries.next();
+      // find query result adapter in the registry
+      QueryResultAdapter qra = queries.get(updatedQuery);
 
+      if (qra != null) {
         // update query result set based on reported changes
         qra.updateResults(delta);
 
         // publish changes to blackboard
         getBlackboardService().publishChange(qra);
         // Am I done with thie relay?
-        if (qra.getQuery().getType().equals(QueryType.TRANSIENT))
+        if (qra.getQuery().getType().equals(QueryType.TRANSIENT)) {
+          if (delta.hasMore()) {
+            acknowledgeChunk(relay, xmsg, delta);
+          }
+          else {
+            handledChunks.remove(relay);
             getBlackboardService().publishRemove(relay);
+            relayIndex.remove(relay);
+          }
+        }
+        else {
+          recordCheckpoint(qra, delta);
+          if (!oldRelays.isEmpty() && !oldRelays.contains(relay))
+            withdrawOldRelays(updatedQuery, updatedCluster);
+        }
       }
       else {
         if (log != null && log.isErrorEnabled())
@@ -344,11 +653,58 @@ public class AggregationPlugin extends ComponentPlugin
   }
 
 
+  /**
+   * Ask for the next chunk of a response to a transient query, by replacing
+   * the content of the relay with an acknowledgement of the last one.
+   */
+  private void acknowledgeChunk (
+      AggRelay relay, XMLMessage response, UpdateDelta delta)
+  {
+    handledChunks.put(relay, response);
+    InverseSax ack = new InverseSax();
+    ack.addElement("transient_ack");
+    ack.addAttribute("query_id", delta.getQueryId());
+    ack.addAttribute("seq", String.valueOf(delta.getSequence()));
+    ack.endElement();
+    relay.setContent(new XMLMessage(ack.toString()));
+    getBlackboardService().publishChange(relay);
+  }
+
+  /**
+   * The session for a query at the given agent has responded on a relay
+   * sent since the last restart.  Any relays sent for the same purpose before
+   * the restart are no longer needed.
+   */
+  private void withdrawOldRelays (String queryId, String clusterId) {
+    Iterator iter = relayIndex.find(queryId, clusterId).iterator();
+    while (iter.hasNext()) {
+      AggRelay ar = (AggRelay) iter.next();
+      if (oldRelays.remove(ar)) {
+        relayIndex.remove(ar);
+        getBlackboardService().publishRemove(ar);
+      }
+    }
+  }
+
   /**
    * Doesn't actually send a message, but published an object that
    * causes a message to be sent.
    */
   protected void sendMessage (MessageAddress address, String message) {
+    publishRelay(address, message);
+  }
+
+  /**
+   * Send a message on behalf of the identified query.  The relay is indexed
+   * under that query, so that it can be found later without a search.
+   */
+  private void sendMessage (
+      String queryId, MessageAddress address, String message)
+  {
+    relayIndex.add(queryId, publishRelay(address, message));
+  }
+
+  private AggRelay publishRelay (MessageAddress address, String message) {
     if (log != null && log.isDebugEnabled()) log.debug("AggPlugins:("+me+"):sendMessage from: " +
       getAgentIdentifier() + " to " + address.getAddress());
     XMLMessage msg = new XMLMessage(message);
@@ -357,49 +713,13 @@ public class AggregationPlugin extends ComponentPlugin
     relay.setLocal(true);
     getBlackboardService().publishAdd(relay);
     if (log != null && log.isDebugEnabled()) log.debug("AggPlugins:("+me+"):sendMessage:  done publishized it");
+    return relay;
   }
 
   protected static final MessageAddress createAggAddress(String agentName) {
     return MessageAddress.getMessageAddress(agentName);
   }
 
-  private static class QueryRAFinder implements UnaryPredicate
-  {
-    String queryId = null;
-
-    public QueryRAFinder(String queryId)
-    {
-      this.queryId = queryId;
-    }
-
-    public boolean execute(Object o)
-    {
-      if (o instanceof QueryResultAdapter)
-      {
-        QueryResultAdapter qra = (QueryResultAdapter)o;
-        return qra.checkID(queryId);
-      }
-      return false;
-    }
-  }
-
-  private class PullTimerTask extends TimerTask {
-    private QueryResultAdapter qra;
-
-    public PullTimerTask (QueryResultAdapter qra) {
-      this.qra = qra;
-    }
-
-    public void run () {
-      String reqStr = frameRequestXml(
-        "update_request", qra.getID(), null, true, null);
-
-      Enumeration sources = qra.getQuery().getSourceClusters();
-      while (sources.hasMoreElements())
-        sendMessage(createAggAddress((String) sources.nextElement()), reqStr);
-    }
-  }
-
   protected LoggingService log = null;
   
   /** Holds value of property UIDService. */
@@ -34,6 +34,7 @@ import org.cougaar.core.plugin.ComponentPlugin;
 import org.cougaar.core.service.BlackboardService;
 import org.cougaar.lib.aggagent.query.Alert;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
 import org.cougaar.util.UnaryPredicate;
 
 /**
@@ -73,22 +74,29 @@ public class AlertPlugin extends ComponentPlugin {
     if (resultSets.hasChanged()) {
       // update alerts associated with changed result set(s)
       for (Enumeration e = resultSets.getChangedList(); e.hasMoreElements(); ){
-        updateAlerts(((QueryResultAdapter) e.nextElement()).getAlerts());
+        QueryResultAdapter qra = (QueryResultAdapter) e.nextElement();
+        updateAlerts(qra.getAlerts(), qra.getResultSet().takeChanges());
       }
     }
     if (alerts.hasChanged()) {
       // set initial state of new alert(s)
-      updateAlerts(alerts.getAddedCollection().iterator());
+      updateAlerts(alerts.getAddedCollection().iterator(), null);
       System.out.println("AlertPlugin::execute:  Alerts have changed");
     }
   }
 
-  private void updateAlerts(Iterator alerts)
+  /**
+   *  Update the given Alerts.  If the changes to their result set are known,
+   *  then the Alerts are allowed to examine only those changes; otherwise,
+   *  each examines the entire result set.
+   */
+  private void updateAlerts(Iterator alerts, ResultSetChanges changes)
   {
     while (alerts.hasNext())
     {
       Alert a = (Alert) alerts.next();
-      if (a.update())
+      boolean changed = (changes == null ? a.update() : a.update(changes));
+      if (changed)
         getBlackboardService().publishChange(a);
     }
   }
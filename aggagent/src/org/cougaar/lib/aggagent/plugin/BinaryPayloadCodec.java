@@ -0,0 +1,55 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import org.cougaar.lib.aggagent.session.BinaryDeltaFormat;
+import org.cougaar.lib.aggagent.session.UpdateDelta;
+import org.cougaar.lib.aggagent.util.Enum.WireFormat;
+
+/**
+ *  A PayloadCodec that transmits UpdateDeltas in the compact form defined by
+ *  BinaryDeltaFormat (q.v.).  Deltas with contents other than data atoms
+ *  cannot be so encoded, and are sent as XML instead.
+ */
+public class BinaryPayloadCodec extends PayloadCodec {
+  public WireFormat getWireFormat () {
+    return WireFormat.BINARY;
+  }
+
+  public XMLMessage encode (UpdateDelta del) {
+    try {
+      return new XMLMessage(BinaryDeltaFormat.encode(del));
+    }
+    catch (IllegalArgumentException iae) {
+      return new XMLMessage(del.toXml());
+    }
+  }
+
+  public UpdateDelta decode (XMLMessage msg) throws Exception {
+    return BinaryDeltaFormat.decode(msg.getData());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import org.cougaar.lib.aggagent.session.UpdateDelta;
+import org.cougaar.lib.aggagent.util.Enum.WireFormat;
+
+/**
+ *  A PayloadCodec converts UpdateDeltas to and from the XMLMessages carried
+ *  by an AggRelay.  The codec used by a source agent is chosen by the
+ *  "wire_format" attribute of the query; the aggregation agent chooses the
+ *  codec for decoding by examining the message itself, so the two need not
+ *  be coordinated in any other way.
+ */
+public abstract class PayloadCodec {
+  private static PayloadCodec XML_CODEC = new XmlPayloadCodec();
+  private static PayloadCodec BINARY_CODEC = new BinaryPayloadCodec();
+
+  /**
+   *  Provide the WireFormat implemented by this codec.
+   */
+  public abstract WireFormat getWireFormat ();
+
+  /**
+   *  Wrap an UpdateDelta in an XMLMessage for transmission.
+   */
+  public abstract XMLMessage encode (UpdateDelta del);
+
+  /**
+   *  Reconstitute an UpdateDelta from a received XMLMessage.
+   */
+  public abstract UpdateDelta decode (XMLMessage msg) throws Exception;
+
+  /**
+   *  Find the codec for the given WireFormat.  The XML codec is returned if
+   *  the format is null or unrecognized.
+   */
+  public static PayloadCodec forWireFormat (WireFormat wf) {
+    if (WireFormat.BINARY.equals(wf))
+      return BINARY_CODEC;
+    return XML_CODEC;
+  }
+
+  /**
+   *  Find the codec for the named WireFormat.
+   */
+  public static PayloadCodec forWireFormat (String name) {
+    return forWireFormat(WireFormat.fromString(name));
+  }
+
+  /**
+   *  Find the codec capable of decoding the given message.
+   */
+  public static PayloadCodec forMessage (XMLMessage msg) {
+    if (msg.isBinary())
+      return BINARY_CODEC;
+    return XML_CODEC;
+  }
+
+  /**
+   *  Decode a received message with whichever codec is appropriate.
+   */
+  public static UpdateDelta decodeMessage (XMLMessage msg) throws Exception {
+    return forMessage(msg).decode(msg);
+  }
+}
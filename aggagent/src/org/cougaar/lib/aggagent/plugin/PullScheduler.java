@@ -0,0 +1,149 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+
+/**
+ *  PullScheduler keeps the timetable for all of the PULL queries of an
+ *  AggregationPlugin.  It has no thread of its own; the Plugin asks it for
+ *  the queries that are due, sends their update requests, and arranges to be
+ *  woken when the next one falls due.  Each query is pulled as soon as it is
+ *  scheduled, and thereafter at a random phase within its period so that
+ *  queries with the same period do not all fire together.
+ *  <br><br>
+ *  This class is not synchronized; it is meant to be used only from within
+ *  the Plugin's execute method.
+ */
+class PullScheduler {
+  private static class Entry {
+    public QueryResultAdapter qra;
+    public long period;
+    public long due;
+    // the delay added to the second pull, and to no other
+    public long phase;
+
+    public Entry (QueryResultAdapter q, long p, long d, long ph) {
+      qra = q;
+      period = p;
+      due = d;
+      phase = ph;
+    }
+  }
+
+  private static Comparator DUE_ORDER = new Comparator() {
+      public int compare (Object a, Object b) {
+        long da = ((Entry) a).due;
+        long db = ((Entry) b).due;
+        return da < db ? -1 : (da > db ? 1 : 0);
+      }
+    };
+
+  private PriorityQueue timetable = new PriorityQueue(16, DUE_ORDER);
+  private Map entries = new HashMap();
+  private Random jitter = new Random();
+
+  /**
+   *  Schedule a query to be pulled immediately and every period milliseconds
+   *  after a random delay within the first period.  A query with a period of
+   *  zero is pulled once, immediately.
+   */
+  public void add (QueryResultAdapter qra, long period, long now) {
+    remove(qra.getID());
+    long phase = 0;
+    if (period > 0)
+      phase = (long) (jitter.nextDouble() * period);
+    Entry e = new Entry(qra, period, now, phase);
+    entries.put(qra.getID(), e);
+    timetable.add(e);
+  }
+
+  /**
+   *  Stop pulling the identified query.
+   */
+  public void remove (String queryId) {
+    Entry e = (Entry) entries.remove(queryId);
+    if (e != null)
+      timetable.remove(e);
+  }
+
+  /**
+   *  Find the queries that are due to be pulled at the given time, and
+   *  advance each one to its next due time.  If a query has fallen more than
+   *  one period behind, the missed pulls are skipped rather than made up.
+   *  @return a List of QueryResultAdapters
+   */
+  public List takeDue (long now) {
+    List ret = new LinkedList();
+    while (!timetable.isEmpty() && ((Entry) timetable.peek()).due <= now) {
+      Entry e = (Entry) timetable.poll();
+      ret.add(e.qra);
+      if (e.period > 0) {
+        e.due += e.period + e.phase;
+        e.phase = 0;
+        if (e.due <= now)
+          e.due += ((now - e.due) / e.period + 1) * e.period;
+        timetable.add(e);
+      }
+      else {
+        entries.remove(e.qra.getID());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   *  Tell whether any query scheduled here has the named agent as a source.
+   */
+  public boolean isPulling (String agentId) {
+    for (Iterator i = entries.values().iterator(); i.hasNext(); ) {
+      Entry e = (Entry) i.next();
+      if (e.qra.getQuery().getSourceClustersVector().contains(agentId))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   *  Report the time at which the next query falls due, or Long.MAX_VALUE if
+   *  there are no queries scheduled.
+   */
+  public long getNextDue () {
+    if (timetable.isEmpty())
+      return Long.MAX_VALUE;
+    return ((Entry) timetable.peek()).due;
+  }
+}
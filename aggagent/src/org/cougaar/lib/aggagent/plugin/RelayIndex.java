@@ -0,0 +1,147 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  RelayIndex keeps track of the AggRelays issued by the AggregationPlugin,
+ *  organized by the query on whose behalf they were sent and, within each
+ *  query, by their target agent.  This allows the relays belonging to a query
+ *  (or to one of its source agents) to be found without examining any others.
+ */
+class RelayIndex {
+  // query id -> (agent id -> Set of AggRelays)
+  private Map byQuery = new HashMap();
+  // AggRelay -> query id
+  private Map queryOf = new HashMap();
+
+  private static String getTarget (AggRelay relay) {
+    Iterator i = relay.getTargets().iterator();
+    return i.hasNext() ? i.next().toString() : null;
+  }
+
+  /**
+   *  Tell whether a relay has been registered in this index.
+   */
+  public synchronized boolean contains (AggRelay relay) {
+    return queryOf.containsKey(relay);
+  }
+
+  /**
+   *  Register a relay as belonging to the identified query.
+   */
+  public synchronized void add (String queryId, AggRelay relay) {
+    if (queryOf.containsKey(relay))
+      return;
+    queryOf.put(relay, queryId);
+
+    Map byAgent = (Map) byQuery.get(queryId);
+    if (byAgent == null)
+      byQuery.put(queryId, byAgent = new HashMap());
+    String agentId = getTarget(relay);
+    Set relays = (Set) byAgent.get(agentId);
+    if (relays == null)
+      byAgent.put(agentId, relays = new HashSet());
+    relays.add(relay);
+  }
+
+  /**
+   *  Forget about a relay, if it was registered.
+   */
+  public synchronized void remove (AggRelay relay) {
+    String queryId = (String) queryOf.remove(relay);
+    if (queryId == null)
+      return;
+
+    Map byAgent = (Map) byQuery.get(queryId);
+    String agentId = getTarget(relay);
+    Set relays = (Set) byAgent.get(agentId);
+    relays.remove(relay);
+    if (relays.isEmpty()) {
+      byAgent.remove(agentId);
+      if (byAgent.isEmpty())
+        byQuery.remove(queryId);
+    }
+  }
+
+  /**
+   *  Forget about all of the relays belonging to a query.  The relays are
+   *  returned to the caller.
+   */
+  public synchronized Collection removeQuery (String queryId) {
+    Map byAgent = (Map) byQuery.remove(queryId);
+    if (byAgent == null)
+      return Collections.EMPTY_LIST;
+
+    Collection ret = new LinkedList();
+    for (Iterator i = byAgent.values().iterator(); i.hasNext(); )
+      ret.addAll((Set) i.next());
+    for (Iterator i = ret.iterator(); i.hasNext(); )
+      queryOf.remove(i.next());
+    return ret;
+  }
+
+  /**
+   *  Forget about the relays belonging to a query that target a particular
+   *  agent.  The relays are returned to the caller.
+   */
+  public synchronized Collection removeAgent (String queryId, String agentId) {
+    Map byAgent = (Map) byQuery.get(queryId);
+    if (byAgent == null)
+      return Collections.EMPTY_LIST;
+    Set relays = (Set) byAgent.remove(agentId);
+    if (relays == null)
+      return Collections.EMPTY_LIST;
+    if (byAgent.isEmpty())
+      byQuery.remove(queryId);
+
+    for (Iterator i = relays.iterator(); i.hasNext(); )
+      queryOf.remove(i.next());
+    return relays;
+  }
+
+  /**
+   *  Find the relays belonging to a query that target a particular agent.
+   */
+  public synchronized Collection find (String queryId, String agentId) {
+    Map byAgent = (Map) byQuery.get(queryId);
+    if (byAgent == null)
+      return Collections.EMPTY_LIST;
+    Set relays = (Set) byAgent.get(agentId);
+    if (relays == null)
+      return Collections.EMPTY_LIST;
+    return new LinkedList(relays);
+  }
+}
@@ -29,21 +29,34 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.cougaar.core.blackboard.IncrementalSubscription;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.plugin.ComponentPlugin;
 import org.cougaar.core.service.LoggingService;
+import org.cougaar.core.service.UIDService;
+import org.cougaar.lib.aggagent.query.AggregationQuery;
+import org.cougaar.lib.aggagent.query.Aggregator;
+import org.cougaar.lib.aggagent.query.BatchAggregator;
+import org.cougaar.lib.aggagent.query.QueryResultAdapter;
 import org.cougaar.lib.aggagent.query.ScriptSpec;
+import org.cougaar.lib.aggagent.session.ChunkedResponse;
+import org.cougaar.lib.aggagent.session.CombiningIncrement;
+import org.cougaar.lib.aggagent.session.FieldDiffIncrement;
 import org.cougaar.lib.aggagent.session.IncrementFormat;
+import org.cougaar.lib.aggagent.session.PushPolicy;
 import org.cougaar.lib.aggagent.session.RemoteBlackboardSubscription;
 import org.cougaar.lib.aggagent.session.RemoteSession;
+import org.cougaar.lib.aggagent.session.ResultSetIncrement;
 import org.cougaar.lib.aggagent.session.SubscriptionAccess;
 import org.cougaar.lib.aggagent.session.SubscriptionWrapper;
 import org.cougaar.lib.aggagent.session.UpdateDelta;
 import org.cougaar.lib.aggagent.util.XmlUtils;
+import org.cougaar.lib.aggagent.util.Enum.ScriptType;
 import org.cougaar.util.UnaryPredicate;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 /**
  * This Plugin services remote subscription requests.  It sends data back to an aggregation 
@@ -86,6 +99,13 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       cancelSession((AggRelay)e.nextElement());
     }
 
+    // process acknowledgements of chunked responses
+    if (!chunkedResponses.isEmpty())
+    {
+      for(Enumeration e = messageSub.getChangedList(); e.hasMoreElements();)
+        continueResponse((AggRelay)e.nextElement());
+    }
+
     // process changed subscriptions
     synchronized (lock)
     {
@@ -95,6 +115,11 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
         if (sub.hasChanged())
           ((BBSession) queryMap.get(sub)).subscriptionChanged();
       }
+
+      // send any batches that have waited long enough
+      long now = System.currentTimeMillis();
+      for (iter = queryMap.values().iterator(); iter.hasNext(); )
+        ((BBSession) iter.next()).checkPending(now);
     }
   }
 
@@ -123,6 +148,10 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       {
         returnUpdate(root);
       }
+      else if (requestName.equals("update_requests"))
+      {
+        returnUpdates(root);
+      }
       else if (requestName.equals("pull_request"))
       {
         createPullSession(root, relay);
@@ -151,6 +180,19 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
     RemoteBlackboardSubscription tempSubscription =
       new RemoteBlackboardSubscription(getBlackboardService(), objectSeeker, true);
 
+    String chunkSize = root.getAttribute(AggregationQuery.CHUNK_SIZE_ATT);
+    if (chunkSize.length() > 0) {
+      tempSubscription.open();
+      ChunkedResponse response = new ChunkedResponse(
+        root.getAttribute("cluster_id"), root.getAttribute("query_id"),
+        formatter, tempSubscription.getAddedCollection(),
+        Integer.parseInt(chunkSize));
+      tempSubscription.close();
+      tempSubscription.shutDown();
+      sendChunk(relay, getCodec(root), response);
+      return;
+    }
+
     UpdateDelta del = new UpdateDelta(
       root.getAttribute("cluster_id"), root.getAttribute("query_id"), "");
     // Use xml encoder to encode data from blackboard
@@ -164,32 +206,200 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       del.setErrorReport(err);
     }
     tempSubscription.close();
+    tempSubscription.shutDown();
 
     // Send response message
-    sendMessage(relay, del.toXml());
+    sendMessage(relay, getCodec(root).encode(del));
+  }
+
+  // The responses to transient queries that are being sent in chunks, keyed
+  // by the UID of the relay.  Each chunk after the first is sent when the
+  // requester acknowledges its predecessor.
+  private Map chunkedResponses = new HashMap();
+
+  private static class ChunkStream {
+    public ChunkedResponse response;
+    public PayloadCodec codec;
+
+    public ChunkStream (ChunkedResponse r, PayloadCodec c) {
+      response = r;
+      codec = c;
+    }
+  }
+
+  private void sendChunk (
+      AggRelay relay, PayloadCodec codec, ChunkedResponse response)
+  {
+    sendMessage(relay, codec.encode(response.nextChunk()));
+    if (response.isFinished())
+      chunkedResponses.remove(relay.getUID());
+    else
+      chunkedResponses.put(relay.getUID(), new ChunkStream(response, codec));
+  }
+
+  // Send the next chunk if the relay's content acknowledges the last one.
+  // Other changes, such as those made here in sending a chunk, are ignored.
+  private void continueResponse (AggRelay relay) {
+    ChunkStream cs = (ChunkStream) chunkedResponses.get(relay.getUID());
+    if (cs == null)
+      return;
+    try {
+      Element root = XmlUtils.parse(((XMLMessage) relay.getContent()).getText());
+      if (root.getNodeName().equals("transient_ack") &&
+          Long.parseLong(root.getAttribute("seq")) == cs.response.getSequence())
+        sendChunk(relay, cs.codec, cs.response);
+    }
+    catch (Exception ex) {
+      if (log != null && log.isErrorEnabled()) log.error("RemotePlugin:("+me+") error continuing response: "+ex);
+    }
   }
 
   private void createPushSession (Element root, AggRelay relay)
     throws Exception {
     String queryId = root.getAttribute("query_id");
 //    String requester = root.getAttribute("requester");
+    if (resumeSession(root, relay))
+      return;
+
+    QueryResultAdapter delegate = startDelegate(root);
+    UnaryPredicate seeker = makeSeeker(root, delegate);
+    IncrementFormat formatter = makeFormat(root, delegate);
+
+    BBSession s = new RemotePushSession(nextSessionKey(), queryId,
+      formatter, getCodec(root), relay, seeker, new PushPolicy(root));
+    s.setDelegate(delegate);
+  }
+
+  private UnaryPredicate makeSeeker (Element root, QueryResultAdapter delegate)
+      throws Exception
+  {
+    if (delegate != null)
+      return new InstanceSeeker(delegate);
 
     UnaryPredicate seeker = ScriptSpec.makeUnaryPredicate(
       XmlUtils.getChildElement(root, "unary_predicate"));
     if (seeker == null)
       throw new Exception("Could not create unary predicate");
+    return seeker;
+  }
+
+  private IncrementFormat makeFormat (Element root, QueryResultAdapter delegate)
+      throws Exception
+  {
+    if (delegate != null)
+      return diffFormat(root, new ResultSetIncrement());
 
     IncrementFormat formatter = ScriptSpec.makeIncrementFormat(
       XmlUtils.getChildElement(root, "xml_encoder"));
     if (formatter == null)
       throw new Exception("Could not create formatter");
+    return diffFormat(root, combineFormat(root, formatter));
+  }
 
-    new RemotePushSession(
-      String.valueOf(idCounter++), queryId, formatter, relay, seeker);
+  // A request from a higher-level aggregation agent may delegate part of its
+  // query to this one (see AggregationQuery.addDelegate()).  The delegated
+  // query is published here, to be carried out by the local
+  // AggregationPlugin, and the session reports the contents of its result
+  // set, which holds partial atoms for the requester to merge.  A query whose
+  // partials cannot be merged is refused, since its aggregated atoms would be
+  // aggregated again by the requester.
+  private QueryResultAdapter startDelegate (Element root) throws Exception {
+    Element elt = XmlUtils.getChildElement(root, "delegate");
+    if (elt == null)
+      return null;
+
+    QueryResultAdapter qra = new QueryResultAdapter(new AggregationQuery(
+      XmlUtils.getChildElement(elt, AggregationQuery.QUERY_TAG)),
+      getUIDService().nextUID());
+    if (!qra.isMergingPartials())
+      throw new Exception("Delegated query " + root.getAttribute("query_id") +
+        " is not persistent and combined with a mergeable melder");
+    qra.setPartialOutput();
+    getBlackboardService().publishAdd(qra);
+    if (log != null && log.isDebugEnabled()) log.debug("RemotePlugin:("+me+") delegated query "+qra.getID()+" for "+root.getAttribute("requester"));
+    return qra;
   }
 
+  // selects one particular object, such as a delegated query
+  private static class InstanceSeeker implements UnaryPredicate {
+    private Object target = null;
+
+    public InstanceSeeker (Object o) {
+      target = o;
+    }
+
+    public boolean execute (Object o) {
+      return o == target;
+    }
+  }
+
+  // A session that asks for its aggregation to be begun here gets its own
+  // CombiningIncrement, provided that the melder is mergeable.  Otherwise,
+  // the aggregation agent expects raw data, which are sent as usual.
+  private static IncrementFormat combineFormat (Element root, IncrementFormat f)
+      throws Exception
+  {
+    if (!"true".equals(root.getAttribute(AggregationQuery.COMBINE_ATT)))
+      return f;
+
+    Element spec =
+      XmlUtils.getChildElement(root, ScriptType.AGGREGATOR.toString());
+    if (spec == null)
+      throw new Exception("Could not find aggregation spec to combine");
+    Aggregator agg = new ScriptSpec(spec).toAggregator();
+    if (agg instanceof BatchAggregator && ((BatchAggregator) agg).isMergeable())
+      return new CombiningIncrement(f, (BatchAggregator) agg);
+    return f;
+  }
+
+  // A session that asks for field-level diffs gets its own FieldDiffIncrement,
+  // which remembers what has been sent to the requester.
+  private static IncrementFormat diffFormat (Element root, IncrementFormat f) {
+    if ("true".equals(root.getAttribute(AggregationQuery.FIELD_DIFFS_ATT)))
+      return new FieldDiffIncrement(f);
+    return f;
+  }
+
+  // A requester that has restarted may ask to resume a session it had
+  // before, giving the session's key and the sequence number of the last
+  // UpdateDelta it applied.  If the session still exists, and the requester
+  // has missed no more than the last delta sent, the session carries on over
+  // the new relay.  Otherwise, a new session is started in the usual way,
+  // and its first delta brings the requester up to date.
+  private boolean resumeSession (Element root, AggRelay relay) {
+    String key = root.getAttribute("resume_session");
+    if (key.length() == 0)
+      return false;
+
+    long seq = 0;
+    try {
+      seq = Long.parseLong(root.getAttribute("resume_seq"));
+    }
+    catch (NumberFormatException nfe) {
+      return false;
+    }
+
+    BBSession s = findSessionByKey(key);
+    if (s == null || !s.getQueryId().equals(root.getAttribute("query_id")) ||
+        !s.resume(relay, seq))
+    {
+      if (log != null && log.isDebugEnabled()) log.debug("RemotePlugin:("+me+") cannot resume session "+key+" at "+seq);
+      return false;
+    }
+    if (log != null && log.isDebugEnabled()) log.debug("RemotePlugin:("+me+") resumed session "+key+" at "+seq);
+    return true;
+  }
+
+  // Session keys are qualified by the time at which this Plugin started, so
+  // that a session begun after a restart of this agent cannot be mistaken
+  // for one begun before it.
+  private String sessionEpoch = Long.toString(System.currentTimeMillis(), 36);
   private int idCounter = 0;
   private HashMap queryMap = new HashMap();
+
+  private String nextSessionKey () {
+    return sessionEpoch + "-" + idCounter++;
+  }
   
   // "BB" stands for "Blackboard".  This is the abstract base class for the
   // RemoteSession implementations used by this Plugin.  It adds the ability
@@ -197,35 +407,133 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
   // updates via COUGAAR messaging (all abstractly).
   private abstract class BBSession extends RemoteSession {
     protected AggRelay relay;
+    protected PayloadCodec codec;
+
+    // the query delegated to this agent, if any, on behalf of the requester
+    private QueryResultAdapter delegate = null;
 
-    protected BBSession (String k, String q, IncrementFormat f, AggRelay r) {
+    // the last message sent, retained in case the requester restarts before
+    // applying it
+    private XMLMessage lastMessage = null;
+    private long lastSequence = 0;
+
+    protected BBSession (
+        String k, String q, IncrementFormat f, PayloadCodec c, AggRelay r)
+    {
       super(k, q, f);
       setAgentId(getAgentIdentifier().toString());
+      codec = c;
       relay = r;
     }
 
+    public void setDelegate (QueryResultAdapter qra) {
+      delegate = qra;
+    }
+
+    // Withdraw the delegated query, if any, when the session ends
+    protected void releaseDelegate () {
+      if (delegate != null) {
+        getBlackboardService().publishRemove(delegate);
+        delegate = null;
+      }
+    }
+
+    // The first UpdateDelta of a session replaces whatever the requester
+    // holds from this agent, such as results restored from a checkpoint
+    // after a restart, when the session it asked to resume could not be.
+    // Increments that add or change whole atoms are converted; those that
+    // patch atoms sent earlier cannot be, and are left alone.
+    protected UpdateDelta createUpdateDelta () {
+      UpdateDelta del = super.createUpdateDelta();
+      if (del.getSequence() == 1 && !del.isErrorReport() &&
+          !del.isReplacement() && del.getPatchedList().isEmpty())
+      {
+        del.getAddedList().addAll(del.getChangedList());
+        del.getChangedList().clear();
+        del.getRemovedList().clear();
+        del.setReplacement(true);
+      }
+      return del;
+    }
+
+    // Encode an UpdateDelta and send it to the requester
+    protected void send (UpdateDelta del) {
+      XMLMessage msg = codec.encode(del);
+      sendMessage(relay, msg);
+      lastMessage = msg;
+      lastSequence = del.getSequence();
+    }
+
+    /**
+     *  Carry on this session over a new relay from the same requester, which
+     *  has applied the UpdateDeltas up to the given sequence number.  If that
+     *  is the last one sent, there is nothing to do; if it is the one before,
+     *  the last is sent again.  Further back than that, the session cannot
+     *  be resumed, and false is returned.
+     */
+    public boolean resume (AggRelay r, long seq) {
+      if (!relay.getSource().equals(r.getSource()))
+        return false;
+      if (seq == lastSequence) {
+        relay = r;
+        return true;
+      }
+      if (seq == lastSequence - 1 && lastMessage != null) {
+        relay = r;
+        sendMessage(relay, lastMessage);
+        return true;
+      }
+      return false;
+    }
+
+    public boolean isUsing (AggRelay r) {
+      return relay.getUID().equals(r.getUID());
+    }
+
     public abstract void cancel ();
 
     public abstract void subscriptionChanged ();
 
     public abstract void pushUpdate ();
+
+    // Send any updates that are being held back and are now due.  By default,
+    // there are none.
+    public void checkPending (long now) {
+    }
   }
 
-  // This is the implementation of RemoteSession used for the PUSH method.  It
-  // always sends notification immediately whenever the managed Subscription
-  // is updated by the host agent.
+  // This is the implementation of RemoteSession used for the PUSH method.
+  // With the default PushPolicy, it sends notification immediately whenever
+  // the managed Subscription is updated by the host agent.  Otherwise, the
+  // updates are accumulated in a RemoteBlackboardSubscription and sent in
+  // batches as dictated by the policy.
   private class RemotePushSession extends BBSession {
     private SubscriptionAccess data = null;
     private IncrementalSubscription rawData = null;
 
-    public RemotePushSession (
-        String k, String q, IncrementFormat f, AggRelay r, UnaryPredicate p)
+    private PushPolicy policy = null;
+    private RemoteBlackboardSubscription batch = null;
+    private long firstChange = -1;
+    private long lastSent = 0;
+    private WakeAlarm alarm = null;
+
+    public RemotePushSession (String k, String q, IncrementFormat f,
+        PayloadCodec c, AggRelay r, UnaryPredicate p, PushPolicy pp)
     {
-      super(k, q, f, r);
+      super(k, q, f, c, r);
+      policy = pp;
       synchronized (lock)
       {
-        rawData = subscribeIncr(new ErrorTrapPredicate(p));
-        data = new SubscriptionWrapper(rawData);
+        if (policy.isImmediate()) {
+          rawData = subscribeIncr(new ErrorTrapPredicate(p));
+          data = new SubscriptionWrapper(rawData);
+        }
+        else {
+          batch = new RemoteBlackboardSubscription(
+            getBlackboardService(), new ErrorTrapPredicate(p));
+          rawData = batch.getSubscription();
+          data = batch;
+        }
         queryMap.put(rawData, this);
       }
     }
@@ -234,12 +542,50 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       synchronized (lock)
       {
         queryMap.remove(rawData);
-        getBlackboardService().unsubscribe(rawData);
+        if (alarm != null)
+          alarm.cancel();
+        if (batch != null)
+          batch.shutDown();
+        else
+          getBlackboardService().unsubscribe(rawData);
+        releaseDelegate();
       }
     }
 
     public void subscriptionChanged () {
-      pushUpdate();
+      if (batch == null) {
+        pushUpdate();
+      }
+      else {
+        batch.subscriptionChanged();
+        if (firstChange < 0)
+          firstChange = System.currentTimeMillis();
+      }
+    }
+
+    public void checkPending (long now) {
+      if (batch == null || firstChange < 0)
+        return;
+
+      int pending = batch.getPendingCount();
+      if (pending == 0) {
+        // the changes cancelled one another; there is nothing to send
+        firstChange = -1;
+        return;
+      }
+
+      long sendTime = policy.getSendTime(pending, firstChange, lastSent);
+      if (sendTime <= now) {
+        pushUpdate();
+      }
+      else if (alarm == null || alarm.hasExpired() ||
+          alarm.getExpirationTime() > sendTime)
+      {
+        if (alarm != null)
+          alarm.cancel();
+        alarm = new WakeAlarm(getBlackboardService(), sendTime);
+        getAlarmService().addRealTimeAlarm(alarm);
+      }
     }
 
     public SubscriptionAccess getData () {
@@ -248,7 +594,21 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
 
     public void pushUpdate () {
       if (log != null && log.isDebugEnabled()) log.debug("Updating session to agg("+me+"): " + getQueryId());
-      sendMessage(relay, createUpdateDelta().toXml());
+      if (batch == null) {
+        send(createUpdateDelta());
+        return;
+      }
+
+      batch.open();
+      UpdateDelta del = createUpdateDelta();
+      batch.close();
+      send(del);
+      firstChange = -1;
+      lastSent = System.currentTimeMillis();
+      if (alarm != null) {
+        alarm.cancel();
+        alarm = null;
+      }
     }
   }
   /**
@@ -256,9 +616,12 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
    * causes a message to be sent.
    */
   protected void sendMessage (AggRelay relay, String message) {
+    sendMessage(relay, new XMLMessage(message));
+  }
+
+  protected void sendMessage (AggRelay relay, XMLMessage msg) {
     if (log != null && log.isDebugEnabled()) log.debug("RemoteSubPlugins:("+me+"):sendMessage from: " +
       getAgentIdentifier() + " to " + relay.getSource());
-    XMLMessage msg = new XMLMessage(message);
     relay.updateResponse(me, msg);
     getBlackboardService().publishChange(relay);
     if (log != null && log.isDebugEnabled()) log.debug("RemoteSubPlugins:("+me+"):sendMessage:  done publish changed it");
@@ -270,10 +633,10 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
   private class RemotePullSession extends BBSession {
     private RemoteBlackboardSubscription rbs;
 
-    public RemotePullSession (
-        String k, String q, IncrementFormat f, AggRelay r, UnaryPredicate p)
+    public RemotePullSession (String k, String q, IncrementFormat f,
+        PayloadCodec c, AggRelay r, UnaryPredicate p)
     {
-      super(k, q, f, r);
+      super(k, q, f, c, r);
       synchronized (lock)
       {
         rbs = new RemoteBlackboardSubscription(
@@ -287,7 +650,7 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       rbs.open();
       UpdateDelta del = createUpdateDelta();
       rbs.close();
-      sendMessage(relay, del.toXml());
+      send(del);
     }
 
     public void cancel () {
@@ -295,6 +658,7 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
       {
         queryMap.remove(rbs.getSubscription());
         rbs.shutDown();
+        releaseDelegate();
       }
     }
 
@@ -308,32 +672,24 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
   }
 
 
-  private void cancelSession (Element root) throws Exception {
-    String qId = root.getAttribute("query_id");
-    BBSession match = findSessionById(qId);
+  // A session is cancelled when the relay it is using is removed.  A relay
+  // whose session has been resumed on another (see resumeSession()) has no
+  // session to cancel.
+  private void cancelSession (AggRelay relay) {
+    if (log != null && log.isDebugEnabled()) log.debug("RemotePlugin:("+me+") relay deleted "+relay.getContent());
+    chunkedResponses.remove(relay.getUID());
+    BBSession match = findSessionByRelay(relay);
     if (match != null)
       match.cancel();
-    else {
-      String type = root.getNodeName();
-      if (type.equals("pull_request") || type.equals("push_request"))
-        if (log != null && log.isWarnEnabled()) log.warn("Error cancelling session ("+me+")" + qId + " at " +
-          getAgentIdentifier().getAddress());
-    }
+    else if (log != null && log.isDebugEnabled())
+      log.debug("RemotePlugin:("+me+") no session uses deleted relay "+relay.getUID());
   }
-  
-  private void cancelSession (AggRelay relay) {
-    try {
-      XMLMessage xmsg = (XMLMessage)relay.getContent();
-      if (log != null && log.isDebugEnabled()) log.debug("RemotePlugin:("+me+") relay deleted "+xmsg);
-      
-      Element root = XmlUtils.parse(xmsg.getText());
-      cancelSession(root);
-    } catch (Exception ex) {
-      if (log != null && log.isErrorEnabled()) log.error("RemotePlugin:("+me+") error deleting relay: "+ex);
-    }
-        
+
+  // Responses are encoded as requested by the "wire_format" attribute of the
+  // request, or as XML if there is no such attribute.
+  private static PayloadCodec getCodec (Element root) {
+    return PayloadCodec.forWireFormat(root.getAttribute("wire_format"));
   }
-      
 
   private BBSession findSessionById (String id) {
     Iterator iter = queryMap.values().iterator();
@@ -348,30 +704,55 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
     return found;
   }
 
+  private BBSession findSessionByKey (String key) {
+    for (Iterator iter = queryMap.values().iterator(); iter.hasNext(); ) {
+      BBSession bbs = (BBSession) iter.next();
+      if (bbs.getKey().equals(key))
+        return bbs;
+    }
+    return null;
+  }
+
+  private BBSession findSessionByRelay (AggRelay relay) {
+    for (Iterator iter = queryMap.values().iterator(); iter.hasNext(); ) {
+      BBSession bbs = (BBSession) iter.next();
+      if (bbs.isUsing(relay))
+        return bbs;
+    }
+    return null;
+  }
+
   private void createPullSession (Element root, AggRelay relay)
     throws Exception {
     String queryId = root.getAttribute("query_id");
 //    String requester = root.getAttribute("requester");
+    if (resumeSession(root, relay))
+      return;
 
-    UnaryPredicate seeker = ScriptSpec.makeUnaryPredicate(
-      XmlUtils.getChildElement(root, "unary_predicate"));
-    if (seeker == null)
-      throw new Exception("Could not create unary predicate");
-
-    IncrementFormat formatter = ScriptSpec.makeIncrementFormat(
-      XmlUtils.getChildElement(root, "xml_encoder"));
-    if (formatter == null)
-      throw new Exception("Could not create formatter");
+    QueryResultAdapter delegate = startDelegate(root);
+    UnaryPredicate seeker = makeSeeker(root, delegate);
+    IncrementFormat formatter = makeFormat(root, delegate);
 
-    new RemotePullSession(
-      String.valueOf(idCounter++), queryId, formatter, relay, seeker);
+    BBSession s = new RemotePullSession(nextSessionKey(), queryId,
+      formatter, getCodec(root), relay, seeker);
+    s.setDelegate(delegate);
     if (log != null && log.isDebugEnabled()) log.debug("Pull session created("+me+")");
   }
 
   private void returnUpdate (Element root) throws Exception {
-    String qId = root.getAttribute("query_id");
+    returnUpdate(root.getAttribute("query_id"), root.getAttribute("requester"));
+  }
+
+  // A batch of update requests from one requester, one for each of its PULL
+  // queries that are due.  Each is answered separately on its own session.
+  private void returnUpdates (Element root) throws Exception {
     String requester = root.getAttribute("requester");
+    NodeList nl = root.getElementsByTagName("update_request");
+    for (int i = 0; i < nl.getLength(); i++)
+      returnUpdate(((Element) nl.item(i)).getAttribute("query_id"), requester);
+  }
 
+  private void returnUpdate (String qId, String requester) throws Exception {
     BBSession bbs = findSessionById(qId);
     if (bbs != null)
       bbs.pushUpdate();
@@ -394,6 +775,16 @@ public class RemoteSubscriptionPlugin extends ComponentPlugin
     return log;
   }
 
+  private UIDService uidService = null;
+
+  public void setUIDService (UIDService s) {
+    uidService = s;
+  }
+
+  public UIDService getUIDService () {
+    return uidService;
+  }
+
   protected IncrementalSubscription subscribeIncr (UnaryPredicate p) {
     return (IncrementalSubscription) getBlackboardService().subscribe(p);
   }
@@ -0,0 +1,419 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.lib.aggagent.query.AggregationQuery;
+import org.cougaar.lib.aggagent.query.AggregationResultSet;
+import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.session.BinaryDeltaFormat;
+import org.cougaar.lib.aggagent.session.UpdateDelta;
+import org.cougaar.lib.aggagent.util.InverseSax;
+
+/**
+ *  ResultSetCheckpoint keeps a copy on disk of the raw result sets of the
+ *  AggregationPlugin's persistent queries, so that they can be restored
+ *  quickly when the agent restarts.  Each query has two files in the
+ *  checkpoint directory:  a snapshot of the result set as it stood at some
+ *  point, and a log, to which each UpdateDelta applied since then is
+ *  appended.  When the log grows long enough, a new snapshot is written and
+ *  the log is begun again.  Result set data are encoded by BinaryDeltaFormat.
+ *  <br><br>
+ *  For each source agent, the checkpoint also records the session key and
+ *  sequence number of the last UpdateDelta applied, so that after a restart
+ *  the source can be asked to resume its session rather than send all of
+ *  its data again.  The aggregated result sets are not saved, since they are
+ *  recomputed from the raw results when these are restored.
+ *  <br><br>
+ *  The log is written through a buffer, which is flushed once per
+ *  transaction (see flush()).  A record left incomplete by a failure is
+ *  ignored on restart, and the source is asked to make up the difference.
+ */
+class ResultSetCheckpoint {
+  private static final int MAGIC = 0x41474350;
+  private static final int VERSION = 1;
+  private static final int MAX_RECORD = 1 << 28;
+
+  private static String SNAPSHOT_SUFFIX = ".snapshot";
+  private static String LOG_SUFFIX = ".log";
+  private static String TEMP_SUFFIX = ".tmp";
+  private static String ENCODING = "UTF-8";
+
+  private File dir = null;
+  private int snapshotInterval = 0;
+
+  // query id -> Journal
+  private Map journals = new HashMap();
+
+  /**
+   *  The position reached in a source agent's session, i.e., the session key
+   *  and the sequence number of the last UpdateDelta applied from it.
+   */
+  public static class Position {
+    private String session = null;
+    private long sequence = 0;
+
+    public Position (String s, long n) {
+      session = s;
+      sequence = n;
+    }
+
+    public String getSession () {
+      return session;
+    }
+
+    public long getSequence () {
+      return sequence;
+    }
+  }
+
+  // the checkpoint of one query
+  private static class Journal {
+    public String queryId = null;
+    public String fingerprint = null;
+    // agent id -> Position
+    public Map positions = new HashMap();
+    public DataOutputStream log = null;
+    public int records = 0;
+
+    public Journal (String id, String f) {
+      queryId = id;
+      fingerprint = f;
+    }
+  }
+
+  /**
+   *  Create a checkpoint in the given directory, which is created if need
+   *  be.  A new snapshot is written after the given number of UpdateDeltas
+   *  have been logged.
+   */
+  public ResultSetCheckpoint (File d, int interval) {
+    dir = d;
+    snapshotInterval = interval;
+    dir.mkdirs();
+  }
+
+  /**
+   *  Restore the raw result set of a query from the checkpoint, if there is
+   *  one made for the same query.  The positions reached by the query's
+   *  sessions are returned, by agent; the Map is empty if nothing was
+   *  restored.  Either way, the query is checkpointed from here on, starting
+   *  with a snapshot of its result set as it now stands.
+   */
+  public Map restore (QueryResultAdapter qra) throws IOException {
+    Journal j = (Journal) journals.remove(qra.getID());
+    if (j != null)
+      j.log.close();
+    j = new Journal(qra.getID(), fingerprint(qra.getQuery()));
+
+    List deltas = new LinkedList();
+    Map exceptions = new HashMap();
+    boolean found = false;
+    try {
+      found = readSnapshot(j, deltas, exceptions);
+      if (found)
+        readLog(j, deltas);
+    }
+    catch (IOException ioe) {
+      // an unreadable checkpoint is no better than none
+      found = false;
+    }
+
+    if (found) {
+      AggregationResultSet rs = qra.getRawResultSet();
+      for (Iterator i = exceptions.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        rs.setException((String) e.getKey(), (String) e.getValue());
+      }
+      qra.restoreResults(deltas.iterator());
+    }
+    else {
+      j.positions.clear();
+    }
+
+    writeSnapshot(j, qra);
+    journals.put(j.queryId, j);
+    return new HashMap(j.positions);
+  }
+
+  /**
+   *  Record an UpdateDelta that has just been applied to a query's result
+   *  set.  This is ignored for queries not being checkpointed.
+   */
+  public void record (QueryResultAdapter qra, UpdateDelta del)
+      throws IOException
+  {
+    Journal j = (Journal) journals.get(qra.getID());
+    if (j == null)
+      return;
+
+    if (del.getSequence() > 0)
+      j.positions.put(del.getAgentId(),
+        new Position(del.getSessionKey(), del.getSequence()));
+    else
+      j.positions.remove(del.getAgentId());
+
+    if (j.records >= snapshotInterval) {
+      writeSnapshot(j, qra);
+    }
+    else {
+      writeRecord(j.log, encode(del));
+      j.records++;
+    }
+  }
+
+  /**
+   *  Push the logged records out to the files.
+   */
+  public void flush () throws IOException {
+    for (Iterator i = journals.values().iterator(); i.hasNext(); )
+      ((Journal) i.next()).log.flush();
+  }
+
+  /**
+   *  Stop checkpointing a query and delete its files.
+   */
+  public void discard (String queryId) throws IOException {
+    Journal j = (Journal) journals.remove(queryId);
+    if (j != null)
+      j.log.close();
+    file(queryId, SNAPSHOT_SUFFIX).delete();
+    file(queryId, LOG_SUFFIX).delete();
+  }
+
+  /**
+   *  Close all of the logs.  The checkpoint should not be used thereafter.
+   */
+  public void close () throws IOException {
+    for (Iterator i = journals.values().iterator(); i.hasNext(); )
+      ((Journal) i.next()).log.close();
+    journals.clear();
+  }
+
+  // A checkpoint is restored only to a query with the same name and scripts
+  // as the one for which it was made, since query IDs may be reused after a
+  // restart.
+  private static String fingerprint (AggregationQuery q) {
+    InverseSax doc = new InverseSax();
+    doc.addElement(AggregationQuery.QUERY_TAG);
+    doc.addAttribute("name", String.valueOf(q.getName()));
+    q.includeScriptXml(doc);
+    doc.endElement();
+    return doc.toString();
+  }
+
+  private File file (String queryId, String suffix) {
+    StringBuffer buf = new StringBuffer("query-");
+    for (int i = 0; i < queryId.length(); i++) {
+      char c = queryId.charAt(i);
+      buf.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+    }
+    buf.append(suffix);
+    return new File(dir, buf.toString());
+  }
+
+  // Write a snapshot of the result set to a temporary file, which then
+  // replaces the previous snapshot, and begin a new log.  Should the agent
+  // fail before the log is emptied, the records already reflected in the
+  // snapshot are recognized by their sequence numbers and skipped.
+  private void writeSnapshot (Journal j, QueryResultAdapter qra)
+      throws IOException
+  {
+    AggregationResultSet rs = qra.getRawResultSet();
+    File tmp = file(j.queryId, TEMP_SUFFIX);
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, j.fingerprint);
+
+      out.writeInt(j.positions.size());
+      for (Iterator i = j.positions.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        Position p = (Position) e.getValue();
+        writeString(out, (String) e.getKey());
+        writeString(out, p.getSession());
+        out.writeLong(p.getSequence());
+      }
+
+      Map exceptions = new HashMap(rs.getExceptionMap());
+      out.writeInt(exceptions.size());
+      for (Iterator i = exceptions.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        writeString(out, e.getKey().toString());
+        writeString(out, e.getValue().toString());
+      }
+
+      List agents = new LinkedList();
+      for (Enumeration e = rs.getClusters(); e.hasMoreElements(); )
+        agents.add(e.nextElement());
+      out.writeInt(agents.size());
+      for (Iterator i = agents.iterator(); i.hasNext(); ) {
+        String agentId = (String) i.next();
+        UpdateDelta del = new UpdateDelta(agentId, j.queryId, "");
+        del.setReplacement(true);
+        del.getReplacementList().addAll(rs.getAtoms(agentId));
+        writeRecord(out, encode(del));
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    if (j.log != null)
+      j.log.close();
+    File snapshot = file(j.queryId, SNAPSHOT_SUFFIX);
+    if (!tmp.renameTo(snapshot)) {
+      snapshot.delete();
+      if (!tmp.renameTo(snapshot))
+        throw new IOException("Unable to replace " + snapshot);
+    }
+    j.log = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(file(j.queryId, LOG_SUFFIX))));
+    j.records = 0;
+  }
+
+  private boolean readSnapshot (Journal j, List deltas, Map exceptions)
+      throws IOException
+  {
+    File f = file(j.queryId, SNAPSHOT_SUFFIX);
+    if (!f.exists())
+      return false;
+
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(f)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+          !j.fingerprint.equals(readString(in)))
+        return false;
+
+      for (int n = in.readInt(); n > 0; n--) {
+        String agentId = readString(in);
+        j.positions.put(agentId, new Position(readString(in), in.readLong()));
+      }
+      for (int n = in.readInt(); n > 0; n--)
+        exceptions.put(readString(in), readString(in));
+      for (int n = in.readInt(); n > 0; n--)
+        deltas.add(BinaryDeltaFormat.decode(readRecord(in)));
+      return true;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void readLog (Journal j, List deltas) throws IOException {
+    File f = file(j.queryId, LOG_SUFFIX);
+    if (!f.exists())
+      return;
+
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(f)));
+    try {
+      while (true) {
+        UpdateDelta del = null;
+        try {
+          del = BinaryDeltaFormat.decode(readRecord(in));
+        }
+        catch (IOException ioe) {
+          // the end of the log, or a record cut short by a failure
+          break;
+        }
+
+        String agentId = del.getAgentId();
+        Position p = (Position) j.positions.get(agentId);
+        if (del.getSequence() > 0 && p != null &&
+            p.getSession().equals(del.getSessionKey()) &&
+            del.getSequence() <= p.getSequence())
+          continue;
+
+        deltas.add(del);
+        if (del.getSequence() > 0)
+          j.positions.put(agentId,
+            new Position(del.getSessionKey(), del.getSequence()));
+        else
+          j.positions.remove(agentId);
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // BinaryDeltaFormat rejects atoms it cannot encode with an
+  // IllegalArgumentException, which is reported here as any other failure to
+  // write the checkpoint
+  private static byte[] encode (UpdateDelta del) throws IOException {
+    try {
+      return BinaryDeltaFormat.encode(del);
+    }
+    catch (IllegalArgumentException iae) {
+      throw new IOException(iae.getMessage());
+    }
+  }
+
+  private static void writeRecord (DataOutputStream out, byte[] b)
+      throws IOException
+  {
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  private static byte[] readRecord (DataInputStream in) throws IOException {
+    int len = in.readInt();
+    if (len < 0 || len > MAX_RECORD)
+      throw new IOException("Bad record length " + len);
+    byte[] b = new byte[len];
+    in.readFully(b);
+    return b;
+  }
+
+  private static void writeString (DataOutputStream out, String s)
+      throws IOException
+  {
+    writeRecord(out, s.getBytes(ENCODING));
+  }
+
+  private static String readString (DataInputStream in) throws IOException {
+    return new String(readRecord(in), ENCODING);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.plugin;
+
+import org.cougaar.core.agent.service.alarm.Alarm;
+import org.cougaar.core.service.BlackboardService;
+
+/**
+ *  A WakeAlarm wakes a Plugin at a given (real) time, so that work scheduled
+ *  for that time may be done from within the Plugin's execute method, where
+ *  it is free to publish to the blackboard.
+ */
+class WakeAlarm implements Alarm {
+  private BlackboardService blackboard = null;
+  private long detonate = -1;
+  private boolean expired = false;
+
+  public WakeAlarm (BlackboardService bbs, long t) {
+    blackboard = bbs;
+    detonate = t;
+  }
+
+  public long getExpirationTime () {
+    return detonate;
+  }
+
+  public void expire () {
+    if (!expired) {
+      expired = true;
+      blackboard.signalClientActivity();
+    }
+  }
+
+  public boolean hasExpired () {
+    return expired;
+  }
+
+  public boolean cancel () {
+    if (!expired)
+      return expired = true;
+    return false;
+  }
+}
@@ -28,17 +28,31 @@ package org.cougaar.lib.aggagent.plugin;
 import java.io.Serializable;
 
 /**
- * This class encapsulates the XML messages for the aggregation agent.
+ * This class encapsulates the XML messages for the aggregation agent.  A
+ * message may instead carry a binary payload (see PayloadCodec), in which
+ * case it has no text.
  */
 public class XMLMessage implements Serializable {
   private String text;
+  private byte[] data;
   public String getText() {
     return text;
   }
+  public byte[] getData() {
+    return data;
+  }
+  public boolean isBinary() {
+    return data != null;
+  }
   public XMLMessage (String text) {
     this.text = text;
   }
+  public XMLMessage (byte[] data) {
+    this.data = data;
+  }
   public String toString() {
+    if (data != null)
+      return "[binary payload of " + data.length + " bytes]";
     return text;
   }
 
@@ -26,16 +26,23 @@
 package org.cougaar.lib.aggagent.query;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Timer;
 import java.util.Vector;
 
+import org.cougaar.lib.aggagent.session.PushPolicy;
 import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.lib.aggagent.util.XmlUtils;
 import org.cougaar.lib.aggagent.util.Enum.Language;
 import org.cougaar.lib.aggagent.util.Enum.QueryType;
 import org.cougaar.lib.aggagent.util.Enum.ScriptType;
+import org.cougaar.lib.aggagent.util.Enum.StoreType;
 import org.cougaar.lib.aggagent.util.Enum.UpdateMethod;
+import org.cougaar.lib.aggagent.util.Enum.WireFormat;
 import org.cougaar.lib.aggagent.util.Enum.XmlFormat;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -50,6 +57,11 @@ import org.w3c.dom.NodeList;
  *  Queries may be either transient ("find the answer now and then forget") or
  *  persistent ("maintain an updated view of the answer").
  *  <br><br>
+ *  A persistent query may name other aggregation agents among its sources,
+ *  each with source agents of its own (see addDelegate()).  Part of the query
+ *  is then delegated to each of these, and the results they gather are
+ *  reported upward, so that aggregation agents may be arranged in a tree.
+ *  <br><br>
  *  At this time, only one implementation (this one) is available.  The query
  *  is specified by an unordered set of Cluster names and a pair of SILK
  *  scripts which define, respectively, the set of blackboard objects that
@@ -62,15 +74,31 @@ public class AggregationQuery implements Serializable {
     private static String UPDATE_ATT = "update_method";
     private static String PULL_RATE_ATT = "pull_rate";
     private static String NAME_ATT = "name";
+    private static String WIRE_FORMAT_ATT = "wire_format";
+    private static String STORE_ATT = "store";
+    public static String FIELD_DIFFS_ATT = "field_diffs";
+    public static String COMBINE_ATT = "combine";
+    public static String CHUNK_SIZE_ATT = "chunk_size";
     private static String CLUSTER_TAG = "source_cluster";
     private static String TIMEOUT_TAG = "timeout";
+    private static String DELEGATE_TAG = "delegate";
+    private static String DELEGATE_SOURCE_TAG = "delegate_source";
+    private static String AGENT_ATT = "agent";
 
     private QueryType queryType = QueryType.TRANSIENT;
     private UpdateMethod updateMethod = UpdateMethod.PUSH;
+    private WireFormat wireFormat = WireFormat.XML;
+    private StoreType storeType = StoreType.MAP;
+    private PushPolicy pushPolicy = PushPolicy.IMMEDIATE;
+    private boolean fieldDiffs = false;
+    private boolean combine = false;
+    private int chunkSize = 0; // objects per response chunk; 0 means unchunked
     private int pullRate = -1; // wait period in sec.(if neg., don't auto-pull)
     private long timeout = 0; // period of tim to wait for transient queries.  0 means wait forever
     private boolean timeoutSupplied = false; // True iff  a timeout is set explicitly
     private Vector sourceClusters = new Vector();
+    // the sources of each delegate aggregation agent, by agent name
+    private Map delegates = new HashMap();
 
     private ScriptSpec predicateSpec = null;
     private ScriptSpec formatSpec = null;
@@ -103,6 +131,18 @@ public class AggregationQuery implements Serializable {
         UpdateMethod.fromString(root.getAttribute(UPDATE_ATT));
       pullRate = Integer.parseInt(root.getAttribute(PULL_RATE_ATT));
       userDefinedName = root.getAttribute(NAME_ATT);
+      WireFormat wf = WireFormat.fromString(root.getAttribute(WIRE_FORMAT_ATT));
+      if (wf != null)
+        wireFormat = wf;
+      StoreType st = StoreType.fromString(root.getAttribute(STORE_ATT));
+      if (st != null)
+        storeType = st;
+      pushPolicy = new PushPolicy(root);
+      fieldDiffs = "true".equals(root.getAttribute(FIELD_DIFFS_ATT));
+      combine = "true".equals(root.getAttribute(COMBINE_ATT));
+      String cs = root.getAttribute(CHUNK_SIZE_ATT);
+      if (cs.length() > 0)
+        chunkSize = Integer.parseInt(cs);
 
       NodeList nl = root.getElementsByTagName(CLUSTER_TAG);
       for (int i = 0; i < nl.getLength(); i++)
@@ -110,6 +150,16 @@ public class AggregationQuery implements Serializable {
         addSourceCluster(nl.item(i).getFirstChild().getNodeValue().trim());
       }
 
+      nl = root.getElementsByTagName(DELEGATE_TAG);
+      for (int i = 0; i < nl.getLength(); i++) {
+        Element d = (Element) nl.item(i);
+        Vector sources = new Vector();
+        NodeList snl = d.getElementsByTagName(DELEGATE_SOURCE_TAG);
+        for (int j = 0; j < snl.getLength(); j++)
+          sources.add(XmlUtils.getElementText((Element) snl.item(j)).trim());
+        delegates.put(d.getAttribute(AGENT_ATT), sources);
+      }
+
       nl = root.getElementsByTagName(TIMEOUT_TAG);
       if (nl.getLength() > 0) {
         String timeoutStr = nl.item(0).getFirstChild().getNodeValue().trim();
@@ -160,6 +210,96 @@ public class AggregationQuery implements Serializable {
       return updateMethod;
     }
 
+    /**
+     *  Specify the encoding used by the source agents when reporting their
+     *  findings to the aggregation agent.  The default is XML.
+     */
+    public void setWireFormat(WireFormat wireFormat)
+    {
+      this.wireFormat = wireFormat;
+    }
+
+    public WireFormat getWireFormat()
+    {
+      return wireFormat;
+    }
+
+    /**
+     *  Specify the representation used for the raw results of this query in
+     *  the aggregation agent.  The default is StoreType.MAP; StoreType.COLUMNAR
+     *  uses much less memory when the result set is large.
+     */
+    public void setStoreType(StoreType storeType)
+    {
+      this.storeType = storeType;
+    }
+
+    public StoreType getStoreType()
+    {
+      return storeType;
+    }
+
+    /**
+     *  Specify how often the source agents of a PUSH query report changes.
+     *  The default is PushPolicy.IMMEDIATE, which reports every change.
+     */
+    public void setPushPolicy(PushPolicy pushPolicy)
+    {
+      this.pushPolicy = pushPolicy;
+    }
+
+    public PushPolicy getPushPolicy()
+    {
+      return pushPolicy;
+    }
+
+    /**
+     *  Specify whether the source agents of a persistent query should send
+     *  only the values that have changed when an atom is updated, rather than
+     *  the whole atom.  The default is false.
+     */
+    public void setFieldDiffs(boolean fieldDiffs)
+    {
+      this.fieldDiffs = fieldDiffs;
+    }
+
+    public boolean getFieldDiffs()
+    {
+      return fieldDiffs;
+    }
+
+    /**
+     *  Specify whether the aggregation of a persistent query should be begun
+     *  at the source agents, which then send partial atoms rather than raw
+     *  data.  This takes effect only if the aggregation spec names a
+     *  MergeableMelder (such as the built-in melders); otherwise, raw data
+     *  are sent as usual.  The default is false.
+     */
+    public void setCombine(boolean combine)
+    {
+      this.combine = combine;
+    }
+
+    public boolean getCombine()
+    {
+      return combine;
+    }
+
+    /**
+     *  Specify the number of blackboard objects that a source agent should
+     *  encode in each chunk of its response to a transient query, or zero
+     *  (the default) if the response is to be sent all at once.
+     */
+    public void setChunkSize(int chunkSize)
+    {
+      this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize()
+    {
+      return chunkSize;
+    }
+
     public void setPullRate(int pullRate)
     {
       this.pullRate = pullRate;
@@ -194,6 +334,61 @@ public class AggregationQuery implements Serializable {
     public void removeSourceCluster(String clusterID)
     {
         sourceClusters.remove(clusterID);
+        delegates.remove(clusterID);
+    }
+
+    /**
+     *  Name another aggregation agent as a source of this query, along with
+     *  the agents from which it is to gather data on this query's behalf.
+     *  The delegate agent must run a RemoteSubscriptionPlugin as well as an
+     *  AggregationPlugin.  The delegate reports partial atoms, which are
+     *  merged here with those of the other sources, so the query must be
+     *  persistent and combined (see setCombine()), and its aggregation must
+     *  have a mergeable melder.  Delegation is not supported for any other
+     *  query, transient queries included; the request is then refused, and
+     *  an error is reported for the delegate in the result set.
+     */
+    public void addDelegate(String agent, Collection sources)
+    {
+        if (!sourceClusters.contains(agent))
+          sourceClusters.add(agent);
+        delegates.put(agent, new Vector(sources));
+    }
+
+    public boolean isDelegate(String agent)
+    {
+        return delegates.containsKey(agent);
+    }
+
+    /**
+     *  Create the query to be carried out by a delegate aggregation agent on
+     *  behalf of this one.  It is the same as this query, except that its
+     *  sources are those of the delegate.  If the agent named is not a
+     *  delegate, the result is null.
+     */
+    public AggregationQuery getDelegateQuery(String agent)
+    {
+        Vector sources = (Vector) delegates.get(agent);
+        if (sources == null)
+          return null;
+
+        AggregationQuery ret = new AggregationQuery(queryType);
+        ret.updateMethod = updateMethod;
+        ret.wireFormat = wireFormat;
+        ret.storeType = storeType;
+        ret.pushPolicy = pushPolicy;
+        ret.fieldDiffs = fieldDiffs;
+        ret.combine = combine;
+        ret.chunkSize = chunkSize;
+        ret.pullRate = pullRate;
+        ret.timeout = timeout;
+        ret.timeoutSupplied = timeoutSupplied;
+        ret.predicateSpec = predicateSpec;
+        ret.formatSpec = formatSpec;
+        ret.aggSpec = aggSpec;
+        ret.userDefinedName = userDefinedName;
+        ret.sourceClusters = new Vector(sources);
+        return ret;
     }
 
     public Enumeration getSourceClusters()
@@ -242,10 +437,30 @@ public class AggregationQuery implements Serializable {
       doc.addAttribute(UPDATE_ATT, updateMethod.toString());
       doc.addAttribute(PULL_RATE_ATT, String.valueOf(pullRate));
       doc.addAttribute(NAME_ATT, userDefinedName);
+      if (!WireFormat.XML.equals(wireFormat))
+        doc.addAttribute(WIRE_FORMAT_ATT, wireFormat.toString());
+      if (!StoreType.MAP.equals(storeType))
+        doc.addAttribute(STORE_ATT, storeType.toString());
+      pushPolicy.includeXml(doc);
+      if (fieldDiffs)
+        doc.addAttribute(FIELD_DIFFS_ATT, "true");
+      if (combine)
+        doc.addAttribute(COMBINE_ATT, "true");
+      if (chunkSize > 0)
+        doc.addAttribute(CHUNK_SIZE_ATT, String.valueOf(chunkSize));
 
       for (int i = 0; i < sourceClusters.size(); i++)
         doc.addTextElement(CLUSTER_TAG, sourceClusters.elementAt(i).toString());
 
+      for (Iterator i = delegates.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        doc.addElement(DELEGATE_TAG);
+        doc.addAttribute(AGENT_ATT, e.getKey().toString());
+        for (Iterator j = ((Vector) e.getValue()).iterator(); j.hasNext(); )
+          doc.addTextElement(DELEGATE_SOURCE_TAG, j.next().toString());
+        doc.endElement();
+      }
+
       if (timeout != 0)
         doc.addTextElement(TIMEOUT_TAG, String.valueOf(timeout));
 
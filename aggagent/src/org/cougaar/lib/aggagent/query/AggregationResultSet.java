@@ -32,6 +32,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,36 +53,69 @@ import org.w3c.dom.NodeList;
 public class AggregationResultSet implements XmlTransferable, Serializable {
   public static String RESULT_SET_TAG = "result_set";
   public static String QUERY_ID_ATT = "query_id";
+  public static String AGENT_ATT = "agent";
+  public static String VERSION_ATT = "version";
 
-  private static String EXCEPTION_TAG = "resultset_exception";
-  private static String CLUSTER_ID_ATT = "clusterId";
+  static String EXCEPTION_TAG = "resultset_exception";
+  static String CLUSTER_ID_ATT = "clusterId";
   private static String CLUSTER_TAG = "cluster";
   private static String ID_ATT = "id";
 
-  private static String CLUSTER_IDENTIFIER = "cluster";
+  static String CLUSTER_IDENTIFIER = "cluster";
   private static String AGGREGATED_IDENTIFIER = "aggregated";
 
+  // the most changes recorded between calls to takeChanges, after which the
+  // journal is abandoned and the next taker examines the whole result set
+  private static int MAX_JOURNAL = 4096;
+
+  // the most changes kept for getChangesSince, after which the oldest are
+  // forgotten
+  private static int MAX_HISTORY = Integer.getInteger(
+    "org.cougaar.lib.aggagent.changeHistory", 4096).intValue();
+
   private Object lock = new Serializable(){};
 
   private QueryResultAdapter query = null;
-  private List idNames = new LinkedList();
-  private boolean firstUpdate = true;
-  private Map clusterTable = new HashMap();
+  private ResultSetStore store = null;
   private Map exceptionMap = new HashMap();
   private Set respondingClusters = new HashSet();
   private UpdateObservable updateObservable = new UpdateObservable();
   private List resultSetChangeListeners = new LinkedList();
 
+  // the version is advanced whenever the contents change; the journal, when
+  // enabled, records the changes made since it was last taken
+  private long version = 0;
+  private boolean trackChanges = false;
+  private transient ResultSetChanges journal = null;
+
+  // the most recent changes, oldest first.  Every change that produced a
+  // version later than historyFloor is present.  The history is kept only
+  // once getChangesSince has been called, so that a result set nobody asks
+  // about in this way does not pay for it.  It is not persisted; after
+  // rehydration, it starts afresh.
+  private transient LinkedList history = null;
+  private long historyFloor = 0;
+
   /**
    * Default Constructor
    */
-  public AggregationResultSet() {}
+  public AggregationResultSet() {
+    this(new MapResultSetStore());
+  }
+
+  /**
+   *  Create an empty result set whose atoms are kept in the given store.
+   */
+  public AggregationResultSet (ResultSetStore s) {
+    store = s;
+  }
 
   /**
    *  Create Result Set from xml.
    */
   public AggregationResultSet(Element root)
   {
+    this();
     NodeList nl = root.getElementsByTagName(EXCEPTION_TAG);
     for (int i = 0; i < nl.getLength(); i++)
     {
@@ -97,12 +131,43 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
       String cid = cluster.getAttribute(ID_ATT);
       createAtomsByAgent(cid, cluster);
     }
+
+    String v = root.getAttribute(VERSION_ATT);
+    if (v.length() > 0)
+      resetVersion(Long.parseLong(v));
+  }
+
+  // Adopt the version of the original, for a copy of a result set made
+  // elsewhere.  The local history does not apply to that version, and so it
+  // is discarded.
+  private void resetVersion (long v) {
+    version = v;
+    if (history != null)
+      history.clear();
+    historyFloor = v;
+  }
+
+  // Adopt the version of the original after applying its changes, which
+  // have been recorded at that version.  If the original's version has gone
+  // back, as it does when the original is recreated, the local history no
+  // longer applies.
+  private void adoptVersion (long v) {
+    if (v < version) {
+      resetVersion(v);
+      if (journal != null)
+        journal.setFull();
+    }
+    else {
+      version = v;
+    }
   }
 
   private void createAtomsByAgent (String agentId, Element root) {
     NodeList nl = root.getElementsByTagName(ResultSetDataAtom.DATA_ATOM_TAG);
     for (int i = 0; i < nl.getLength(); i++)
       update(agentId, new ResultSetDataAtom((Element) nl.item(i)));
+    if (nl.getLength() > 0)
+      addRespondingCluster(agentId);
   }
 
   /**
@@ -124,7 +189,7 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
    */
   public Enumeration getClusters() {
     // return as an enumeration so that elements cannot be removed
-    Vector keys = new Vector(clusterTable.keySet());
+    Vector keys = new Vector(store.getAgents());
     return keys.elements();
   }
   
@@ -134,7 +199,162 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
    */
   public void setException(String clusterId, String exceptionMessage)
   {
-    exceptionMap.put(clusterId, exceptionMessage);
+    synchronized (lock) {
+      exceptionMap.put(clusterId, exceptionMessage);
+      version++;
+    }
+  }
+
+  // Record the exceptions reported by the sources of a delegate aggregation
+  // agent (see ResultSetIncrement) under the names of those sources.  An
+  // exception already recorded is not recorded again.
+  private void setSourceExceptions (Map m) {
+    for (Iterator i = m.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry e = (Map.Entry) i.next();
+      if (!e.getValue().equals(exceptionMap.get(e.getKey())))
+        setException((String) e.getKey(), (String) e.getValue());
+    }
+  }
+
+  /**
+   *  Report the current version of this result set.  The version advances
+   *  every time the contents of the result set are changed.
+   */
+  public long getVersion () {
+    synchronized (lock) {
+      return version;
+    }
+  }
+
+  /**
+   *  Enable or disable the recording of changes to this result set.  While
+   *  enabled, the changes can be collected by calling takeChanges().
+   */
+  public void setTrackChanges (boolean b) {
+    synchronized (lock) {
+      trackChanges = b;
+      journal = null;
+    }
+  }
+
+  /**
+   *  Collect the changes made to this result set since the last call to this
+   *  method (or since change tracking was enabled).  If change tracking is
+   *  not enabled, the result is marked "full", meaning that no listing of the
+   *  changes is available.
+   */
+  public ResultSetChanges takeChanges () {
+    synchronized (lock) {
+      ResultSetChanges ret = journal;
+      if (ret == null || !trackChanges) {
+        ret = new ResultSetChanges(version);
+        ret.setFull();
+      }
+      ret.setToVersion(version);
+      journal = trackChanges ? new ResultSetChanges(version) : null;
+      return ret;
+    }
+  }
+
+  /**
+   *  Describe the changes made to this result set since the given version,
+   *  which is typically that of a copy held elsewhere.  Only the latest
+   *  change to each atom is listed.  If the changes are no longer known,
+   *  because too many have been made or the contents were replaced
+   *  wholesale, the result is marked "full", and the whole result set should
+   *  be sent instead.  Changes are recorded only after the first call, which
+   *  is therefore answered in full unless nothing has changed.
+   */
+  public ResultSetChanges getChangesSince (long since) {
+    synchronized (lock) {
+      ResultSetChanges ret = new ResultSetChanges(since);
+      ret.setToVersion(version);
+      if (history == null) {
+        history = new LinkedList();
+        historyFloor = version;
+      }
+      if (since < historyFloor || since > version) {
+        ret.setFull();
+        return ret;
+      }
+
+      Map latest = new LinkedHashMap();
+      for (Iterator i = history.iterator(); i.hasNext(); ) {
+        ResultSetChanges.Change c = (ResultSetChanges.Change) i.next();
+        if (c.getVersion() > since) {
+          Map key = c.getKey();
+          latest.remove(key);
+          latest.put(key, c);
+        }
+      }
+      for (Iterator i = latest.values().iterator(); i.hasNext(); )
+        ret.add((ResultSetChanges.Change) i.next());
+      ret.setExceptions(query == null ? null : query.getID(),
+        new HashMap(exceptionMap));
+      return ret;
+    }
+  }
+
+  /**
+   *  Bring this copy of a result set up to date by applying the changes
+   *  obtained from the original (see getChangesSince).  Afterwards, this
+   *  result set reports the same version as the original, and the changes
+   *  are recorded here at that version, so that the copy's own observers and
+   *  its next request to the original both count in the original's versions.
+   */
+  public void applyChanges (ResultSetChanges changes) {
+    synchronized (lock) {
+      long to = changes.getToVersion();
+      for (Iterator i = changes.getChanges(); i.hasNext(); ) {
+        ResultSetChanges.Change c = (ResultSetChanges.Change) i.next();
+        if (c.isRemoval()) {
+          store.remove(c.getAgentId(), c.getAtom());
+        }
+        else {
+          store.update(c.getAgentId(), c.getAtom());
+          addRespondingCluster(c.getAgentId());
+        }
+        journal(c.getAgentId(), c.getAtom(), c.isRemoval(), to);
+      }
+      exceptionMap = new HashMap(changes.getExceptions());
+      adoptVersion(to);
+    }
+    fireObjectChanged();
+  }
+
+  private void journal (String agentId, ResultSetDataAtom atom, boolean rm) {
+    journal(agentId, atom, rm, ++version);
+  }
+
+  // Record a change as having produced the given version, which is not
+  // earlier than any already recorded
+  private void journal (String agentId, ResultSetDataAtom atom, boolean rm,
+      long v)
+  {
+    ResultSetChanges.Change c =
+      new ResultSetChanges.Change(agentId, atom, rm, v);
+    if (journal != null) {
+      journal.add(c);
+      if (journal.size() > MAX_JOURNAL)
+        journal.setFull();
+    }
+    if (history != null) {
+      history.addLast(c);
+      if (history.size() > MAX_HISTORY) {
+        ResultSetChanges.Change oldest =
+          (ResultSetChanges.Change) history.removeFirst();
+        historyFloor = oldest.getVersion();
+      }
+    }
+  }
+
+  private void journalFull () {
+    version++;
+    if (journal != null)
+      journal.setFull();
+    if (history != null)
+      history.clear();
+    historyFloor = version;
   }
 
   /**
@@ -177,18 +397,11 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
    *  datum.
    */
   private void update (String clusterId, ResultSetDataAtom atom) {
-    if (firstUpdate) {
-      firstUpdate = false;
-      for (Iterator i = atom.getIdentifierNames(); i.hasNext(); )
-        idNames.add(i.next());
-    }
-
-    Map data = (Map) clusterTable.get(clusterId);
-    if (data == null)
-      clusterTable.put(clusterId, data = new HashMap());
-
-    data.put(atom.getKey(idNames), atom.getValueMap());
+    store.update(clusterId, atom);
+    journal(clusterId, atom, false);
+  }
 
+  private void addRespondingCluster (String clusterId) {
     synchronized (respondingClusters)
     {
       respondingClusters.add(clusterId);
@@ -199,9 +412,8 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
    *  Remove a ResultSetDataAtom from the result set.
    */
   private void remove (String clusterId, ResultSetDataAtom atom) {
-    Map data = (Map) clusterTable.get(clusterId);
-    if (data != null)
-      data.remove(atom.getKey(idNames));
+    store.remove(clusterId, atom);
+    journal(clusterId, atom, true);
   }
 
   /**
@@ -222,20 +434,51 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
       remove(agentId, (ResultSetDataAtom) i.next());
   }
 
+  /**
+   *  Apply a series of partial atoms to those already in the result set.
+   *  Each atom as patched is added to the given list.  A partial atom that
+   *  matches none in the result set means that the source and this result
+   *  set are out of step; it is dropped, since it lacks the values that did
+   *  not change, and an exception is recorded for the agent.
+   */
+  private void patch (String agentId, Collection patches, List patched) {
+    int unmatched = 0;
+    for (Iterator i = patches.iterator(); i.hasNext(); ) {
+      ResultSetDataAtom p = (ResultSetDataAtom) i.next();
+      ResultSetDataAtom atom = store.patch(agentId, p);
+      if (atom != null) {
+        journal(agentId, atom, false);
+        patched.add(atom);
+      }
+      else {
+        unmatched++;
+      }
+    }
+    if (unmatched > 0)
+      setException(agentId, "Received changes to " + unmatched +
+        " atom(s) not held here; the results from " + agentId +
+        " are incomplete until it sends a replacement");
+  }
+
   private void removeAll (String agentId) {
-    Map table = (Map) clusterTable.get(agentId);
-    if (table != null)
-      table.clear();
+    store.removeAll(agentId);
+    journalFull();
   }
 
+  /**
+   *  Apply the changes described by an UpdateDelta.  Any partial atoms in the
+   *  delta's patched list are merged into the atoms already present, and the
+   *  resulting whole atoms are moved to the delta's changed list, so that
+   *  later consumers of the delta need not be concerned with patches.  A
+   *  partial atom that matches nothing here is dropped (see patch()).
+   *  <br><br>
+   *  The chunks of a response sent in several parts are applied as they
+   *  arrive, but the agent is not counted as having responded until the
+   *  last of them has been applied.
+   */
   public void incrementalUpdate (UpdateDelta delta) {
     String agentId = delta.getAgentId();
 
-    synchronized (respondingClusters)
-    {
-      respondingClusters.add(agentId);
-    }
-
     // update result set based on incremental change xml
     synchronized (lock) {
       if (delta.isErrorReport()) {
@@ -248,9 +491,18 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
       else {
         update(agentId, delta.getAddedList());
         update(agentId, delta.getChangedList());
+        if (!delta.getPatchedList().isEmpty()) {
+          patch(agentId, delta.getPatchedList(), delta.getChangedList());
+          delta.getPatchedList().clear();
+        }
         remove(agentId, delta.getRemovedList());
       }
+      if (!delta.isErrorReport())
+        setSourceExceptions(delta.getSourceExceptions());
     }
+
+    if (!delta.hasMore())
+      addRespondingCluster(agentId);
   }
 
   /**
@@ -260,12 +512,14 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
    
   protected void removeClusterId (String clusterId) {
     synchronized (lock) {
-      clusterTable.remove(clusterId);
+      store.removeAgent(clusterId);
+      journalFull();
     }
   }
 
   private void removeAllAtoms () {
-    clusterTable.clear();
+    store.clear();
+    journalFull();
   }
 
   public void replaceAggregated (List atoms) {
@@ -278,18 +532,68 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
   }
 
   /**
-   * Update this result set to match passed in result set
+   *  Patch the aggregated data in this result set by removing the atoms in
+   *  the "retired" list and then inserting those in the "produced" list.
+   *  Used when only part of an aggregated result set has been recomputed.
+   */
+  public void updateAggregated (List retired, List produced) {
+    synchronized (lock) {
+      remove(AGGREGATED_IDENTIFIER, retired);
+      update(AGGREGATED_IDENTIFIER, produced);
+    }
+    fireObjectChanged();
+  }
+
+  /**
+   * Update this result set to match passed in result set.  The atoms that
+   * differ are recorded as changes (see getChangesSince), so that observers
+   * need not examine the whole result set.  Afterwards, this result set
+   * reports exactly the version of the one passed in.
    */
   public void update(AggregationResultSet rs)
   {
-    this.idNames = rs.idNames;
-    this.firstUpdate = rs.firstUpdate;
-    this.clusterTable = rs.clusterTable;
-    this.exceptionMap = rs.exceptionMap;
+    synchronized (lock) {
+      ResultSetStore old = store;
+      this.store = rs.store;
+      this.exceptionMap = rs.exceptionMap;
+      if (old != store && rs.version >= version)
+        journalDifferences(old, store, rs.version);
+      adoptVersion(rs.version);
+    }
 
     fireObjectChanged();
   }
 
+  // Record the changes that turn the contents of one store into those of
+  // another, all at the given version:  the atoms that are new or whose
+  // values differ, and those that are gone.  Each store is read once, and
+  // atoms are matched by their identifier maps, which the stores create
+  // afresh for each atom.
+  private void journalDifferences (ResultSetStore before,
+      ResultSetStore after, long v)
+  {
+    Set agents = new HashSet(before.getAgents());
+    agents.addAll(after.getAgents());
+    Map prior = new HashMap();
+    for (Iterator i = agents.iterator(); i.hasNext(); ) {
+      String agentId = (String) i.next();
+      prior.clear();
+      for (Iterator j = before.getAtoms(agentId); j.hasNext(); ) {
+        ResultSetDataAtom a = (ResultSetDataAtom) j.next();
+        prior.put(a.getIdentifierMap(), a);
+      }
+      for (Iterator j = after.getAtoms(agentId); j.hasNext(); ) {
+        ResultSetDataAtom a = (ResultSetDataAtom) j.next();
+        ResultSetDataAtom p =
+          (ResultSetDataAtom) prior.remove(a.getIdentifierMap());
+        if (p == null || !p.getValueMap().equals(a.getValueMap()))
+          journal(agentId, a, false, v);
+      }
+      for (Iterator j = prior.values().iterator(); j.hasNext(); )
+        journal(agentId, (ResultSetDataAtom) j.next(), true, v);
+    }
+  }
+
   /**
    * Add an update listener to observe this object
    */
@@ -337,14 +641,10 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
   public Iterator getAllAtoms () {
     List l = new LinkedList();
     synchronized (lock) {
-      for (Iterator c = clusterTable.entrySet().iterator(); c.hasNext(); ) {
-        Map.Entry cluster = (Map.Entry) c.next();
-        Object name = cluster.getKey();
-        Map atoms = (Map) cluster.getValue();
-        for (Iterator v = atoms.entrySet().iterator(); v.hasNext(); ) {
-          Map.Entry pair = (Map.Entry) v.next();
-          ResultSetDataAtom a = new ResultSetDataAtom(
-            idNames, (CompoundKey) pair.getKey(), (Map) pair.getValue());
+      for (Iterator c = store.getAgents().iterator(); c.hasNext(); ) {
+        String name = (String) c.next();
+        for (Iterator v = store.getAtoms(name); v.hasNext(); ) {
+          ResultSetDataAtom a = (ResultSetDataAtom) v.next();
           a.addIdentifier(CLUSTER_IDENTIFIER, name);
           l.add(a);
         }
@@ -353,39 +653,107 @@ public class AggregationResultSet implements XmlTransferable, Serializable {
     return l.iterator();
   }
 
+  /**
+   *  Gather the atoms contributed by the named agent.  Unlike those provided
+   *  by getAllAtoms(), these are copies and are not tagged with the name of
+   *  the agent.
+   */
+  public List getAtoms (String agentId) {
+    List l = new LinkedList();
+    synchronized (lock) {
+      for (Iterator i = store.getAtoms(agentId); i.hasNext(); ) {
+        ResultSetDataAtom a = new ResultSetDataAtom((ResultSetDataAtom) i.next());
+        a.removeIdentifier(CLUSTER_IDENTIFIER);
+        l.add(a);
+      }
+    }
+    return l;
+  }
+
   public String toXml () {
     InverseSax doc = new InverseSax();
     includeXml(doc);
     return doc.toString();
   }
 
+  /**
+   *  Write this result set to an InverseSax.  The contents are copied while
+   *  the result set is locked and written afterwards, so that a document
+   *  being streamed to a slow client does not hold up updates.
+   */
   public void includeXml (InverseSax doc) {
+    long v;
+    Map exceptions;
+    List agents = new LinkedList();
+    List atoms = new LinkedList();
+    synchronized (lock) {
+      v = version;
+      exceptions = new HashMap(exceptionMap);
+      for (Iterator i = store.getAgents().iterator(); i.hasNext(); ) {
+        String agentId = (String) i.next();
+        agents.add(agentId);
+        atoms.add(copyAtoms(agentId));
+      }
+    }
+
     doc.addElement(RESULT_SET_TAG);
     if (query != null)
       doc.addAttribute(QUERY_ID_ATT, query.getID());
+    doc.addAttribute(VERSION_ATT, String.valueOf(v));
+    for (Iterator i = exceptions.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) i.next();
+      doc.addEltAttText(EXCEPTION_TAG, CLUSTER_ID_ATT,
+        entry.getKey().toString(), entry.getValue().toString());
+    }
+    Iterator j = atoms.iterator();
+    for (Iterator i = agents.iterator(); i.hasNext(); )
+      includeAtoms(doc, (String) i.next(), (List) j.next());
+    doc.endElement();
+  }
 
-    synchronized (lock) {
-      for (Iterator i = exceptionMap.entrySet().iterator(); i.hasNext(); ) {
-        Map.Entry entry = (Map.Entry) i.next();
-        doc.addEltAttText(EXCEPTION_TAG, CLUSTER_ID_ATT,
-          entry.getKey().toString(), entry.getValue().toString());
-      }
+  // Called with the lock held.  The atoms supplied by the store do not share
+  // mutable state with it, so they may be written after the lock is released.
+  private List copyAtoms (String agentId) {
+    List l = new LinkedList();
+    for (Iterator i = store.getAtoms(agentId); i.hasNext(); )
+      l.add(i.next());
+    return l;
+  }
 
-      for (Iterator i = clusterTable.entrySet().iterator(); i.hasNext(); ) {
-        Map.Entry table = (Map.Entry) i.next();
-        doc.addElement(CLUSTER_TAG);
-        doc.addAttribute(ID_ATT, table.getKey().toString());
-        for (Iterator j = ((Map) table.getValue()).entrySet().iterator();
-            j.hasNext(); )
-        {
-          Map.Entry entry = (Map.Entry) j.next();
-          (new ResultSetDataAtom(idNames, (CompoundKey) entry.getKey(),
-            (Map) entry.getValue())).includeXml(doc);
-        }
-        doc.endElement();
-      }
+  private static void includeAtoms (InverseSax doc, String agentId, List l) {
+    doc.addElement(CLUSTER_TAG);
+    doc.addAttribute(ID_ATT, agentId);
+    for (Iterator i = l.iterator(); i.hasNext(); )
+      ((ResultSetDataAtom) i.next()).includeXml(doc);
+    doc.endElement();
+  }
+
+  /**
+   *  Write the contribution of a single agent, i.e., its atoms and any
+   *  exception it reported, as a result set marked with the agent's name.
+   */
+  public String toXml (String agentId) {
+    InverseSax doc = new InverseSax();
+    includeXml(doc, agentId);
+    return doc.toString();
+  }
+
+  public void includeXml (InverseSax doc, String agentId) {
+    Object exception;
+    List atoms;
+    synchronized (lock) {
+      exception = exceptionMap.get(agentId);
+      atoms = copyAtoms(agentId);
     }
 
+    doc.addElement(RESULT_SET_TAG);
+    if (query != null)
+      doc.addAttribute(QUERY_ID_ATT, query.getID());
+    doc.addAttribute(AGENT_ATT, agentId);
+    if (exception != null)
+      doc.addEltAttText(EXCEPTION_TAG, CLUSTER_ID_ATT, agentId,
+        exception.toString());
+    includeAtoms(doc, agentId, atoms);
     doc.endElement();
   }
 
@@ -43,6 +43,11 @@ import org.cougaar.lib.aggagent.util.InverseSax;
  *  appropriate action, which may include updating the Alert's status and/or
  *  producing events.
  *  <br><br>
+ *  Where the changes to the result set are known, the update(ResultSetChanges)
+ *  method may be called instead, and implementations that override
+ *  handleChanges() can then examine only the atoms affected rather than the
+ *  whole result set.  By default, handleChanges() calls handleUpdate().
+ *  <br><br>
  *  At present there is no additional support for Alert activities, so all
  *  necessary work must be done in the Alert implementations.
  */
@@ -56,6 +61,11 @@ public abstract class Alert implements XmlTransferable, Serializable {
   private QueryResultAdapter query = null;
   private String name = null;
 
+  // the version of the result set last evaluated by this Alert, and the
+  // changes being evaluated, if any, during a call to handleChanges()
+  private long evaluatedVersion = -1;
+  private transient ResultSetChanges changes = null;
+
   public void setName (String n) {
     name = n;
   }
@@ -124,10 +134,54 @@ public abstract class Alert implements XmlTransferable, Serializable {
    */
   public boolean update () {
     boolean oldAlerted = isAlerted();
+    evaluatedVersion = getResultSetVersion();
     handleUpdate();
     return oldAlerted != isAlerted();
   }
 
+  /**
+   *  Notify the Alert that the relevant result set has been updated with the
+   *  given changes.  If the changes follow directly upon the version of the
+   *  result set last examined by this Alert, then only the changes are
+   *  offered to handleChanges(); otherwise, the whole result set is examined
+   *  by handleUpdate().  If the Alert has already seen the result of these
+   *  changes, nothing is done.  As with update(), the return value indicates
+   *  whether the state of the Alert was changed.
+   */
+  public boolean update (ResultSetChanges ch) {
+    if (ch.getToVersion() == evaluatedVersion)
+      return false;
+
+    if (ch.isFull() || ch.getFromVersion() != evaluatedVersion)
+      return update();
+
+    boolean oldAlerted = isAlerted();
+    evaluatedVersion = ch.getToVersion();
+    changes = ch;
+    try {
+      handleChanges();
+    }
+    finally {
+      changes = null;
+    }
+    return oldAlerted != isAlerted();
+  }
+
+  private long getResultSetVersion () {
+    if (query == null || query.getResultSet() == null)
+      return -1;
+    return query.getResultSet().getVersion();
+  }
+
+  /**
+   *  Provide access to the changes being examined during a call to
+   *  handleChanges().  At other times, this method returns null.  It is
+   *  declared public so that scripts can access it.
+   */
+  public ResultSetChanges getChanges () {
+    return changes;
+  }
+
   /**
    *  Convert this Alert to an XML format for transfer to clients.
    */
@@ -155,4 +209,15 @@ public abstract class Alert implements XmlTransferable, Serializable {
    *  through the update() method.
    */
   public abstract void handleUpdate ();
+
+  /**
+   *  Adjust the local state in light of the changes reported by getChanges(),
+   *  which are known to follow upon the result set last examined by this
+   *  Alert.  The default implementation examines the whole result set by
+   *  calling handleUpdate().  Subclasses that can work from the changes alone
+   *  should override this method.
+   */
+  public void handleChanges () {
+    handleUpdate();
+  }
 }
@@ -26,21 +26,67 @@
 
 package org.cougaar.lib.aggagent.query;
 
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.cougaar.lib.aggagent.session.UpdateDelta;
 
 /**
  *  An implementation of the Aggregator interface that behavior most likely to
  *  be used by developers.  In particular, a series of keys can be used to
  *  gather atoms into affinity classes, and a DataAtomMelder (q.v.) is used to
  *  meld the affinity classes into atoms.
+ *  <br><br>
+ *  The membership of each affinity class is remembered between calls, so that
+ *  an UpdateDelta can be applied by re-melding only the classes it touches
+ *  (see method update()).  If the DataAtomMelder is also an
+ *  IncrementalAggregator, then the touched classes are adjusted by retracting
+ *  and accumulating the affected atoms instead of being melded from scratch.
+ *  <br><br>
+ *  If the DataAtomMelder is a MergeableMelder, the aggregation can be split
+ *  between the source agents and the aggregation agent.  A BatchAggregator
+ *  at the source produces partial atoms instead of finished ones (see
+ *  setProducePartials()), and one at the aggregation agent merges those
+ *  partials into the final result (see setMergePartials()).
  */
 public class BatchAggregator implements Aggregator {
   private List aggIds = null;
   private DataAtomMelder melder = null;
+  private IncrementalAggregator incremental = null;
+  private MergeableMelder mergeable = null;
+  private boolean producePartials = false;
+  private boolean mergePartials = false;
+
+  // affinity classes, by collation key, from the most recent aggregation
+  private Map groups = new LinkedHashMap();
+
+  // names of the identifiers of the member atoms, in the order of the
+  // components of their keys
+  private List memberIds = null;
+
+  // reusable keys for finding groups and members
+  private transient ProbeKey groupProbe = null;
+  private transient ProbeKey memberProbe = null;
+
+  private static class Group implements Serializable {
+    // the collation key of this group
+    public CompoundKey key;
+    // the value maps of the member atoms, keyed by their complete set of
+    // identifiers, in the order in which the members were first seen
+    public Map members = new LinkedHashMap();
+    // the running summary of an IncrementalAggregator, if there is one
+    public Object state = null;
+    // the atoms most recently melded from this group
+    public List output = new LinkedList();
+  }
 
   /**
    *  Create a new BatchAggregator.  A list of ids is used to collate a result
@@ -50,28 +96,217 @@ public class BatchAggregator implements Aggregator {
   public BatchAggregator (List ids, DataAtomMelder m) {
     aggIds = ids;
     melder = m;
+    if (m instanceof IncrementalAggregator)
+      incremental = (IncrementalAggregator) m;
+    if (m instanceof MergeableMelder)
+      mergeable = (MergeableMelder) m;
+  }
+
+  /**
+   *  Tell whether this aggregation can be split into partial aggregation at
+   *  the source agents and merging of the partials at the aggregation agent,
+   *  i.e., whether the melder is a MergeableMelder.
+   */
+  public boolean isMergeable () {
+    return mergeable != null;
+  }
+
+  /**
+   *  Specify whether to produce partial atoms (see MergeableMelder) rather
+   *  than finished ones.  This is appropriate at a source agent.
+   */
+  public void setProducePartials (boolean b) {
+    checkMergeable();
+    producePartials = b;
+  }
+
+  /**
+   *  Specify whether the atoms being aggregated are partials produced at the
+   *  source agents (see MergeableMelder) rather than raw data.  This is
+   *  appropriate at the aggregation agent.
+   */
+  public void setMergePartials (boolean b) {
+    checkMergeable();
+    mergePartials = b;
+  }
+
+  public boolean isMergingPartials () {
+    return mergePartials;
+  }
+
+  private void checkMergeable () {
+    if (mergeable == null)
+      throw new IllegalStateException(
+        "melder " + melder.getClass().getName() + " is not mergeable");
+  }
+
+  /**
+   *  Forget the affinity classes found so far.
+   */
+  public void clear () {
+    groups.clear();
+    memberIds = null;
   }
 
   /**
    *  Transform the raw result set into an aggregated result set.
    */
   public void aggregate (Iterator dataAtoms, List output) {
-    Map batches = collate(dataAtoms);
-    for (Iterator i = batches.entrySet().iterator(); i.hasNext(); ) {
+    groups.clear();
+    while (dataAtoms.hasNext())
+      place((ResultSetDataAtom) dataAtoms.next(), null);
+
+    for (Iterator i = groups.entrySet().iterator(); i.hasNext(); ) {
       Map.Entry e = (Map.Entry) i.next();
-      melder.meld(aggIds, (CompoundKey) e.getKey(), (List) e.getValue(), output);
+      Group g = (Group) e.getValue();
+      meld((CompoundKey) e.getKey(), g);
+      output.addAll(g.output);
     }
   }
 
-  private Map collate (Iterator atoms) {
-    Map ret = new HashMap();
-    while (atoms.hasNext()) {
-      ResultSetDataAtom a = (ResultSetDataAtom) atoms.next();
-      CompoundKey k = a.getKey(aggIds);
-      List l = (List) ret.get(k);
-      if (l == null)
-        ret.put(k, l = new LinkedList());
-      l.add(a);
+  /**
+   *  Apply the changes described by an UpdateDelta to the affinity classes
+   *  found by the most recent call to aggregate() (or update()).  Only the
+   *  classes touched by the delta are re-melded.  Atoms previously produced
+   *  by those classes are placed in the "retired" list, and their
+   *  replacements in the "produced" list, so that the caller can patch the
+   *  aggregated result set accordingly.
+   *  <br><br>
+   *  Wholesale replacement of an agent's data is not handled here; the caller
+   *  should aggregate the entire raw result set in that case.
+   */
+  public void update (UpdateDelta delta, List retired, List produced) {
+    String agentId = delta.getAgentId();
+    Set touched = new HashSet();
+
+    placeAll(agentId, delta.getAddedList(), touched);
+    placeAll(agentId, delta.getChangedList(), touched);
+    for (Iterator i = delta.getRemovedList().iterator(); i.hasNext(); )
+      evict(asMember(agentId, (ResultSetDataAtom) i.next()), touched);
+
+    for (Iterator i = touched.iterator(); i.hasNext(); ) {
+      CompoundKey k = (CompoundKey) i.next();
+      Group g = (Group) groups.get(k);
+      retired.addAll(g.output);
+      if (g.members.isEmpty()) {
+        groups.remove(k);
+      }
+      else {
+        meld(k, g);
+        produced.addAll(g.output);
+      }
+    }
+  }
+
+  private void placeAll (String agentId, Collection atoms, Set touched) {
+    for (Iterator i = atoms.iterator(); i.hasNext(); )
+      place(asMember(agentId, (ResultSetDataAtom) i.next()), touched);
+  }
+
+  // Present an atom as it would be seen in the raw result set, i.e., tagged
+  // with the name of the agent whence it came.  The data payload is shared;
+  // it is never modified in place (see ResultSetStore.patch).
+  private static ResultSetDataAtom asMember (String agentId, ResultSetDataAtom a)
+  {
+    ResultSetDataAtom ret = new ResultSetDataAtom();
+    for (Iterator i = a.getIdentifierNames(); i.hasNext(); ) {
+      Object name = i.next();
+      ret.addIdentifier(name, a.getIdentifier(name));
+    }
+    ret.addIdentifier(AggregationResultSet.CLUSTER_IDENTIFIER, agentId);
+    ret.setValueMap(a.getValueMap());
+    return ret;
+  }
+
+  private Group findGroup (ResultSetDataAtom a) {
+    if (groupProbe == null)
+      groupProbe = new ProbeKey();
+    return (Group) groups.get(groupProbe.set(aggIds, a));
+  }
+
+  private ProbeKey memberKey (ResultSetDataAtom a) {
+    if (memberProbe == null)
+      memberProbe = new ProbeKey();
+    if (memberIds == null) {
+      memberIds = new ArrayList();
+      for (Iterator i = a.getIdentifierNames(); i.hasNext(); )
+        memberIds.add(i.next());
+    }
+    return memberProbe.setAll(a);
+  }
+
+  // Reconstitute a member atom from its key and values, as the stores do.
+  // Members are kept this way so that the aggregator holds no copies of the
+  // raw atoms, only references to their value maps.
+  private ResultSetDataAtom member (CompoundKey k, Map values) {
+    return new ResultSetDataAtom(memberIds, k, values);
+  }
+
+  // Add an atom to its affinity class, displacing any previous version
+  private void place (ResultSetDataAtom a, Set touched) {
+    Group g = findGroup(a);
+    if (g == null) {
+      g = new Group();
+      g.key = groupProbe.toInternedKey();
+      groups.put(g.key, g);
+      if (incremental != null)
+        g.state = incremental.createGroupState();
+    }
+
+    ProbeKey mk = memberKey(a);
+    Map old = (Map) g.members.get(mk);
+    if (old != null)
+      g.members.put(mk, a.getValueMap());
+    else
+      g.members.put(mk.toInternedKey(), a.getValueMap());
+
+    if (mergePartials) {
+      if (old != null)
+        mergeable.unmerge(g.state, member(mk, old));
+      mergeable.merge(g.state, a);
+    }
+    else if (incremental != null) {
+      if (old != null)
+        incremental.retract(g.state, member(mk, old));
+      incremental.accumulate(g.state, a);
+    }
+    if (touched != null)
+      touched.add(g.key);
+  }
+
+  // Remove an atom from its affinity class, if it is there
+  private void evict (ResultSetDataAtom a, Set touched) {
+    Group g = findGroup(a);
+    if (g == null)
+      return;
+
+    ProbeKey mk = memberKey(a);
+    Map old = (Map) g.members.remove(mk);
+    if (old != null) {
+      if (mergePartials)
+        mergeable.unmerge(g.state, member(mk, old));
+      else if (incremental != null)
+        incremental.retract(g.state, member(mk, old));
+      touched.add(g.key);
+    }
+  }
+
+  private void meld (CompoundKey k, Group g) {
+    g.output = new LinkedList();
+    if (producePartials)
+      mergeable.producePartial(aggIds, k, g.state, g.output);
+    else if (incremental != null)
+      incremental.produce(aggIds, k, g.state, g.output);
+    else
+      melder.meld(aggIds, k, members(g), g.output);
+  }
+
+  // List the members of a group, in the order in which they were first seen
+  private List members (Group g) {
+    List ret = new LinkedList();
+    for (Iterator i = g.members.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry e = (Map.Entry) i.next();
+      ret.add(member((CompoundKey) e.getKey(), (Map) e.getValue()));
     }
     return ret;
   }
@@ -0,0 +1,427 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ *  A ResultSetStore meant for very large result sets.  Rather than keeping a
+ *  key object and a value map for every atom, it keeps, for each agent, one
+ *  int array per identifier and per value name (i.e., a column), in which
+ *  each atom occupies one position (i.e., a row).  The ints are codes in a
+ *  dictionary shared by all of the agents, so that each distinct identifier
+ *  or value is stored only once.  Dictionary entries are reference counted
+ *  and discarded when no longer in use.
+ *  <br><br>
+ *  Rows are located by an open-addressed hash table over the identifier
+ *  codes, so finding an atom's row creates no objects.  Atoms reported by
+ *  getAtoms() are reconstructed from the columns on demand.
+ */
+public class ColumnarResultSetStore implements ResultSetStore {
+  private static final int NONE = -1;
+
+  private String[] idNames = null;
+  private Dictionary dict = new Dictionary();
+  private Map segments = new HashMap();
+  private transient int[] probe = null;
+
+  public void update (String agentId, ResultSetDataAtom atom) {
+    if (idNames == null) {
+      List l = new ArrayList();
+      for (Iterator i = atom.getIdentifierNames(); i.hasNext(); )
+        l.add(i.next());
+      idNames = (String[]) l.toArray(new String[l.size()]);
+    }
+
+    Segment seg = (Segment) segments.get(agentId);
+    if (seg == null)
+      segments.put(agentId, seg = new Segment(idNames.length));
+
+    int row = NONE;
+    if (findIdCodes(atom))
+      row = seg.find(probe);
+    if (row == NONE) {
+      int[] codes = new int[idNames.length];
+      for (int i = 0; i < idNames.length; i++)
+        codes[i] = dict.acquire(atom.getIdentifier(idNames[i]));
+      row = seg.append(codes);
+    }
+    seg.setValues(row, atom.getValueMap());
+  }
+
+  public ResultSetDataAtom patch (String agentId, ResultSetDataAtom patch) {
+    Segment seg = (Segment) segments.get(agentId);
+    if (seg == null || !findIdCodes(patch))
+      return null;
+    int row = seg.find(probe);
+    if (row == NONE)
+      return null;
+    seg.patchValues(row, patch.getValueMap());
+    return seg.getAtom(row);
+  }
+
+  public void remove (String agentId, ResultSetDataAtom atom) {
+    Segment seg = (Segment) segments.get(agentId);
+    if (seg != null && findIdCodes(atom)) {
+      int row = seg.find(probe);
+      if (row != NONE)
+        seg.delete(row);
+    }
+  }
+
+  public void removeAll (String agentId) {
+    Segment seg = (Segment) segments.get(agentId);
+    if (seg != null) {
+      seg.releaseAll();
+      segments.put(agentId, new Segment(idNames.length));
+    }
+  }
+
+  public void removeAgent (String agentId) {
+    Segment seg = (Segment) segments.remove(agentId);
+    if (seg != null)
+      seg.releaseAll();
+  }
+
+  public void clear () {
+    segments.clear();
+    dict = new Dictionary();
+  }
+
+  public Collection getAgents () {
+    return segments.keySet();
+  }
+
+  public Iterator getAtoms (String agentId) {
+    Segment seg = (Segment) segments.get(agentId);
+    if (seg == null)
+      return Collections.EMPTY_LIST.iterator();
+    return seg.new AtomIterator();
+  }
+
+  // Look up the codes of the atom's identifiers and place them in the probe
+  // array.  Returns false if any is absent from the dictionary, in which case
+  // the atom cannot be in the store.
+  private boolean findIdCodes (ResultSetDataAtom atom) {
+    if (idNames == null)
+      return false;
+    if (probe == null || probe.length != idNames.length)
+      probe = new int[idNames.length];
+    for (int i = 0; i < idNames.length; i++) {
+      Object id = atom.getIdentifier(idNames[i]);
+      if (id != null && (probe[i] = dict.find(id)) == NONE)
+        return false;
+      else if (id == null)
+        probe[i] = NONE;
+    }
+    return true;
+  }
+
+  // A table of distinct Objects, each with an int code and reference count.
+  // The codes of discarded entries are recycled.
+  private static class Dictionary implements Serializable {
+    private Map codes = new HashMap();
+    private Object[] entries = new Object[256];
+    private int[] refs = new int[256];
+    private int size = 0;
+    private int[] free = new int[64];
+    private int freeCount = 0;
+
+    public int find (Object o) {
+      Integer c = (Integer) codes.get(o);
+      return c == null ? NONE : c.intValue();
+    }
+
+    public Object get (int code) {
+      return code == NONE ? null : entries[code];
+    }
+
+    public int acquire (Object o) {
+      if (o == null)
+        return NONE;
+
+      int code;
+      Integer c = (Integer) codes.get(o);
+      if (c != null) {
+        code = c.intValue();
+      }
+      else {
+        if (freeCount > 0) {
+          code = free[--freeCount];
+        }
+        else {
+          if (size == entries.length) {
+            entries = grow(entries, size * 2);
+            refs = grow(refs, size * 2, 0);
+          }
+          code = size++;
+        }
+        entries[code] = o;
+        codes.put(o, new Integer(code));
+      }
+      refs[code]++;
+      return code;
+    }
+
+    public void release (int code) {
+      if (code != NONE && --refs[code] == 0) {
+        codes.remove(entries[code]);
+        entries[code] = null;
+        if (freeCount == free.length)
+          free = grow(free, freeCount * 2, 0);
+        free[freeCount++] = code;
+      }
+    }
+  }
+
+  // The atoms reported by a single agent
+  private class Segment implements Serializable {
+    private int rows = 0;
+    private int capacity = 16;
+    private int[][] ids;
+
+    private List valueNames = new ArrayList();
+    private Map valueIndex = new HashMap();
+    private int[][] values = new int[0][];
+
+    // hash table of row indices; an empty slot is zero, a deleted slot is
+    // TOMBSTONE, and any other slot holds one more than a row index
+    private static final int TOMBSTONE = -1;
+    private int[] slots = new int[32];
+    private int slotsUsed = 0;
+
+    public Segment (int idCount) {
+      ids = new int[idCount][];
+      for (int i = 0; i < idCount; i++)
+        ids[i] = new int[capacity];
+    }
+
+    private int hash (int[] codes) {
+      int h = 1;
+      for (int i = 0; i < codes.length; i++)
+        h = 31 * h + codes[i];
+      return h ^ (h >>> 16);
+    }
+
+    private int rowHash (int row) {
+      int h = 1;
+      for (int i = 0; i < ids.length; i++)
+        h = 31 * h + ids[i][row];
+      return h ^ (h >>> 16);
+    }
+
+    private boolean rowMatches (int row, int[] codes) {
+      for (int i = 0; i < ids.length; i++)
+        if (ids[i][row] != codes[i])
+          return false;
+      return true;
+    }
+
+    // find the slot pointing to the row with the given id codes, if any
+    private int findSlot (int[] codes) {
+      int mask = slots.length - 1;
+      for (int i = hash(codes) & mask; ; i = (i + 1) & mask) {
+        int s = slots[i];
+        if (s == 0)
+          return NONE;
+        if (s != TOMBSTONE && rowMatches(s - 1, codes))
+          return i;
+      }
+    }
+
+    // find the slot pointing to a particular row
+    private int findRowSlot (int row) {
+      int mask = slots.length - 1;
+      for (int i = rowHash(row) & mask; ; i = (i + 1) & mask)
+        if (slots[i] == row + 1)
+          return i;
+    }
+
+    public int find (int[] codes) {
+      int slot = findSlot(codes);
+      return slot == NONE ? NONE : slots[slot] - 1;
+    }
+
+    public int append (int[] codes) {
+      if (rows == capacity) {
+        capacity *= 2;
+        for (int i = 0; i < ids.length; i++)
+          ids[i] = grow(ids[i], capacity, 0);
+        for (int i = 0; i < values.length; i++)
+          values[i] = grow(values[i], capacity, NONE);
+      }
+      if (2 * (slotsUsed + 1) > slots.length)
+        rehash();
+
+      int row = rows++;
+      for (int i = 0; i < ids.length; i++)
+        ids[i][row] = codes[i];
+      for (int i = 0; i < values.length; i++)
+        values[i][row] = NONE;
+      insertSlot(row);
+      return row;
+    }
+
+    private void insertSlot (int row) {
+      int mask = slots.length - 1;
+      int i = rowHash(row) & mask;
+      while (slots[i] > 0)
+        i = (i + 1) & mask;
+      if (slots[i] == 0)
+        slotsUsed++;
+      slots[i] = row + 1;
+    }
+
+    private void rehash () {
+      int n = 32;
+      while (n < 4 * (rows + 1))
+        n *= 2;
+      slots = new int[n];
+      slotsUsed = 0;
+      for (int row = 0; row < rows; row++)
+        insertSlot(row);
+    }
+
+    // add a column for each value name not yet seen
+    private void addColumns (Map vals) {
+      for (Iterator i = vals.keySet().iterator(); i.hasNext(); ) {
+        Object name = i.next();
+        if (!valueIndex.containsKey(name)) {
+          valueIndex.put(name, new Integer(valueNames.size()));
+          valueNames.add(name);
+          int[][] v = new int[values.length + 1][];
+          System.arraycopy(values, 0, v, 0, values.length);
+          v[values.length] = grow(new int[0], capacity, NONE);
+          values = v;
+        }
+      }
+    }
+
+    public void setValues (int row, Map vals) {
+      addColumns(vals);
+      for (int i = 0; i < values.length; i++) {
+        int old = values[i][row];
+        values[i][row] = dict.acquire(vals.get(valueNames.get(i)));
+        dict.release(old);
+      }
+    }
+
+    // set only the values named in the map, leaving the others alone
+    public void patchValues (int row, Map vals) {
+      addColumns(vals);
+      for (Iterator i = vals.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        int col = ((Integer) valueIndex.get(e.getKey())).intValue();
+        int old = values[col][row];
+        values[col][row] = dict.acquire(e.getValue());
+        dict.release(old);
+      }
+    }
+
+    public void delete (int row) {
+      for (int i = 0; i < ids.length; i++)
+        dict.release(ids[i][row]);
+      for (int i = 0; i < values.length; i++)
+        dict.release(values[i][row]);
+      slots[findRowSlot(row)] = TOMBSTONE;
+
+      // fill the gap with the last row
+      int last = rows - 1;
+      if (row != last) {
+        slots[findRowSlot(last)] = row + 1;
+        for (int i = 0; i < ids.length; i++)
+          ids[i][row] = ids[i][last];
+        for (int i = 0; i < values.length; i++)
+          values[i][row] = values[i][last];
+      }
+      rows--;
+    }
+
+    public void releaseAll () {
+      for (int row = 0; row < rows; row++) {
+        for (int i = 0; i < ids.length; i++)
+          dict.release(ids[i][row]);
+        for (int i = 0; i < values.length; i++)
+          dict.release(values[i][row]);
+      }
+      rows = 0;
+    }
+
+    public ResultSetDataAtom getAtom (int row) {
+      ResultSetDataAtom ret = new ResultSetDataAtom();
+      for (int i = 0; i < ids.length; i++)
+        ret.addIdentifier(idNames[i], dict.get(ids[i][row]));
+      for (int i = 0; i < values.length; i++) {
+        int code = values[i][row];
+        if (code != NONE)
+          ret.addValue(valueNames.get(i), dict.get(code));
+      }
+      return ret;
+    }
+
+    private class AtomIterator implements Iterator {
+      private int next = 0;
+
+      public boolean hasNext () {
+        return next < rows;
+      }
+
+      public Object next () {
+        if (next >= rows)
+          throw new NoSuchElementException();
+        return getAtom(next++);
+      }
+
+      public void remove () {
+        throw new UnsupportedOperationException();
+      }
+    }
+  }
+
+  private static Object[] grow (Object[] a, int n) {
+    Object[] ret = new Object[n];
+    System.arraycopy(a, 0, ret, 0, a.length);
+    return ret;
+  }
+
+  private static int[] grow (int[] a, int n, int fill) {
+    int[] ret = new int[n];
+    System.arraycopy(a, 0, ret, 0, a.length);
+    if (fill != 0)
+      for (int i = a.length; i < n; i++)
+        ret[i] = fill;
+    return ret;
+  }
+}
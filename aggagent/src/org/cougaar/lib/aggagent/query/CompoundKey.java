@@ -27,55 +27,137 @@
 package org.cougaar.lib.aggagent.query;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.WeakHashMap;
+
+/**
+ *  A CompoundKey is an ordered series of Strings used to identify a data atom
+ *  or a class of data atoms.  A 64-bit hash over the component Strings is
+ *  computed once, when the key is formed, and is used for both hashCode() and
+ *  a quick rejection of unequal keys in equals().
+ *  <br><br>
+ *  For looking up keys in tables without creating new ones, see ProbeKey.
+ */
 public class CompoundKey implements Serializable {
+  private static final long FNV_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
   private String[] keys = null;
-  private String stringVal = null;
+  private long hash = 0;
+  private transient String stringVal = null;
 
   public CompoundKey (String[] k) {
     keys = new String[k.length];
     System.arraycopy(k, 0, keys, 0, k.length);
-    makeStringVal();
+    makeHash();
   }
 
   public CompoundKey (List l, Map m) {
     keys = new String[l.size()];
+    load(l, m);
+  }
+
+  // for use by subclasses that supply their own components
+  CompoundKey () {
+    keys = new String[0];
+  }
+
+  /**
+   *  Replace the components of this key with the values in Map m of the
+   *  names in List l.  The key array is reused if it is the right size.
+   */
+  void load (List l, Map m) {
+    if (keys.length != l.size())
+      keys = new String[l.size()];
     Iterator i = l.iterator();
     for (int j = 0; i.hasNext(); j++)
       keys[j] = m.get(i.next()).toString();
+    makeHash();
+  }
+
+  /**
+   *  Replace the components of this key with all of the values in Map m, in
+   *  the order in which the Map presents them.
+   */
+  void loadAll (Map m) {
+    if (keys.length != m.size())
+      keys = new String[m.size()];
+    Iterator i = m.values().iterator();
+    for (int j = 0; i.hasNext(); j++)
+      keys[j] = i.next().toString();
+    makeHash();
+  }
 
-    makeStringVal();
+  /**
+   *  Create an immutable copy of this key, whose components are canonical
+   *  instances shared with other keys created in this way.  Keys that are to
+   *  be retained in tables for a long time should be made by this method.
+   */
+  public CompoundKey toInternedKey () {
+    CompoundKey ret = new CompoundKey();
+    ret.keys = new String[keys.length];
+    for (int i = 0; i < keys.length; i++)
+      ret.keys[i] = intern(keys[i]);
+    ret.hash = hash;
+    return ret;
   }
 
-  private void makeStringVal () {
-    StringBuffer buf = new StringBuffer();
+  private void makeHash () {
+    long h = FNV_BASIS;
     for (int i = 0; i < keys.length; i++) {
-      buf.append("#");
-      buf.append(keys[i]);
+      String s = keys[i];
+      for (int j = 0; j < s.length(); j++) {
+        h ^= s.charAt(j);
+        h *= FNV_PRIME;
+      }
+      // separate the components, so that ("ab", "c") differs from ("a", "bc")
+      h ^= 0xff;
+      h *= FNV_PRIME;
     }
-    stringVal = buf.toString();
+    hash = h;
+    stringVal = null;
+  }
+
+  /**
+   *  Provide the full 64-bit hash of this key.
+   */
+  public long longHashCode () {
+    return hash;
   }
 
   public String toString () {
+    if (stringVal == null) {
+      StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < keys.length; i++) {
+        buf.append("#");
+        buf.append(keys[i]);
+      }
+      stringVal = buf.toString();
+    }
     return stringVal;
   }
 
   public int hashCode () {
-    return stringVal.hashCode();
+    return (int) (hash ^ (hash >>> 32));
   }
 
   public boolean equals (Object obj) {
+    if (obj == this)
+      return true;
     CompoundKey other = null;
     if (obj instanceof CompoundKey &&
-        (other = (CompoundKey) obj).keys.length == keys.length)
+        (other = (CompoundKey) obj).hash == hash &&
+        other.keys.length == keys.length)
     {
-      for (int i = 0; i < keys.length; i++)
-        if (!keys[i].equals(other.keys[i]))
+      for (int i = 0; i < keys.length; i++) {
+        String a = keys[i];
+        String b = other.keys[i];
+        if (a != b && !a.equals(b))
           return false;
-
+      }
       return true;
     }
     return false;
@@ -99,4 +181,19 @@ public class CompoundKey implements Serializable {
     public void remove () {
     }
   }
+
+  // - - - - - - - Component Interning - - - - - - - - - - - - - - - - - - - -
+
+  // canonical instances of key components, discarded when no longer in use
+  private static final Map canon = new WeakHashMap();
+
+  private static String intern (String s) {
+    synchronized (canon) {
+      WeakReference ref = (WeakReference) canon.get(s);
+      String ret = (ref == null ? null : (String) ref.get());
+      if (ret == null)
+        canon.put(ret = s, new WeakReference(s));
+      return ret;
+    }
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ *  A built-in melder that reports the number of data atoms in each group.
+ *  Since every atom is counted, the "valueName" property is not used.  The
+ *  result is reported as "count" unless configured otherwise.
+ */
+public class CountMelder extends IncrementalMelder
+    implements MergeableMelder
+{
+  private static class State implements Serializable {
+    public int count = 0;
+  }
+
+  protected String getDefaultResultName () {
+    return "count";
+  }
+
+  public Object createGroupState () {
+    return new State();
+  }
+
+  public void accumulate (Object state, ResultSetDataAtom atom) {
+    ((State) state).count++;
+  }
+
+  public void retract (Object state, ResultSetDataAtom atom) {
+    ((State) state).count--;
+  }
+
+  public void producePartial (
+      List idNames, CompoundKey id, Object state, List output)
+  {
+    addPartial(idNames, id, output).addValue(
+      "partial_count", String.valueOf(((State) state).count));
+  }
+
+  public void merge (Object state, ResultSetDataAtom partial) {
+    ((State) state).count += (int) getPartialNumber(partial, "partial_count");
+  }
+
+  public void unmerge (Object state, ResultSetDataAtom partial) {
+    ((State) state).count -= (int) getPartialNumber(partial, "partial_count");
+  }
+
+  protected Object getResult (Object state) {
+    return String.valueOf(((State) state).count);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ *  ExtremumMelder is the common base of MinMelder and MaxMelder.  In order
+ *  that an extreme value can be retracted, the state of each group records
+ *  every value present in the group along with the number of atoms bearing
+ *  it.  Groups with no numeric values produce no result.
+ *  <br><br>
+ *  A partial atom carries only the extreme value of its group, since that is
+ *  all that can contribute to the extreme value of the whole.  The merged
+ *  state thus counts the partials bearing each value.
+ */
+public abstract class ExtremumMelder extends IncrementalMelder
+    implements MergeableMelder
+{
+  private static class State implements Serializable {
+    public SortedMap counts = new TreeMap();
+  }
+
+  private static class Counter implements Serializable {
+    public int n = 0;
+  }
+
+  /**
+   *  Choose the reported value from the nonempty set of values in a group.
+   */
+  protected abstract Double select (SortedMap counts);
+
+  public Object createGroupState () {
+    return new State();
+  }
+
+  public void accumulate (Object state, ResultSetDataAtom atom) {
+    add(state, getNumber(atom));
+  }
+
+  public void retract (Object state, ResultSetDataAtom atom) {
+    subtract(state, getNumber(atom));
+  }
+
+  public void producePartial (
+      List idNames, CompoundKey id, Object state, List output)
+  {
+    SortedMap counts = ((State) state).counts;
+    if (!counts.isEmpty())
+      addPartial(idNames, id, output).addValue(
+        "partial_value", String.valueOf(select(counts)));
+  }
+
+  public void merge (Object state, ResultSetDataAtom partial) {
+    add(state, getPartialValue(partial));
+  }
+
+  public void unmerge (Object state, ResultSetDataAtom partial) {
+    subtract(state, getPartialValue(partial));
+  }
+
+  private static double getPartialValue (ResultSetDataAtom partial) {
+    if (partial.getValue("partial_value") == null)
+      return Double.NaN;
+    return getPartialNumber(partial, "partial_value");
+  }
+
+  private static void add (Object state, double d) {
+    if (!Double.isNaN(d)) {
+      SortedMap counts = ((State) state).counts;
+      Double key = new Double(d);
+      Counter c = (Counter) counts.get(key);
+      if (c == null)
+        counts.put(key, c = new Counter());
+      c.n++;
+    }
+  }
+
+  private static void subtract (Object state, double d) {
+    if (!Double.isNaN(d)) {
+      SortedMap counts = ((State) state).counts;
+      Double key = new Double(d);
+      Counter c = (Counter) counts.get(key);
+      if (c != null && --c.n <= 0)
+        counts.remove(key);
+    }
+  }
+
+  protected Object getResult (Object state) {
+    SortedMap counts = ((State) state).counts;
+    if (counts.isEmpty())
+      return null;
+    return formatNumber(select(counts).doubleValue());
+  }
+}
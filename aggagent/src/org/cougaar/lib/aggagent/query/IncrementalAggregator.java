@@ -0,0 +1,75 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ *  An IncrementalAggregator maintains a running summary for each affinity
+ *  class (or "group") of atoms collated by a BatchAggregator (q.v.).  Rather
+ *  than examining every member of a group each time the group changes, it is
+ *  told which atoms have joined the group (accumulate) and which have left it
+ *  (retract).  The running summary is kept in a state Object created and
+ *  interpreted only by the implementation.
+ *  <br><br>
+ *  A DataAtomMelder that also implements this interface is driven
+ *  incrementally by BatchAggregator, which then re-melds only those groups
+ *  touched by an UpdateDelta.
+ */
+public interface IncrementalAggregator extends Serializable {
+  /**
+   *  Create the state for a new, empty group.  The state is retained by the
+   *  caller and handed back in calls to the other methods.  It should be
+   *  Serializable if the aggregation is to survive persistence.
+   */
+  public Object createGroupState ();
+
+  /**
+   *  Fold a data atom into the summary of a group.
+   */
+  public void accumulate (Object state, ResultSetDataAtom atom);
+
+  /**
+   *  Remove the contribution of a data atom previously accumulated into the
+   *  summary of a group.
+   */
+  public void retract (Object state, ResultSetDataAtom atom);
+
+  /**
+   *  Produce the aggregated atom(s) for a group from its current state.  The
+   *  semantics are those of DataAtomMelder.meld(), q.v.
+   *
+   *  @param idNames a list of names, in order of appearance, of the id values
+   *    found in the id key
+   *  @param id the compound id key values associated with the group
+   *  @param state the running summary of the group
+   *  @param output a List into which the produced ResultSetDataAtoms should be
+   *    placed
+   */
+  public void produce (List idNames, CompoundKey id, Object state, List output);
+}
@@ -0,0 +1,169 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ *  IncrementalMelder is a base class for the built-in numeric melders, which
+ *  can be used either as plain DataAtomMelders or incrementally through the
+ *  IncrementalAggregator interface.  Each examines one value of the data
+ *  atoms (named by the "valueName" property, "value" by default) and reports
+ *  its summary under the name given by the "resultName" property.  Values
+ *  that cannot be read as numbers are ignored.
+ *  <br><br>
+ *  These classes are meant to be named in a Java aggregator ScriptSpec, e.g.:
+ *  <pre>
+ *    &lt;aggregator language="Java" type="Melder" aggIds="item"&gt;
+ *      &lt;class&gt;org.cougaar.lib.aggagent.query.SumMelder&lt;/class&gt;
+ *      &lt;param name="valueName"&gt;quantity&lt;/param&gt;
+ *    &lt;/aggregator&gt;
+ *  </pre>
+ *  The built-in subclasses are also MergeableMelders, so that a query may
+ *  have its aggregation begun at the source agents.  Their partial atoms
+ *  carry the summary state in values named "partial_total", "partial_count",
+ *  and "partial_value".
+ */
+public abstract class IncrementalMelder
+    implements DataAtomMelder, IncrementalAggregator
+{
+  private String valueName = "value";
+  private String resultName = null;
+
+  /**
+   *  Specify the name of the data atom value to be summarized.
+   */
+  public void setValueName (String s) {
+    valueName = s;
+  }
+
+  public String getValueName () {
+    return valueName;
+  }
+
+  /**
+   *  Specify the name under which the summary is reported in the aggregated
+   *  data atoms.  By default, a name appropriate to the melder is used.
+   */
+  public void setResultName (String s) {
+    resultName = s;
+  }
+
+  public String getResultName () {
+    if (resultName == null)
+      return getDefaultResultName();
+    return resultName;
+  }
+
+  /**
+   *  Provide the name of the reported summary when none is configured.
+   */
+  protected abstract String getDefaultResultName ();
+
+  /**
+   *  Derive the reported summary from the state of a group.  If the result is
+   *  null, then no atom is produced for the group.
+   */
+  protected abstract Object getResult (Object state);
+
+  /**
+   *  Meld a group of atoms all at once by accumulating them into a new state.
+   */
+  public void meld (List idNames, CompoundKey id, List atoms, List output) {
+    Object state = createGroupState();
+    for (Iterator i = atoms.iterator(); i.hasNext(); )
+      accumulate(state, (ResultSetDataAtom) i.next());
+    produce(idNames, id, state, output);
+  }
+
+  public void produce (List idNames, CompoundKey id, Object state, List output)
+  {
+    Object result = getResult(state);
+    if (result != null) {
+      ResultSetDataAtom atom = new ResultSetDataAtom(idNames, id);
+      atom.addValue(getResultName(), result);
+      output.add(atom);
+    }
+  }
+
+  /**
+   *  Create an empty partial atom for a group and append it to the output
+   *  list.  The caller is expected to fill in the values.
+   */
+  protected static ResultSetDataAtom addPartial (
+      List idNames, CompoundKey id, List output)
+  {
+    ResultSetDataAtom atom = new ResultSetDataAtom(idNames, id);
+    output.add(atom);
+    return atom;
+  }
+
+  /**
+   *  Read a number recorded in a partial atom.  If there is no such value, or
+   *  it is not a number, then zero is returned.
+   */
+  protected static double getPartialNumber (ResultSetDataAtom p, String name) {
+    Object val = p.getValue(name);
+    if (val != null) {
+      try {
+        return Double.parseDouble(val.toString().trim());
+      }
+      catch (NumberFormatException nfe) {
+      }
+    }
+    return 0.0;
+  }
+
+  /**
+   *  Find the summarized value of a data atom in numeric form.  If there is
+   *  no such value, or it is not a number, then NaN is returned.
+   */
+  protected double getNumber (ResultSetDataAtom atom) {
+    Object val = atom.getValue(valueName);
+    if (val instanceof Number)
+      return ((Number) val).doubleValue();
+    if (val != null) {
+      try {
+        return Double.parseDouble(val.toString().trim());
+      }
+      catch (NumberFormatException nfe) {
+      }
+    }
+    return Double.NaN;
+  }
+
+  /**
+   *  Render a numeric result.  Whole numbers are shown without a fractional
+   *  part, in keeping with the integer values commonly found in data atoms.
+   */
+  protected static String formatNumber (double d) {
+    if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e15)
+      return String.valueOf((long) d);
+    return String.valueOf(d);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  The default ResultSetStore, which keeps a table for each agent mapping
+ *  CompoundKeys to the value maps of the atoms.  The value maps are shared
+ *  with the atoms stored and with those reported, and so are never modified
+ *  once stored; a patch replaces the map with a patched copy.  Tables are
+ *  searched with a ProbeKey, so that a new key is created only when a new
+ *  atom is stored.
+ */
+public class MapResultSetStore implements ResultSetStore {
+  private List idNames = new LinkedList();
+  private boolean firstUpdate = true;
+  private Map clusterTable = new HashMap();
+  private transient ProbeKey probe = null;
+
+  private ProbeKey probe (ResultSetDataAtom atom) {
+    if (probe == null)
+      probe = new ProbeKey();
+    return probe.set(idNames, atom);
+  }
+
+  public void update (String agentId, ResultSetDataAtom atom) {
+    if (firstUpdate) {
+      firstUpdate = false;
+      for (Iterator i = atom.getIdentifierNames(); i.hasNext(); )
+        idNames.add(i.next());
+    }
+
+    Map data = (Map) clusterTable.get(agentId);
+    if (data == null)
+      clusterTable.put(agentId, data = new HashMap());
+
+    ProbeKey k = probe(atom);
+    if (data.containsKey(k))
+      data.put(k, atom.getValueMap());
+    else
+      data.put(k.toInternedKey(), atom.getValueMap());
+  }
+
+  public ResultSetDataAtom patch (String agentId, ResultSetDataAtom patch) {
+    Map data = (Map) clusterTable.get(agentId);
+    if (data == null)
+      return null;
+    ProbeKey k = probe(patch);
+    Map old = (Map) data.get(k);
+    if (old == null)
+      return null;
+
+    // the value map is replaced rather than changed, since atoms reported
+    // earlier (and any aggregator holding them) still share the old one
+    Map values = new HashMap(old);
+    values.putAll(patch.getValueMap());
+    data.put(k, values);
+    ResultSetDataAtom ret = new ResultSetDataAtom();
+    for (Iterator i = idNames.iterator(); i.hasNext(); ) {
+      Object name = i.next();
+      ret.addIdentifier(name, patch.getIdentifier(name));
+    }
+    ret.setValueMap(values);
+    return ret;
+  }
+
+  public void remove (String agentId, ResultSetDataAtom atom) {
+    Map data = (Map) clusterTable.get(agentId);
+    if (data != null)
+      data.remove(probe(atom));
+  }
+
+  public void removeAll (String agentId) {
+    Map table = (Map) clusterTable.get(agentId);
+    if (table != null)
+      table.clear();
+  }
+
+  public void removeAgent (String agentId) {
+    clusterTable.remove(agentId);
+  }
+
+  public void clear () {
+    clusterTable.clear();
+  }
+
+  public Collection getAgents () {
+    return clusterTable.keySet();
+  }
+
+  public Iterator getAtoms (String agentId) {
+    Map data = (Map) clusterTable.get(agentId);
+    if (data == null)
+      return Collections.EMPTY_LIST.iterator();
+    return new AtomIterator(data.entrySet().iterator());
+  }
+
+  private class AtomIterator implements Iterator {
+    private Iterator entries;
+
+    public AtomIterator (Iterator i) {
+      entries = i;
+    }
+
+    public boolean hasNext () {
+      return entries.hasNext();
+    }
+
+    public Object next () {
+      Map.Entry e = (Map.Entry) entries.next();
+      return new ResultSetDataAtom(
+        idNames, (CompoundKey) e.getKey(), (Map) e.getValue());
+    }
+
+    public void remove () {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.List;
+
+/**
+ *  A MergeableMelder is an IncrementalAggregator whose group summaries can be
+ *  computed in pieces and combined.  This allows a query's aggregation to be
+ *  carried out in two stages:  each source agent melds its own atoms into
+ *  "partial" atoms, one per group, which carry enough of the summary state
+ *  for the aggregation agent to merge the partials from all of the sources
+ *  into the final result.  For count and sum style aggregation, this means
+ *  that a handful of partial atoms take the place of the raw data.
+ *  <br><br>
+ *  The contents of partial atoms are known only to the implementation, which
+ *  must be able to read the partials produced by other instances of the same
+ *  class.  BatchAggregator (q.v.) supplies the collation on both sides.
+ */
+public interface MergeableMelder extends IncrementalAggregator {
+  /**
+   *  Produce the partial atom(s) summarizing a group from its current state.
+   *  The identifiers are those of the group, as in produce().
+   *
+   *  @param idNames a list of names, in order of appearance, of the id values
+   *    found in the id key
+   *  @param id the compound id key values associated with the group
+   *  @param state the running summary of the group
+   *  @param output a List into which the partial atoms should be placed
+   */
+  public void producePartial (
+      List idNames, CompoundKey id, Object state, List output);
+
+  /**
+   *  Fold a partial atom, produced elsewhere by producePartial(), into the
+   *  summary of a group.
+   */
+  public void merge (Object state, ResultSetDataAtom partial);
+
+  /**
+   *  Remove the contribution of a partial atom previously merged into the
+   *  summary of a group.
+   */
+  public void unmerge (Object state, ResultSetDataAtom partial);
+}
@@ -0,0 +1,62 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.List;
+
+/**
+ *  A ProbeKey is a reusable, mutable CompoundKey used to look up entries in
+ *  tables keyed by CompoundKeys.  Reloading it with the identifiers of a data
+ *  atom creates no new objects (unless the number of components changes), so
+ *  it is suitable for use in loops over many atoms.
+ *  <br><br>
+ *  A ProbeKey must never be stored as a key in a table, since it may later
+ *  change; use toInternedKey() to obtain an immutable copy for that purpose.
+ *  Nor should one be shared among threads.
+ */
+public class ProbeKey extends CompoundKey {
+  public ProbeKey () {
+  }
+
+  /**
+   *  Load this key with the identifiers of a data atom named in the list.
+   *  The result is equal to atom.getKey(names).
+   */
+  public ProbeKey set (List names, ResultSetDataAtom atom) {
+    load(names, atom.getIdentifierMap());
+    return this;
+  }
+
+  /**
+   *  Load this key with all of the identifiers of a data atom, in order of
+   *  their names.
+   */
+  public ProbeKey setAll (ResultSetDataAtom atom) {
+    loadAll(atom.getIdentifierMap());
+    return this;
+  }
+}
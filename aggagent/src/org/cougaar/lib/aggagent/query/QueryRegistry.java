@@ -0,0 +1,99 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ *  A QueryRegistry maps query IDs to the QueryResultAdapters resident on an
+ *  agent's blackboard, so that a query can be found by its ID without
+ *  searching the blackboard.  One registry is shared by all the components
+ *  of an agent; it is maintained by the AggregationPlugin, which adds and
+ *  removes entries as QueryResultAdapters come and go on its subscription.
+ *  Other components should treat a missing entry as "not yet known" rather
+ *  than "not there", since the Plugin may not yet have seen a new query.
+ */
+public class QueryRegistry {
+  // the registries, keyed by agent name
+  private static Map registries = new HashMap();
+
+  /**
+   *  Find the registry shared by the components of the named agent, creating
+   *  it if necessary.
+   */
+  public static QueryRegistry forAgent (String agentName) {
+    synchronized (registries) {
+      QueryRegistry r = (QueryRegistry) registries.get(agentName);
+      if (r == null)
+        registries.put(agentName, r = new QueryRegistry());
+      return r;
+    }
+  }
+
+  private Map queries = new HashMap();
+
+  /**
+   *  Register a QueryResultAdapter under its ID.
+   */
+  public synchronized void add (QueryResultAdapter qra) {
+    queries.put(qra.getID(), qra);
+  }
+
+  /**
+   *  Unregister a QueryResultAdapter.  If another adapter has since been
+   *  registered under the same ID, that one is retained.
+   */
+  public synchronized void remove (QueryResultAdapter qra) {
+    if (queries.get(qra.getID()) == qra)
+      queries.remove(qra.getID());
+  }
+
+  /**
+   *  Find the QueryResultAdapter registered under the given ID, or null if
+   *  there is none.
+   */
+  public synchronized QueryResultAdapter get (String queryId) {
+    return (QueryResultAdapter) queries.get(queryId);
+  }
+
+  /**
+   *  Provide a snapshot of the registered QueryResultAdapters.
+   */
+  public synchronized Collection getQueries () {
+    return new LinkedList(queries.values());
+  }
+
+  /**
+   *  Forget all registered QueryResultAdapters.
+   */
+  public synchronized void clear () {
+    queries.clear();
+  }
+}
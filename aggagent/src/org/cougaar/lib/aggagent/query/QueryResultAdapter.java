@@ -38,6 +38,8 @@ import org.cougaar.core.util.UniqueObject;
 import org.cougaar.lib.aggagent.session.UpdateDelta;
 import org.cougaar.lib.aggagent.session.XmlTransferable;
 import org.cougaar.lib.aggagent.util.InverseSax;
+import org.cougaar.lib.aggagent.util.Enum.QueryType;
+import org.cougaar.lib.aggagent.util.Enum.StoreType;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -47,6 +49,8 @@ import org.w3c.dom.NodeList;
 public class QueryResultAdapter implements XmlTransferable, Serializable, UniqueObject {
     public static String QUERY_RESULT_TAG = "query_result_adapter";
     public static String ID_ATT = "id";
+    public static String QUERY_COMPLETE_TAG = "query_complete";
+    public static String MISSING_CLUSTER_TAG = "cluster_id";
 
     private static int uniqueIdCounter = 0;
     private String id = null;
@@ -59,6 +63,7 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
 
     private Aggregator agg;
     private AggregationResultSet aggResultSet;
+    private boolean fullAggregationNeeded = true;
 
     /**
      *  Create a QueryResultAdapter to contain a particular query.  At the
@@ -74,7 +79,7 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
     {
       id = String.valueOf(uniqueIdCounter++);
       setQuery(q);
-      setResultSet(new AggregationResultSet());
+      setResultSet(createRawResultSet(q));
       this.uid = uid;
     }
 
@@ -109,7 +114,18 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
       this.id = id;
       this.uid = uid;
       setQuery(q);
-      setResultSet(new AggregationResultSet());
+      setResultSet(createRawResultSet(q));
+    }
+
+    /**
+     *  Create an empty result set for the raw results of a query, using the
+     *  kind of storage requested by the query.
+     */
+    private static AggregationResultSet createRawResultSet (AggregationQuery q)
+    {
+      if (StoreType.COLUMNAR.equals(q.getStoreType()))
+        return new AggregationResultSet(new ColumnarResultSetStore());
+      return new AggregationResultSet();
     }
 
     private void setQuery (AggregationQuery q) {
@@ -118,6 +134,12 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
       try {
         if (aggSpec != null) {
           agg = aggSpec.toAggregator();
+          // persistent queries' sources send partials if the melder allows
+          if (aQuery.getCombine() &&
+              aQuery.getType() == QueryType.PERSISTENT &&
+              agg instanceof BatchAggregator &&
+              ((BatchAggregator) agg).isMergeable())
+            ((BatchAggregator) agg).setMergePartials(true);
           setAggResultSet(new AggregationResultSet());
         }
         else {
@@ -129,8 +151,45 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
       }
     }
 
+    /**
+     *  Arrange for the aggregated result set to hold partial atoms rather than
+     *  finished ones, as is appropriate for a query delegated by a higher
+     *  level aggregation agent (see AggregationQuery.addDelegate()).  This has
+     *  effect only if the query's sources are sending partials, i.e., if the
+     *  query is combined and its melder is mergeable.
+     */
+    public void setPartialOutput () {
+      if (isMergingPartials())
+        ((BatchAggregator) agg).setProducePartials(true);
+    }
+
+    /**
+     *  Tell whether the query's sources are sending partial atoms to be
+     *  merged here, i.e., whether the query is persistent and combined, and
+     *  its melder is mergeable.  Only such a query may be delegated to
+     *  another aggregation agent (see AggregationQuery.addDelegate()).
+     */
+    public boolean isMergingPartials () {
+      return agg instanceof BatchAggregator &&
+        ((BatchAggregator) agg).isMergingPartials();
+    }
+
     public void updateResults (UpdateDelta delta) {
       rawResultSet.incrementalUpdate(delta);
+      if (agg instanceof BatchAggregator && !fullAggregationNeeded &&
+          !delta.isReplacement())
+        aggregate(delta);
+      else
+        aggregate();
+    }
+
+    /**
+     *  Reinstate the raw results from a series of UpdateDeltas, such as those
+     *  kept in a checkpoint, and aggregate them once all have been applied.
+     */
+    public void restoreResults (Iterator deltas) {
+      while (deltas.hasNext())
+        rawResultSet.incrementalUpdate((UpdateDelta) deltas.next());
       aggregate();
     }
 
@@ -177,6 +236,7 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
           rawResultSet.removeClusterId(clusterId);
         if (aggResultSet != null)
           aggResultSet.removeClusterId(clusterId);
+        fullAggregationNeeded = true;
       }
     }
 
@@ -215,16 +275,39 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
     private void aggregate () {
       if (agg != null) {
         List atoms = new LinkedList();
+        fullAggregationNeeded = false;
         try {
           agg.aggregate(rawResultSet.getAllAtoms(), atoms);
         }
         catch (Exception eek) {
           eek.printStackTrace();
+          fullAggregationNeeded = true;
         }
         aggResultSet.replaceAggregated(atoms);
       }
     }
 
+    /**
+     *  Bring the aggregated result set up to date with the changes described
+     *  by an UpdateDelta, which has already been applied to the raw result
+     *  set.  Only those parts of the aggregated result set affected by the
+     *  delta are recomputed.  Should that fail, the entire raw result set is
+     *  aggregated instead.
+     */
+    private void aggregate (UpdateDelta delta) {
+      List retired = new LinkedList();
+      List produced = new LinkedList();
+      try {
+        ((BatchAggregator) agg).update(delta, retired, produced);
+      }
+      catch (Exception eek) {
+        eek.printStackTrace();
+        aggregate();
+        return;
+      }
+      aggResultSet.updateAggregated(retired, produced);
+    }
+
     public boolean allClustersResponded() {
       if (rawResultSet == null)
         return false;
@@ -247,6 +330,9 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
         alerts.add(a);
       }
       a.setQueryAdapter(this);
+      AggregationResultSet rs = getResultSet();
+      if (rs != null)
+        rs.setTrackChanges(true);
     }
 
     /**
@@ -355,7 +441,7 @@ public class QueryResultAdapter implements XmlTransferable, Serializable, Unique
       doc.addAttribute(ID_ATT, id);
       aQuery.includeXml(doc);
       getResultSet().includeXml(doc);
-      for (Iterator i = alerts.iterator(); i.hasNext(); )
+      for (Iterator i = getAlerts(); i.hasNext(); )
         (new AlertDescriptor((Alert) i.next())).includeXml(doc);
       doc.endElement();
     }
@@ -0,0 +1,278 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.cougaar.lib.aggagent.session.XmlTransferable;
+import org.cougaar.lib.aggagent.util.InverseSax;
+import org.cougaar.lib.aggagent.util.XmlUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ *  A ResultSetChanges describes the changes made to an AggregationResultSet
+ *  between two of its versions, as a list of the data atoms inserted and
+ *  removed, in order.  When the changes are too many or too sweeping to be
+ *  listed (as when the result set is replaced wholesale), the description is
+ *  marked "full", and the interested party should examine the entire result
+ *  set instead.
+ *  <br><br>
+ *  A ResultSetChanges obtained from AggregationResultSet.getChangesSince can
+ *  be sent to a remote copy of the result set in XML form and applied there
+ *  (see AggregationResultSet.applyChanges).  It then also carries the
+ *  exceptions reported to the result set.
+ */
+public class ResultSetChanges implements XmlTransferable {
+  public static String RESULT_SET_CHANGES_TAG = "result_set_changes";
+  private static String FROM_ATT = "from";
+  private static String TO_ATT = "to";
+  private static String UPDATE_TAG = "update";
+  private static String REMOVE_TAG = "remove";
+  private static String CLUSTER_ATT = "cluster";
+
+  /**
+   *  One change to a result set:  the insertion (or replacement) or removal
+   *  of a data atom reported by a particular agent.
+   */
+  public static class Change {
+    private String agentId = null;
+    private ResultSetDataAtom atom = null;
+    private boolean removal = false;
+    private long version = 0;
+
+    public Change (String agentId, ResultSetDataAtom atom, boolean removal) {
+      this.agentId = agentId;
+      this.atom = atom;
+      this.removal = removal;
+    }
+
+    Change (String agentId, ResultSetDataAtom atom, boolean removal,
+        long version)
+    {
+      this(agentId, atom, removal);
+      this.version = version;
+    }
+
+    public String getAgentId () {
+      return agentId;
+    }
+
+    public ResultSetDataAtom getAtom () {
+      return atom;
+    }
+
+    public boolean isRemoval () {
+      return removal;
+    }
+
+    /**
+     *  Report the version of the result set produced by this change.  This
+     *  is known only for changes recorded by the result set itself.
+     */
+    public long getVersion () {
+      return version;
+    }
+
+    /**
+     *  Identify the atom affected by this change.  The key is equal to that
+     *  given by ResultSetChanges.getKey for the same atom as found in the
+     *  result set by AggregationResultSet.getAllAtoms.
+     */
+    public Map getKey () {
+      Map key = new TreeMap(atom.getIdentifierMap());
+      key.put(AggregationResultSet.CLUSTER_IDENTIFIER, agentId);
+      return key;
+    }
+
+    /**
+     *  Give a copy of the atom affected by this change, tagged with the name
+     *  of the reporting agent as AggregationResultSet.getAllAtoms would have
+     *  it.
+     */
+    public ResultSetDataAtom getTaggedAtom () {
+      ResultSetDataAtom a = new ResultSetDataAtom(atom);
+      a.addIdentifier(AggregationResultSet.CLUSTER_IDENTIFIER, agentId);
+      return a;
+    }
+  }
+
+  private long fromVersion = 0;
+  private long toVersion = 0;
+  private boolean full = false;
+  private List changes = new LinkedList();
+  private String queryId = null;
+  private Map exceptions = Collections.EMPTY_MAP;
+
+  ResultSetChanges (long fromVersion) {
+    this.fromVersion = fromVersion;
+    toVersion = fromVersion;
+  }
+
+  /**
+   *  Create a ResultSetChanges from its XML representation.
+   */
+  public ResultSetChanges (Element root) {
+    queryId = root.getAttribute(AggregationResultSet.QUERY_ID_ATT);
+    fromVersion = Long.parseLong(root.getAttribute(FROM_ATT));
+    toVersion = Long.parseLong(root.getAttribute(TO_ATT));
+    exceptions = new HashMap();
+    NodeList nl = root.getChildNodes();
+    for (int i = 0; i < nl.getLength(); i++) {
+      Node n = nl.item(i);
+      if (!(n instanceof Element))
+        continue;
+      Element e = (Element) n;
+      String tag = e.getNodeName();
+      if (tag.equals(AggregationResultSet.EXCEPTION_TAG)) {
+        exceptions.put(e.getAttribute(AggregationResultSet.CLUSTER_ID_ATT),
+          XmlUtils.getElementText(e));
+      }
+      else if (tag.equals(UPDATE_TAG) || tag.equals(REMOVE_TAG)) {
+        Element atom =
+          XmlUtils.getChildElement(e, ResultSetDataAtom.DATA_ATOM_TAG);
+        changes.add(new Change(e.getAttribute(CLUSTER_ATT),
+          new ResultSetDataAtom(atom), tag.equals(REMOVE_TAG)));
+      }
+    }
+  }
+
+  /**
+   *  Identify a data atom obtained from AggregationResultSet.getAllAtoms.
+   *  The key is a Map of the atom's identifiers.
+   */
+  public static Map getKey (ResultSetDataAtom atom) {
+    return new TreeMap(atom.getIdentifierMap());
+  }
+
+  /**
+   *  Report the version of the result set to which these changes apply.
+   */
+  public long getFromVersion () {
+    return fromVersion;
+  }
+
+  /**
+   *  Report the version of the result set after these changes.
+   */
+  public long getToVersion () {
+    return toVersion;
+  }
+
+  /**
+   *  Tell whether these changes could not be listed, in which case the whole
+   *  result set should be examined.
+   */
+  public boolean isFull () {
+    return full;
+  }
+
+  /**
+   *  Tell whether there are no changes at all.
+   */
+  public boolean isEmpty () {
+    return fromVersion == toVersion;
+  }
+
+  /**
+   *  Iterate through the Change records, in the order in which the changes
+   *  were made.  If isFull() is true, the iteration is empty.
+   */
+  public Iterator getChanges () {
+    return changes.iterator();
+  }
+
+  public int size () {
+    return changes.size();
+  }
+
+  void setToVersion (long v) {
+    toVersion = v;
+  }
+
+  /**
+   *  Report the exceptions reported to the result set, as of the later
+   *  version.  Only those obtained from AggregationResultSet.getChangesSince
+   *  carry the exceptions; for others, the Map is empty.
+   */
+  public Map getExceptions () {
+    return exceptions;
+  }
+
+  void setExceptions (String queryId, Map m) {
+    this.queryId = queryId;
+    exceptions = m;
+  }
+
+  void add (Change c) {
+    if (!full)
+      changes.add(c);
+  }
+
+  void setFull () {
+    full = true;
+    changes.clear();
+  }
+
+  public String toXml () {
+    InverseSax doc = new InverseSax();
+    includeXml(doc);
+    return doc.toString();
+  }
+
+  public void includeXml (InverseSax doc) {
+    doc.addElement(RESULT_SET_CHANGES_TAG);
+    if (queryId != null)
+      doc.addAttribute(AggregationResultSet.QUERY_ID_ATT, queryId);
+    doc.addAttribute(FROM_ATT, String.valueOf(fromVersion));
+    doc.addAttribute(TO_ATT, String.valueOf(toVersion));
+
+    for (Iterator i = exceptions.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) i.next();
+      doc.addEltAttText(AggregationResultSet.EXCEPTION_TAG,
+        AggregationResultSet.CLUSTER_ID_ATT, entry.getKey().toString(),
+        entry.getValue().toString());
+    }
+
+    for (Iterator i = changes.iterator(); i.hasNext(); ) {
+      Change c = (Change) i.next();
+      doc.addElement(c.isRemoval() ? REMOVE_TAG : UPDATE_TAG);
+      doc.addAttribute(CLUSTER_ATT, c.getAgentId());
+      c.getAtom().includeXml(doc);
+      doc.endElement();
+    }
+
+    doc.endElement();
+  }
+}
@@ -175,6 +175,11 @@ public class ResultSetDataAtom implements XmlTransferable, Serializable {
     return new CompoundKey (l, identifiers);
   }
 
+  // direct access to the identifiers, for use by ProbeKey
+  Map getIdentifierMap () {
+    return identifiers;
+  }
+
   public String toString () {
     return toXml();
   }
@@ -0,0 +1,89 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ *  A ResultSetStore holds the data atoms of an AggregationResultSet, grouped
+ *  by the agent that reported them.  Within each agent's group, atoms are
+ *  distinguished by their identifiers; the identifier names used for this
+ *  purpose are those of the first atom ever stored.  Implementations may
+ *  differ in their internal representation, but not in the atoms reported.
+ *  <br><br>
+ *  Synchronization is the responsibility of the caller.
+ */
+public interface ResultSetStore extends Serializable {
+  /**
+   *  Insert a data atom into an agent's group, replacing any atom there with
+   *  the same identifiers.
+   */
+  public void update (String agentId, ResultSetDataAtom atom);
+
+  /**
+   *  Remove the data atom, if any, with the same identifiers as the one given
+   *  from an agent's group.
+   */
+  public void remove (String agentId, ResultSetDataAtom atom);
+
+  /**
+   *  Apply the values of a partial atom to the atom in an agent's group with
+   *  the same identifiers, leaving its other values as they were.  The atom
+   *  as patched is returned, or null if there is no such atom.  Atoms
+   *  reported by the store before the patch must keep their former values.
+   */
+  public ResultSetDataAtom patch (String agentId, ResultSetDataAtom patch);
+
+  /**
+   *  Remove all atoms in an agent's group.  The group itself remains.
+   */
+  public void removeAll (String agentId);
+
+  /**
+   *  Remove an agent's group altogether.
+   */
+  public void removeAgent (String agentId);
+
+  /**
+   *  Remove all groups.
+   */
+  public void clear ();
+
+  /**
+   *  Provide the names of the agents for which groups exist.
+   */
+  public Collection getAgents ();
+
+  /**
+   *  Iterate through the data atoms in an agent's group.  The atoms bear the
+   *  identifiers used as keys and the values most recently stored.  If no
+   *  such group exists, the iteration is empty.
+   */
+  public Iterator getAtoms (String agentId);
+}
@@ -0,0 +1,113 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A ScriptCache holds compiled scripts, so that a script received many times
+ *  (by many queries, or by repeated transient queries) need only be compiled
+ *  once.  Entries are keyed by a String that identifies the script (see
+ *  ScriptSpec); when the cache is full, the least recently used entry is
+ *  discarded.
+ *  <br><br>
+ *  Cached entries are shared by every agent and thread that asks for the same
+ *  script, so only compiled code should be stored here, never the objects
+ *  made from it, which may carry state of their own.
+ */
+public class ScriptCache {
+  private static char[] HEX = "0123456789abcdef".toCharArray();
+
+  private LinkedHashMap entries = null;
+  private int hits = 0;
+  private int misses = 0;
+
+  /**
+   *  Create a ScriptCache holding at most the given number of entries.
+   */
+  public ScriptCache (final int capacity) {
+    entries = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry (Map.Entry eldest) {
+          return size() > capacity;
+        }
+      };
+  }
+
+  /**
+   *  Find the code stored under the given key, or null if there is none.
+   */
+  public synchronized Object get (String key) {
+    Object o = entries.get(key);
+    if (o == null)
+      misses++;
+    else
+      hits++;
+    return o;
+  }
+
+  /**
+   *  Store compiled code under the given key.
+   */
+  public synchronized void put (String key, Object code) {
+    entries.put(key, code);
+  }
+
+  public synchronized void clear () {
+    entries.clear();
+  }
+
+  public synchronized int size () {
+    return entries.size();
+  }
+
+  public synchronized String toString () {
+    return "ScriptCache[size=" + entries.size() + ", hits=" + hits +
+      ", misses=" + misses + "]";
+  }
+
+  /**
+   *  Compute a digest of a script's text, suitable for use in a cache key.
+   */
+  public static String digest (String text) {
+    try {
+      byte[] d = MessageDigest.getInstance("SHA-1").digest(
+        text.getBytes("UTF-8"));
+      char[] buf = new char[2 * d.length];
+      for (int i = 0; i < d.length; i++) {
+        buf[2 * i] = HEX[(d[i] >> 4) & 0xf];
+        buf[2 * i + 1] = HEX[d[i] & 0xf];
+      }
+      return new String(buf);
+    }
+    catch (Exception e) {
+      // SHA-1 and UTF-8 are always available; if not, use the text itself
+      return text;
+    }
+  }
+}
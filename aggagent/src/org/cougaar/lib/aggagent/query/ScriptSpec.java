@@ -40,11 +40,13 @@ import org.cougaar.lib.aggagent.script.PythAlert;
 import org.cougaar.lib.aggagent.script.PythIncrementFormat;
 import org.cougaar.lib.aggagent.script.PythMelder;
 import org.cougaar.lib.aggagent.script.PythUnaryPredicate;
+import org.cougaar.lib.aggagent.script.PythScript;
 import org.cougaar.lib.aggagent.script.PythXMLEncoder;
 import org.cougaar.lib.aggagent.script.SilkAggregator;
 import org.cougaar.lib.aggagent.script.SilkAlert;
 import org.cougaar.lib.aggagent.script.SilkIncrementFormat;
 import org.cougaar.lib.aggagent.script.SilkMelder;
+import org.cougaar.lib.aggagent.script.SilkScript;
 import org.cougaar.lib.aggagent.script.SilkUnaryPredicate;
 import org.cougaar.lib.aggagent.script.SilkXMLEncoder;
 import org.cougaar.lib.aggagent.session.IncrementFormat;
@@ -57,9 +59,12 @@ import org.cougaar.lib.aggagent.util.Enum.Language;
 import org.cougaar.lib.aggagent.util.Enum.ScriptType;
 import org.cougaar.lib.aggagent.util.Enum.XmlFormat;
 import org.cougaar.util.UnaryPredicate;
+import org.python.core.PyCode;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import silk.Procedure;
+
 /**
  *  An instance of this class may be used to represent a script, including the
  *  code itself plus a variety of information concerning the intended usage of
@@ -71,10 +76,16 @@ public class ScriptSpec implements Serializable {
   private static String LANGUAGE_ATT = "language";
   private static String TYPE_ATT = "type";
   private static String AGG_IDS_ATT = "aggIds";
+  private static String CLASSES_ATT = "classes";
   private static String NAME_ATT = "name";
 
   private static Class[] STRING_PARAM = new Class[] {String.class};
 
+  // compiled JPython and SILK scripts, shared by all ScriptSpecs; each use
+  // of a script makes a new product from the compiled code
+  private static ScriptCache compiled = new ScriptCache(
+    Integer.getInteger("org.cougaar.lib.aggagent.scriptCacheSize", 128).intValue());
+
   private ScriptType type = null;
   private Language lang = null;
 
@@ -85,6 +96,11 @@ public class ScriptSpec implements Serializable {
   private AggType aggType = null;
   private List aggIds = null;
 
+  // only used when the script is a UnaryPredicate; names the classes of
+  // the only Objects the script need be asked about
+  private List prefilter = null;
+  private transient Class[] prefilterClasses = null;
+
   private String text = null;
   private Map params = new HashMap();
 
@@ -121,6 +137,27 @@ public class ScriptSpec implements Serializable {
     return aggType;
   }
 
+  /**
+   *  Declare the Java classes whose instances a UnaryPredicate script may
+   *  accept.  Objects of other classes are rejected without consulting the
+   *  script.  The class names are separated by spaces or commas; null means
+   *  no restriction.
+   */
+  public void setPrefilterClasses (String names) {
+    prefilter = null;
+    prefilterClasses = null;
+    if (names != null && names.trim().length() > 0)
+      prefilter = parseClassNames(names);
+  }
+
+  /**
+   *  Retrieve the class names declared by setPrefilterClasses, or null if
+   *  there are none.
+   */
+  public String getPrefilterClasses () {
+    return encodeClassNames(prefilter);
+  }
+
   /**
    *  Supply the caller with the text of the script.  In the case of a Java
    *  representation, the class name is returned.
@@ -207,6 +244,8 @@ public class ScriptSpec implements Serializable {
       aggType = AggType.fromString(root.getAttribute(TYPE_ATT));
       aggIds = parseAggIds(root.getAttribute(AGG_IDS_ATT));
     }
+    if (type == ScriptType.UNARY_PREDICATE)
+      setPrefilterClasses(root.getAttribute(CLASSES_ATT));
 
     if (lang == Language.JAVA)
       parseJavaSpec(root);
@@ -242,6 +281,28 @@ public class ScriptSpec implements Serializable {
     return buf.toString();
   }
 
+  // Class names are separated by spaces or commas
+  private static List parseClassNames (String s) {
+    List ret = new LinkedList();
+    StringTokenizer tok = new StringTokenizer(s, " ,\t\r\n");
+    while (tok.hasMoreTokens())
+      ret.add(tok.nextToken());
+    return ret;
+  }
+
+  private static String encodeClassNames (List l) {
+    if (l == null)
+      return null;
+
+    StringBuffer buf = new StringBuffer();
+    for (Iterator i = l.iterator(); i.hasNext(); ) {
+      buf.append(i.next());
+      if (i.hasNext())
+        buf.append(",");
+    }
+    return buf.toString();
+  }
+
   private void parseJavaSpec (Element elt) {
     NodeList nl = elt.getElementsByTagName(CLASS_TAG);
     if (nl.getLength() > 0)
@@ -280,6 +341,8 @@ public class ScriptSpec implements Serializable {
       doc.addAttribute(TYPE_ATT, aggType.toString());
     if (aggIds != null)
       doc.addAttribute(AGG_IDS_ATT, encodeAggIds(aggIds));
+    if (prefilter != null)
+      doc.addAttribute(CLASSES_ATT, encodeClassNames(prefilter));
 
     if (lang == Language.JAVA)
       includeJavaXml(doc);
@@ -336,6 +399,81 @@ public class ScriptSpec implements Serializable {
     return bean;
   }
 
+  /**
+   *  Provide access to the cache of compiled scripts used by all ScriptSpecs.
+   */
+  public static ScriptCache getScriptCache () {
+    return compiled;
+  }
+
+  // Obtain the compiled form of this script, compiling it only if it is not
+  // already in the cache.  The code depends only on the language and the
+  // text, so it is shared by scripts of every type.
+  private PyCode getPythonCode () {
+    if (text == null)
+      return null;
+    String key = lang + ":" + ScriptCache.digest(text);
+    PyCode code = (PyCode) compiled.get(key);
+    if (code == null)
+      compiled.put(key, code = PythScript.compile(text));
+    return code;
+  }
+
+  // A Silk script evaluates to a closure, which may capture state of its
+  // own, so it is not cached; each object made from the script gets a
+  // Procedure of its own.
+  private Procedure getSilkCode () {
+    if (text == null)
+      return null;
+    return SilkScript.compile(text);
+  }
+
+  // Rejects Objects not belonging to any of a set of classes before asking
+  // the delegate about them.
+  private static class ClassPrefilter implements UnaryPredicate {
+    private Class[] accepted = null;
+    private UnaryPredicate delegate = null;
+
+    public ClassPrefilter (Class[] c, UnaryPredicate p) {
+      accepted = c;
+      delegate = p;
+    }
+
+    public boolean execute (Object o) {
+      for (int i = 0; i < accepted.length; i++)
+        if (accepted[i].isInstance(o))
+          return delegate.execute(o);
+      return false;
+    }
+  }
+
+  // Load the prefilter classes.  A class that cannot be loaded (whether the
+  // name is wrong or the class is not visible here) is reported and omitted.
+  // If none can be loaded, null is returned, and the script is consulted
+  // about every Object, as though no prefilter had been declared.
+  private Class[] getPrefilter () {
+    if (prefilterClasses == null) {
+      List l = new LinkedList();
+      for (Iterator i = prefilter.iterator(); i.hasNext(); ) {
+        String name = (String) i.next();
+        try {
+          l.add(Class.forName(name));
+        }
+        catch (ClassNotFoundException cnfe) {
+          System.err.println(
+            "WARNING: unable to load prefilter class " + name);
+        }
+      }
+      if (l.isEmpty()) {
+        System.err.println("WARNING: no prefilter class could be loaded;" +
+          " the predicate will be consulted about all objects");
+        return null;
+      }
+      prefilterClasses = (Class[]) l.toArray(new Class[l.size()]);
+    }
+    return prefilterClasses;
+  }
+
   private void checkTypeMatch (ScriptType makeType) throws Exception {
     if (makeType != type)
       throw new Exception(
@@ -346,30 +484,42 @@ public class ScriptSpec implements Serializable {
    *  Create a UnaryPredicate from this ScriptSpec, if appropriate.  If the
    *  language spec is not one of those recognized, then this method will
    *  return null.  If the script is not a UnaryPredicate script, then an
-   *  Exception will be raised.
+   *  Exception will be raised.  Compiled JPython scripts are cached, but each
+   *  call yields a new UnaryPredicate.
+   *  <br><br>
+   *  If prefilter classes have been declared, the script is consulted only
+   *  about instances of those classes.
    */
   public UnaryPredicate toUnaryPredicate () throws Exception {
     checkTypeMatch(ScriptType.UNARY_PREDICATE);
+    UnaryPredicate p = null;
     if (lang == Language.JPYTHON)
-      return PythUnaryPredicate.predicateFromScript(text);
+      p = PythUnaryPredicate.predicateFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkUnaryPredicate(text);
+      p = new SilkUnaryPredicate(getSilkCode());
     else if (lang == Language.JAVA)
-      return (UnaryPredicate) makeBean();
-    return null;
+      p = (UnaryPredicate) makeBean();
+
+    if (p != null && prefilter != null) {
+      Class[] classes = getPrefilter();
+      if (classes != null)
+        p = new ClassPrefilter(classes, p);
+    }
+    return p;
   }
 
   /**
    *  Create an Alert from this ScriptSpec, if appropriate.  If the language
    *  spec is not one of those recognized, then this method will return null.
    *  If the script is not an Alert script, then an Exception will be raised.
+   *  Compiled JPython scripts are cached, but each call yields a new Alert.
    */
   public Alert toAlert () throws Exception {
     checkTypeMatch(ScriptType.ALERT);
     if (lang == Language.JPYTHON)
-      return PythAlert.parseAlert(text);
+      return PythAlert.alertFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkAlert(text);
+      return new SilkAlert(getSilkCode());
     else if (lang == Language.JAVA)
       return (Alert) makeBean();
     return null;
@@ -377,9 +527,9 @@ public class ScriptSpec implements Serializable {
 
   private IncrementFormat toScriptedFormat () throws Exception {
     if (lang == Language.JPYTHON)
-      return PythIncrementFormat.formatFromScript(text);
+      return PythIncrementFormat.formatFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkIncrementFormat(text);
+      return new SilkIncrementFormat(getSilkCode());
     else if (lang == Language.JAVA)
       return (IncrementFormat) makeBean();
     return null;
@@ -387,9 +537,9 @@ public class ScriptSpec implements Serializable {
 
   private XMLEncoder toXMLEncoder () throws Exception {
     if (lang == Language.JPYTHON)
-      return PythXMLEncoder.encoderFromScript(text);
+      return PythXMLEncoder.encoderFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkXMLEncoder(text);
+      return new SilkXMLEncoder(getSilkCode());
     else if (lang == Language.JAVA)
       return (XMLEncoder) makeBean();
     return null;
@@ -399,7 +549,8 @@ public class ScriptSpec implements Serializable {
    *  Create an IncrementFormat from this ScriptSpec, if appropriate.  If the
    *  language spec is not one of those recognized, then this method will
    *  return null.  If the script is not an IncrementFormat script, then an
-   *  Exception will be raised.
+   *  Exception will be raised.  Compiled JPython scripts are cached, but each
+   *  call yields a new IncrementFormat.
    */
   public IncrementFormat toIncrementFormat () throws Exception {
     checkTypeMatch(ScriptType.INCREMENT_FORMAT);
@@ -412,9 +563,9 @@ public class ScriptSpec implements Serializable {
 
   private Aggregator toScriptedAggregator () throws Exception {
     if (lang == Language.JPYTHON)
-      return PythAggregator.aggregatorFromScript(text);
+      return PythAggregator.aggregatorFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkAggregator(text);
+      return new SilkAggregator(getSilkCode());
     else if (lang == Language.JAVA)
       return (Aggregator) makeBean();
     return null;
@@ -422,9 +573,9 @@ public class ScriptSpec implements Serializable {
 
   private DataAtomMelder toDataAtomMelder () throws Exception {
     if (lang == Language.JPYTHON)
-      return PythMelder.melderFromScript(text);
+      return PythMelder.melderFromCode(getPythonCode());
     else if (lang == Language.SILK)
-      return new SilkMelder(text);
+      return new SilkMelder(getSilkCode());
     else if (lang == Language.JAVA)
       return (DataAtomMelder) makeBean();
     return null;
@@ -434,7 +585,8 @@ public class ScriptSpec implements Serializable {
    *  Create an Aggregator from this ScriptSpec, if appropriate.  If the
    *  language spec is not one of those recognized, then this method will
    *  return null.  If the script is not an Aggregator script, then an
-   *  Exception will be raised.
+   *  Exception will be raised.  Compiled JPython scripts are cached, but each
+   *  call yields a new Aggregator (and, in the case of a melder, a new melder).
    */
   public Aggregator toAggregator () throws Exception {
     checkTypeMatch(ScriptType.AGGREGATOR);
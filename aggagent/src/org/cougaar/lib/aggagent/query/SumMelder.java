@@ -0,0 +1,100 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.query;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ *  A built-in melder that reports the sum of a value over each group of data
+ *  atoms.  The result is reported as "sum" unless configured otherwise.
+ */
+public class SumMelder extends IncrementalMelder
+    implements MergeableMelder
+{
+  private static class State implements Serializable {
+    public double total = 0.0;
+    public int count = 0;
+  }
+
+  protected String getDefaultResultName () {
+    return "sum";
+  }
+
+  public Object createGroupState () {
+    return new State();
+  }
+
+  public void accumulate (Object state, ResultSetDataAtom atom) {
+    double d = getNumber(atom);
+    if (!Double.isNaN(d)) {
+      State s = (State) state;
+      s.total += d;
+      s.count++;
+    }
+  }
+
+  public void retract (Object state, ResultSetDataAtom atom) {
+    double d = getNumber(atom);
+    if (!Double.isNaN(d)) {
+      State s = (State) state;
+      s.total -= d;
+      // start over from zero, so rounding errors don't accumulate
+      if (--s.count == 0)
+        s.total = 0.0;
+    }
+  }
+
+  public void producePartial (
+      List idNames, CompoundKey id, Object state, List output)
+  {
+    State s = (State) state;
+    ResultSetDataAtom p = addPartial(idNames, id, output);
+    p.addValue("partial_total", String.valueOf(s.total));
+    p.addValue("partial_count", String.valueOf(s.count));
+  }
+
+  public void merge (Object state, ResultSetDataAtom partial) {
+    State s = (State) state;
+    s.total += getPartialNumber(partial, "partial_total");
+    s.count += (int) getPartialNumber(partial, "partial_count");
+  }
+
+  public void unmerge (Object state, ResultSetDataAtom partial) {
+    State s = (State) state;
+    s.total -= getPartialNumber(partial, "partial_total");
+    s.count -= (int) getPartialNumber(partial, "partial_count");
+    if (s.count <= 0) {
+      s.total = 0.0;
+      s.count = 0;
+    }
+  }
+
+  protected Object getResult (Object state) {
+    return formatNumber(((State) state).total);
+  }
+}
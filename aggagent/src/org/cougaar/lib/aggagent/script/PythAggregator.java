@@ -30,9 +30,9 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.cougaar.lib.aggagent.query.Aggregator;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of Aggregator that derives its functionality from a
@@ -112,10 +112,19 @@ public class PythAggregator implements Aggregator {
    *  @return an Aggregator instance derived from the JPython scripts
    */
   public static Aggregator aggregatorFromScript (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return aggregatorFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create an Aggregator from a JPython script compiled by
+   *  PythScript.compile().  The code is run in a new interpreter, so the same
+   *  code may be used to create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return an Aggregator instance derived from the JPython scripts
+   */
+  public static Aggregator aggregatorFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
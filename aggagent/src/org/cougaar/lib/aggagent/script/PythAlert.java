@@ -30,9 +30,9 @@ import org.cougaar.lib.aggagent.query.AggregationQuery;
 import org.cougaar.lib.aggagent.query.Alert;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
 import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of the Alert class that derives its functionality from a
@@ -89,10 +89,19 @@ public abstract class PythAlert {
    *  @return an Alert instance derived from the JPython scripts
    */
   public static Alert parseAlert (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return alertFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create an Alert from a JPython script compiled by PythScript.compile().
+   *  The code is run in a new interpreter, so the same code may be used to
+   *  create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return an Alert instance derived from the JPython scripts
+   */
+  public static Alert alertFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
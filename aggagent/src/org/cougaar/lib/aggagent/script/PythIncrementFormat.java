@@ -29,9 +29,9 @@ package org.cougaar.lib.aggagent.script;
 import org.cougaar.lib.aggagent.session.IncrementFormat;
 import org.cougaar.lib.aggagent.session.SubscriptionAccess;
 import org.cougaar.lib.aggagent.session.UpdateDelta;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of IncrementFormat that derives its functionality from
@@ -112,10 +112,19 @@ public class PythIncrementFormat implements IncrementFormat {
    *  @return an IncrementFormat instance derived from the JPython scripts
    */
   public static IncrementFormat formatFromScript (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return formatFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create an IncrementFormat from a JPython script compiled by
+   *  PythScript.compile().  The code is run in a new interpreter, so the same
+   *  code may be used to create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return an IncrementFormat instance derived from the JPython scripts
+   */
+  public static IncrementFormat formatFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
@@ -30,9 +30,9 @@ import java.util.List;
 
 import org.cougaar.lib.aggagent.query.CompoundKey;
 import org.cougaar.lib.aggagent.query.DataAtomMelder;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of DataAtomMelder that derives its functionality from a
@@ -108,10 +108,19 @@ public class PythMelder implements DataAtomMelder {
    *  @return an DataAtomMelder instance derived from the JPython scripts
    */
   public static DataAtomMelder melderFromScript (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return melderFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create a DataAtomMelder from a JPython script compiled by
+   *  PythScript.compile().  The code is run in a new interpreter, so the same
+   *  code may be used to create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return a DataAtomMelder instance derived from the JPython scripts
+   */
+  public static DataAtomMelder melderFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
@@ -0,0 +1,62 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.script;
+
+import org.python.core.PyCode;
+import org.python.core.PyObject;
+import org.python.core.__builtin__;
+import org.python.util.PythonInterpreter;
+
+/**
+ *  PythScript separates the two stages in which the JPython-based classes of
+ *  this package use a script:  compiling its text, which is costly and may
+ *  be done once for any number of uses, and running the compiled code to
+ *  obtain the product of the magic function "instantiate()".  The code is run
+ *  in a new interpreter each time, so that each product has its own globals.
+ */
+public class PythScript {
+  /**
+   *  Compile the text of a script.  A null script yields null code, which is
+   *  understood by instantiate() as a script that does nothing.
+   */
+  public static PyCode compile (String script) {
+    if (script == null)
+      return null;
+    return __builtin__.compile(script, "<script>", "exec");
+  }
+
+  /**
+   *  Run compiled code in a new interpreter and return the value of the given
+   *  expression, which is normally a call to the magic function.
+   */
+  public static PyObject instantiate (PyCode code, String magic) {
+    PythonInterpreter pi = new NoErrorPython();
+    if (code != null)
+      pi.exec(code);
+    return pi.eval(magic);
+  }
+}
@@ -27,10 +27,10 @@
 package org.cougaar.lib.aggagent.script;
 
 import org.cougaar.util.UnaryPredicate;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyInteger;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of UnaryPredicate that derives its functionality from
@@ -122,10 +122,19 @@ public class PythUnaryPredicate implements UnaryPredicate {
    *  @return a UnaryPredicate instance derived from the JPython scripts
    */
   public static UnaryPredicate predicateFromScript (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return predicateFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create a UnaryPredicate from a JPython script compiled by
+   *  PythScript.compile().  The code is run in a new interpreter, so the same
+   *  code may be used to create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return a UnaryPredicate instance derived from the JPython scripts
+   */
+  public static UnaryPredicate predicateFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
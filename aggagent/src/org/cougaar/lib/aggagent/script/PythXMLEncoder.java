@@ -29,9 +29,9 @@ package org.cougaar.lib.aggagent.script;
 import java.util.Collection;
 
 import org.cougaar.lib.aggagent.session.XMLEncoder;
+import org.python.core.PyCode;
 import org.python.core.PyFunction;
 import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 /**
  *  An implementation of XMLEncoder that derives its functionality from
@@ -111,10 +111,19 @@ public class PythXMLEncoder implements XMLEncoder {
    *  @return an XMLEncoder instance derived from the JPython scripts
    */
   public static XMLEncoder encoderFromScript (String script) {
-    PythonInterpreter pi = new NoErrorPython();
-    if (script != null)
-      pi.exec(script);
-    PyObject product = pi.eval(MAGIC_FUNCTION);
+    return encoderFromCode(PythScript.compile(script));
+  }
+
+  /**
+   *  Create an XMLEncoder from a JPython script compiled by
+   *  PythScript.compile().  The code is run in a new interpreter, so the same
+   *  code may be used to create any number of independent instances.
+   *
+   *  @param code the compiled script
+   *  @return an XMLEncoder instance derived from the JPython scripts
+   */
+  public static XMLEncoder encoderFromCode (PyCode code) {
+    PyObject product = PythScript.instantiate(code, MAGIC_FUNCTION);
     if (product instanceof PyFunction) {
       return new Func((PyFunction) product);
     }
@@ -32,13 +32,16 @@ import java.util.List;
 import org.cougaar.lib.aggagent.query.Aggregator;
 
 import silk.Procedure;
-import silk.SI;
 
 public class SilkAggregator implements Aggregator {
   private Procedure silkProcedure;
 
   public SilkAggregator (String silkScript) {
-    silkProcedure = (Procedure) SI.eval(silkScript);
+    this(SilkScript.compile(silkScript));
+  }
+
+  public SilkAggregator (Procedure p) {
+    silkProcedure = p;
   }
 
   public void aggregate (Iterator dataAtoms, List output) {
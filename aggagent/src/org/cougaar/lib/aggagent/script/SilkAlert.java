@@ -32,7 +32,6 @@ import org.cougaar.lib.aggagent.query.QueryResultAdapter;
 import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
 
 import silk.Procedure;
-import silk.SI;
 
 /**
  *  A concrete implementation of the Alert class that uses a SILK script as its
@@ -42,7 +41,11 @@ public class SilkAlert extends Alert {
   private Procedure handler = null;
 
   public SilkAlert (String script) {
-    handler = (Procedure) SI.eval(script);
+    this(SilkScript.compile(script));
+  }
+
+  public SilkAlert (Procedure p) {
+    handler = p;
   }
 
   /**
@@ -31,7 +31,6 @@ import org.cougaar.lib.aggagent.session.SubscriptionAccess;
 import org.cougaar.lib.aggagent.session.UpdateDelta;
 
 import silk.Procedure;
-import silk.SI;
 
 /**
  *  An implementation of the IncrementFormat interface that derives its
@@ -47,7 +46,11 @@ public class SilkIncrementFormat implements IncrementFormat {
    *  @param silkScript the text of the SILK code
    */
   public SilkIncrementFormat (String silkScript) {
-    this.silkProcedure = (Procedure) SI.eval(silkScript);
+    this(SilkScript.compile(silkScript));
+  }
+
+  public SilkIncrementFormat (Procedure p) {
+    silkProcedure = p;
   }
 
   /**
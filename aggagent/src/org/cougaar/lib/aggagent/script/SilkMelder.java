@@ -32,13 +32,16 @@ import org.cougaar.lib.aggagent.query.CompoundKey;
 import org.cougaar.lib.aggagent.query.DataAtomMelder;
 
 import silk.Procedure;
-import silk.SI;
 
 public class SilkMelder implements DataAtomMelder {
   private Procedure silkProcedure;
 
   public SilkMelder (String silkScript) {
-    silkProcedure = (Procedure) SI.eval(silkScript);
+    this(SilkScript.compile(silkScript));
+  }
+
+  public SilkMelder (Procedure p) {
+    silkProcedure = p;
   }
 
   public void meld (List idNames, CompoundKey id, List atoms, List output) {
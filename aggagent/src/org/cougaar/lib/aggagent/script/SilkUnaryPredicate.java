@@ -28,7 +28,6 @@ package org.cougaar.lib.aggagent.script;
 import org.cougaar.util.UnaryPredicate;
 
 import silk.Procedure;
-import silk.SI;
 
 public class SilkUnaryPredicate implements UnaryPredicate {
 
@@ -36,7 +35,12 @@ public class SilkUnaryPredicate implements UnaryPredicate {
 
   public SilkUnaryPredicate(String silkScript)
   {
-    this.silkProcedure = (Procedure)SI.eval(silkScript);
+    this(SilkScript.compile(silkScript));
+  }
+
+  public SilkUnaryPredicate(Procedure p)
+  {
+    silkProcedure = p;
   }
 
   public boolean execute(Object o)
@@ -30,7 +30,6 @@ import java.util.Collection;
 import org.cougaar.lib.aggagent.session.XMLEncoder;
 
 import silk.Procedure;
-import silk.SI;
 
 public class SilkXMLEncoder implements XMLEncoder
 {
@@ -38,7 +37,12 @@ public class SilkXMLEncoder implements XMLEncoder
 
   public SilkXMLEncoder(String silkScript)
   {
-    this.silkProcedure = (Procedure)SI.eval(silkScript);
+    this(SilkScript.compile(silkScript));
+  }
+
+  public SilkXMLEncoder(Procedure p)
+  {
+    silkProcedure = p;
   }
 
   public void encode(Object o, Collection out) {
@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.cougaar.core.service.UIDService;
 import org.cougaar.core.service.wp.WhitePagesService;
+import org.cougaar.lib.aggagent.query.QueryRegistry;
 import org.cougaar.lib.aggagent.session.SessionManager;
 
 
@@ -44,8 +45,8 @@ import org.cougaar.lib.aggagent.session.SessionManager;
  */
 public class AggregationComponent extends BlackboardServletComponent
 {
-  private Object lock = new Object();
   private WhitePagesService wps = null;
+  private TransientQueryPool transientPool = null;
   private AggregationServletInterface htmlInterface = null;
   private AggregationServletInterface xmlInterface = null;
 
@@ -94,6 +95,39 @@ public class AggregationComponent extends BlackboardServletComponent
     xmlInterface =
       new AggregationXMLInterface(blackboard, createSubscriptionSupport(),
                                   agentId.toString(), wps, man, getUIDService());
+
+    // queries are found through the registry kept by the AggregationPlugin
+    QueryRegistry queries = QueryRegistry.forAgent(agentId.toString());
+    htmlInterface.setQueryRegistry(queries);
+    xmlInterface.setQueryRegistry(queries);
+
+    // transient queries, which may wait a long time, run on their own threads
+    transientPool = new TransientQueryPool(
+      getIntProperty("org.cougaar.lib.aggagent.transientWorkers", 4),
+      getIntProperty("org.cougaar.lib.aggagent.transientQueue", 16));
+    htmlInterface.setTransientQueryPool(transientPool);
+    xmlInterface.setTransientQueryPool(transientPool);
+  }
+
+  /**
+   * Stop the transient query workers along with the Servlet.
+   */
+  public void unload() {
+    if (transientPool != null)
+      transientPool.shutDown();
+    super.unload();
+  }
+
+  private static int getIntProperty(String name, int defaultValue) {
+    String s = System.getProperty(name);
+    if (s != null) {
+      try {
+        return Integer.parseInt(s);
+      } catch (NumberFormatException nfe) {
+        System.err.println("WARNING: Received invalid number for " + name + ": " + s);
+      }
+    }
+    return defaultValue;
   }
 
   /**
@@ -119,18 +153,17 @@ public class AggregationComponent extends BlackboardServletComponent
     {
       PrintWriter out = response.getWriter();
 
-      synchronized (lock)
+      // Requests are handled concurrently; the interfaces coordinate through
+      // blackboard transactions and the locks of the objects they share.
+      if (request.getParameter("THICK_CLIENT") != null)
+      {
+        xmlInterface.handleRequest(out, request);
+      }
+      else
       {
-        if (request.getParameter("THICK_CLIENT") != null)
-        {
-          xmlInterface.handleRequest(out, request);
-        }
-        else
-        {
-          htmlInterface.handleRequest(out, request);
-        }
-        out.flush();
+        htmlInterface.handleRequest(out, request);
       }
+      out.flush();
     }
   }
 }
@@ -184,19 +184,19 @@ public class AggregationHTMLInterface extends AggregationServletInterface
     // parse form post request
     AggregationQuery aq = HTMLPresenter.processQueryForm(request);
     QueryResultAdapter qra = new QueryResultAdapter(aq, getUIDService().nextUID());
-    publishAdd(qra);
 
     if (aq.getType() == QueryType.PERSISTENT)
     {
+      publishAdd(qra);
       // update menu frame with new query
       sendHomePage(out);
     }
-    else
+    else if (!runTransientQuery(qra, out, false))
     {
-      if (aq.timeoutSupplied())
-        waitForAndReturnResults(qra.getID(), out, false, aq.getTimeout());
-      else
-        waitForAndReturnResults(qra.getID(), out, false);
+      out.println("<h2>Query Request Error</h2>");
+      out.println("The query could not be run; either too many transient " +
+        "queries are in progress or the agent is shutting down.  " +
+        "Please try again later.");
     }
   }
 
@@ -27,7 +27,11 @@ package org.cougaar.lib.aggagent.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.security.SecureRandom;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServlet;
@@ -43,16 +47,38 @@ import org.cougaar.lib.aggagent.session.SubscriptionAccess;
 import org.cougaar.lib.aggagent.session.SubscriptionWrapper;
 import org.cougaar.lib.aggagent.session.XmlIncrement;
 import org.cougaar.lib.aggagent.util.Const;
+import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.util.UnaryPredicate;
 
 /**
  *  This keep-alive component is used for monitoring the aggregation agent's
  *  blackboard by way of incremental updates passed over a keep alive
  *  connection.
+ *  <br><br>
+ *  By default, the output of all sessions is written by a small pool of
+ *  writer threads (see KeepAliveWriter), and the blackboard thread only
+ *  queues the updates.  The size of the pool is given by the system property
+ *  "org.cougaar.lib.aggagent.keepAliveWriters"; if it is zero, each session
+ *  writes its own output, as it did formerly.
+ *  <br><br>
+ *  A client with many monitors may instead open a single multiplexed
+ *  connection (parameter KEEP_ALIVE_MUX), whose id is sent as the first
+ *  message on the control channel, and then add sessions to it with short
+ *  requests giving the MUX_ID and a CHANNEL number of the client's choosing.
+ *  Session and connection ids are random, so that a client cannot cancel
+ *  another's sessions or add sessions to another's connection by guessing
+ *  them, and a channel may be used only once on each connection.
+ *  The updates of all such sessions are written to the one connection in
+ *  length-prefixed frames (see KeepAliveWriter.openFramed).  Multiplexed
+ *  connections are always served by the writer pool.
  */
 public class AggregationKeepAliveComponent extends BlackboardServletComponent {
+  private static final long TICK_PERIOD = 5000;
+
   private Map sessionMap = new HashMap();
-  private int sessionCounter = 0;
+  private SecureRandom random = new SecureRandom();
+  private int nWriters = 2;
+  private KeepAliveWriter writer = null;
 
   /**
    * Constructor.
@@ -61,6 +87,47 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
   {
     super();
     myServlet = new AggregationKeepAliveServlet();
+    String writersStr =
+      System.getProperty("org.cougaar.lib.aggagent.keepAliveWriters");
+    if (writersStr != null) {
+      try {
+        nWriters = Integer.parseInt(writersStr);
+      } catch (NumberFormatException nfe) {
+        System.err.println("WARNING: Received invalid number for org.cougaar.lib.aggagent.keepAliveWriters: " + writersStr);
+      }
+    }
+  }
+
+  /**
+   * Stop the writer threads, if they were started, along with the Servlet.
+   */
+  public void unload() {
+    synchronized (sessionMap) {
+      if (writer != null) {
+        writer.shutDown();
+        writer = null;
+      }
+    }
+    super.unload();
+  }
+
+  // Choose an id for a new session or multiplexed connection.  Called while
+  // holding the lock on sessionMap.
+  private String nextId() {
+    String id;
+    do {
+      id = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+    } while (sessionMap.containsKey(id));
+    return id;
+  }
+
+  private KeepAliveWriter getWriter() {
+    synchronized (sessionMap) {
+      if (writer == null)
+        writer = new KeepAliveWriter(Math.max(nWriters, 1),
+          Const.KEEP_ALIVE_ACK_MESSAGE, TICK_PERIOD);
+      return writer;
+    }
   }
 
   /**
@@ -82,24 +149,50 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
       String cancelSessionId = request.getParameter("CANCEL_SESSION_ID");
       if (cancelSessionId != null)
       {
+        Object state;
         synchronized (sessionMap)
         {
+          state = sessionMap.get(cancelSessionId);
+          if (state instanceof KeepAliveWriter.Stream)
+            ((KeepAliveWriter.Stream) state).close();
+          else if (state instanceof KeepAliveSession)
+            sessionMap.remove(cancelSessionId);
+          else if (state != null)
             sessionMap.put(cancelSessionId, Boolean.TRUE);
         }
+        if (state instanceof KeepAliveSession)
+          ((KeepAliveSession) state).cancel();
         return; // done canceling session
       }
 
+      if (request.getParameter("KEEP_ALIVE_MUX") != null)
+      {
+        runMultiplexer(response);
+        return;
+      }
+      String muxId = request.getParameter("MUX_ID");
+      if (muxId != null)
+      {
+        addMultiplexedSession(muxId, request, response);
+        return;
+      }
+
       //
       // Handle Keep Alive Session Request
       //
       PrintWriter out = new PrintWriter(response.getOutputStream());
+      if (nWriters > 0)
+      {
+        runQueuedSession(out, request);
+        return;
+      }
       KeepAliveSession kaSession = null;
 
       // establish session id, send to client
       String thisSession;
       synchronized (sessionMap)
       {
-        thisSession = String.valueOf(sessionCounter++);
+        thisSession = nextId();
         sessionMap.put(thisSession, new Boolean(false));
       }
       synchronized (out)
@@ -114,7 +207,8 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
         kaSession = new KeepAliveSession(agentId.toString(),
                              blackboard, createSubscriptionSupport(),
                              monitorRequest.unaryPredicate,
-                             new XmlIncrement(monitorRequest.xmlEncoder), out);
+                             new XmlIncrement(monitorRequest.xmlEncoder), out,
+                             null);
 
         boolean outputError = false;
         boolean sessionCanceled = false;
@@ -155,12 +249,198 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
           if (log.isDebugEnabled()) log.debug("doPut:  leaving");
         }
     }
+
+    /**
+     *  Run a keep-alive session whose output is written by the shared writer
+     *  pool.  The calling thread only waits for the session to end, which
+     *  happens when it is cancelled or the connection fails.
+     */
+    private void runQueuedSession(PrintWriter out, HttpServletRequest request)
+    {
+      KeepAliveWriter.Stream stream = getWriter().open(out);
+      KeepAliveSession kaSession = null;
+
+      // establish session id, send to client
+      String thisSession;
+      synchronized (sessionMap)
+      {
+        thisSession = nextId();
+        sessionMap.put(thisSession, stream);
+      }
+      stream.post("<session_created id=\"" + thisSession + "\" />" +
+        System.getProperty("line.separator"));
+
+      try {
+        AggregationXMLInterface.MonitorRequestParser monitorRequest =
+          new AggregationXMLInterface.MonitorRequestParser(request);
+        kaSession = new KeepAliveSession(agentId.toString(),
+                             blackboard, createSubscriptionSupport(),
+                             monitorRequest.unaryPredicate,
+                             new XmlIncrement(monitorRequest.xmlEncoder), null,
+                             stream);
+
+        if (log.isDebugEnabled()) log.debug("---------Keep Alive Session " +
+                thisSession +" is Alive---------");
+        stream.awaitClose();
+      }
+      catch (Exception done_in) {
+        if (log.isDebugEnabled()) log.debug("doPut:  aborted!");
+      }
+      finally {
+        if (stream.isOverflowed() && log.isWarnEnabled())
+          log.warn("Keep Alive Session " + thisSession +
+            " closed; its client is not keeping up");
+        stream.close();
+        if (kaSession != null)
+          kaSession.cancel();
+        synchronized (sessionMap)
+        {
+          sessionMap.remove(thisSession);
+        }
+        if (log.isDebugEnabled()) log.debug("doPut:  leaving");
+      }
+    }
+
+    /**
+     *  Serve a multiplexed connection.  The calling thread waits until the
+     *  connection fails or is cancelled, and then cancels every session that
+     *  was using it.
+     */
+    private void runMultiplexer(HttpServletResponse response)
+        throws IOException
+    {
+      KeepAliveWriter.Stream stream =
+        getWriter().openFramed(response.getOutputStream());
+
+      String thisMux;
+      synchronized (sessionMap)
+      {
+        thisMux = nextId();
+        sessionMap.put(thisMux, stream);
+      }
+      stream.post("<mux_created id=\"" + thisMux + "\" />");
+
+      try {
+        if (log.isDebugEnabled()) log.debug("---------Multiplexer " +
+                thisMux +" is Alive---------");
+        stream.awaitClose();
+      }
+      catch (InterruptedException done_in) {
+        if (log.isDebugEnabled()) log.debug("doPut:  aborted!");
+      }
+      finally {
+        if (stream.isOverflowed() && log.isWarnEnabled())
+          log.warn("Multiplexer " + thisMux +
+            " closed; its client is not keeping up");
+        stream.close();
+        List orphans = new LinkedList();
+        synchronized (sessionMap)
+        {
+          sessionMap.remove(thisMux);
+          for (Iterator i = sessionMap.values().iterator(); i.hasNext(); ) {
+            Object state = i.next();
+            if (state instanceof KeepAliveSession &&
+                ((KeepAliveSession) state).stream == stream)
+            {
+              orphans.add(state);
+              i.remove();
+            }
+          }
+        }
+        for (Iterator i = orphans.iterator(); i.hasNext(); )
+          ((KeepAliveSession) i.next()).cancel();
+        if (log.isDebugEnabled()) log.debug("doPut:  leaving");
+      }
+    }
+
+    /**
+     *  Start a session whose updates are sent over the given multiplexed
+     *  connection, and reply with the session's id, by which it may be
+     *  cancelled.  Replies -1 if there is no such connection, or if the
+     *  channel is already in use on it.
+     */
+    private void addMultiplexedSession(String muxId,
+        HttpServletRequest request, HttpServletResponse response)
+        throws IOException
+    {
+      PrintWriter out = new PrintWriter(response.getOutputStream());
+      try {
+        int channel = Integer.parseInt(request.getParameter("CHANNEL"));
+        Object mux;
+        synchronized (sessionMap)
+        {
+          mux = sessionMap.get(muxId);
+        }
+        if (!(mux instanceof KeepAliveWriter.Stream) ||
+            ((KeepAliveWriter.Stream) mux).isClosed() ||
+            isChannelUsed((KeepAliveWriter.Stream) mux, channel))
+        {
+          out.println(-1);
+          return;
+        }
+
+        KeepAliveWriter.Stream stream = (KeepAliveWriter.Stream) mux;
+        AggregationXMLInterface.MonitorRequestParser monitorRequest =
+          new AggregationXMLInterface.MonitorRequestParser(request);
+        KeepAliveSession kaSession = new KeepAliveSession(agentId.toString(),
+                             blackboard, createSubscriptionSupport(),
+                             monitorRequest.unaryPredicate,
+                             new XmlIncrement(monitorRequest.xmlEncoder),
+                             null, stream, channel);
+        String thisSession;
+        synchronized (sessionMap)
+        {
+          thisSession = nextId();
+          sessionMap.put(thisSession, kaSession);
+        }
+
+        // the connection may have failed meanwhile, in which case no one
+        // else will cancel this session
+        if (stream.isClosed())
+        {
+          Object state;
+          synchronized (sessionMap)
+          {
+            state = sessionMap.remove(thisSession);
+          }
+          if (state != null)
+            kaSession.cancel();
+          out.println(-1);
+          return;
+        }
+        out.println("<session_created id=\"" + thisSession + "\" />");
+      }
+      catch (Exception e) {
+        if (log.isDebugEnabled()) log.debug("doPut:  bad session request", e);
+        out.println(-1);
+      }
+      finally {
+        out.flush();
+      }
+    }
+  }
+
+  // Tell whether a session is already using the given channel of a
+  // multiplexed connection
+  private boolean isChannelUsed(KeepAliveWriter.Stream stream, int channel) {
+    synchronized (sessionMap) {
+      for (Iterator i = sessionMap.values().iterator(); i.hasNext(); ) {
+        Object state = i.next();
+        if (state instanceof KeepAliveSession &&
+            ((KeepAliveSession) state).stream == stream &&
+            ((KeepAliveSession) state).channel == channel)
+          return true;
+      }
+      return false;
+    }
   }
 
   private class KeepAliveSession extends RemoteSession
     implements SubscriptionListener
   {
     PrintWriter out = null;
+    KeepAliveWriter.Stream stream = null;
+    int channel = KeepAliveWriter.CONTROL_CHANNEL;
     Subscription rawData = null;
     SubscriptionAccess data = null;
     SubscriptionMonitorSupport sms = null;
@@ -168,11 +448,23 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
     KeepAliveSession(String agentId, BlackboardService blackboard,
                      SubscriptionMonitorSupport sms,
                      UnaryPredicate predicate, IncrementFormat format,
-                     PrintWriter out)
+                     PrintWriter out, KeepAliveWriter.Stream stream)
+    {
+      this(agentId, blackboard, sms, predicate, format, out, stream,
+        KeepAliveWriter.CONTROL_CHANNEL);
+    }
+
+    KeepAliveSession(String agentId, BlackboardService blackboard,
+                     SubscriptionMonitorSupport sms,
+                     UnaryPredicate predicate, IncrementFormat format,
+                     PrintWriter out, KeepAliveWriter.Stream stream,
+                     int channel)
     {
       super("", "", format);
       setAgentId(agentId);
       this.out = out;
+      this.stream = stream;
+      this.channel = channel;
       this.sms = sms;
 
       // This is a separate transaction from the one that calls
@@ -201,9 +493,16 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
      *  (since it is called from BlackboardServletComponent.execute() method;
      *   it is in a separate blackboard transaction from the constructor and
      *   cancel method)
+     *
+     *  If the session has a Stream, the update is only queued there, to be
+     *  written by the writer pool.
      */
     public void subscriptionChanged (Subscription sub) {
-      if (out != null) {
+      if (stream != null) {
+        stream.post(channel, createUpdateDelta().toXml() +
+          System.getProperty("line.separator"));
+      }
+      else if (out != null) {
         synchronized (out) {
           sendUpdate(out);
           endMessage(out);
@@ -219,7 +518,8 @@ public class AggregationKeepAliveComponent extends BlackboardServletComponent {
      *  This is called from the execute() method, don't open a transaction.
      */
     public void sendUpdate (PrintWriter out) {
-      out.println(createUpdateDelta().toXml());
+      createUpdateDelta().includeXml(new InverseSax(out));
+      out.println();
       out.flush();
     }
 
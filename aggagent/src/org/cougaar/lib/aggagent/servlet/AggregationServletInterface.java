@@ -27,7 +27,9 @@ package org.cougaar.lib.aggagent.servlet;
 
 import java.io.PrintWriter;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
@@ -41,7 +43,10 @@ import org.cougaar.core.service.UIDService;
 import org.cougaar.lib.aggagent.query.AggregationQuery;
 import org.cougaar.lib.aggagent.query.AggregationResultSet;
 import org.cougaar.lib.aggagent.query.Alert;
+import org.cougaar.lib.aggagent.query.QueryRegistry;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.session.XmlTransferable;
+import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.util.UnaryPredicate;
 
 public abstract class AggregationServletInterface
@@ -50,6 +55,8 @@ public abstract class AggregationServletInterface
   private SubscriptionMonitorSupport subscriptionMonitorSupport;
   private long timeoutDefault = 0;  // this can be overridden by argument to waitForAndReturnResults
   private UIDService uidService = null;
+  private QueryRegistry queryRegistry = null;
+  private TransientQueryPool transientPool = null;
   
   public AggregationServletInterface (
                         BlackboardService blackboard,
@@ -73,6 +80,22 @@ public abstract class AggregationServletInterface
   protected UIDService getUIDService() {
     return uidService;
   }
+
+  /**
+   * Provide the registry through which queries on this agent's blackboard
+   * can be found by ID.  Without one, the blackboard is searched instead.
+   */
+  public void setQueryRegistry(QueryRegistry queryRegistry) {
+    this.queryRegistry = queryRegistry;
+  }
+
+  /**
+   * Provide the pool on which transient queries are run.  Without one, they
+   * are run on the thread that handles the request.
+   */
+  void setTransientQueryPool(TransientQueryPool transientPool) {
+    this.transientPool = transientPool;
+  }
   
   public abstract void handleRequest(PrintWriter out,
                                      HttpServletRequest request);
@@ -194,6 +217,58 @@ public abstract class AggregationServletInterface
     }
   }
 
+  /**
+   * Publish a transient query, wait for its results and print them.  If the
+   * transient query pool is saturated or shut down, the query is not
+   * published at all, and false is returned; the caller should then print an
+   * error response.
+   */
+  protected boolean runTransientQuery(final QueryResultAdapter qra,
+                                      final PrintWriter out,
+                                      final boolean xml)
+  {
+    Runnable task = new Runnable() {
+        public void run() {
+          AggregationQuery aq = qra.getQuery();
+          publishAdd(qra);
+          if (aq.timeoutSupplied())
+            waitForAndReturnResults(qra.getID(), out, xml, aq.getTimeout());
+          else
+            waitForAndReturnResults(qra.getID(), out, xml);
+        }
+      };
+    return runOnPool(task);
+  }
+
+  /**
+   * Publish a transient query and stream its results as they arrive (see
+   * streamResults).  As with runTransientQuery, false is returned if the
+   * transient query pool is saturated.
+   */
+  protected boolean runStreamingQuery(final QueryResultAdapter qra,
+                                      final PrintWriter out)
+  {
+    Runnable task = new Runnable() {
+        public void run() {
+          AggregationQuery aq = qra.getQuery();
+          if (aq.timeoutSupplied())
+            streamResults(qra, out, aq.getTimeout());
+          else
+            streamResults(qra, out, timeoutDefault);
+        }
+      };
+    return runOnPool(task);
+  }
+
+  private boolean runOnPool(Runnable task)
+  {
+    if (transientPool == null) {
+      task.run();
+      return true;
+    }
+    return transientPool.run(task);
+  }
+
   protected void waitForAndReturnResults(String queryId,
                                          PrintWriter out, boolean xml)
   {
@@ -270,7 +345,7 @@ public abstract class AggregationServletInterface
     unsubscribe(s);
     if (xml)
     {
-      out.println(results.toXml());
+      printXml(out, results);
     }
     else
     {
@@ -279,6 +354,120 @@ public abstract class AggregationServletInterface
     removeQuery(cl.changedQra);
   }
 
+  // Notes that the watched query has changed, so that a waiting thread can
+  // look at it again.  The flag is kept until the waiter has seen it, so a
+  // change that happens while the waiter is busy is not lost.
+  private static class ProgressListener implements SubscriptionListener
+  {
+    private boolean changed = false;
+
+    public synchronized void subscriptionChanged(Subscription s)
+    {
+      changed = true;
+      this.notify();
+    }
+
+    public synchronized void waitForChange(long timeout)
+    {
+      try {
+        if (!changed)
+          this.wait(timeout);
+      }
+      catch (InterruptedException bla) { }
+      changed = false;
+    }
+  }
+
+  /**
+   * Publish a transient query and write its results as they are applied,
+   * instead of waiting for the slowest agent.  Each time more agents have
+   * responded, a frame is written, followed by a form feed:  for a query
+   * without an aggregator, the contribution of each newly responding agent
+   * (see AggregationResultSet.toXml(String)); otherwise, the current
+   * aggregated result set.  When every agent has responded, or the timeout
+   * has passed, a final query_complete frame lists the agents that did not
+   * respond, and the query is removed.
+   */
+  protected void streamResults(QueryResultAdapter qra, PrintWriter out,
+                               long timeout)
+  {
+    ProgressListener pl = new ProgressListener();
+    Subscription s = null;
+    try {
+      blackboard.openTransaction();
+      s = blackboard.subscribe(new QuerySeeker(qra.getID()));
+      subscriptionMonitorSupport.setSubscriptionListener(s, pl);
+      blackboard.publishAdd(qra);
+    } finally {
+      blackboard.closeTransaction();
+    }
+
+    AggregationResultSet raw = qra.getRawResultSet();
+    boolean aggregated = qra.getResultSet() != raw;
+    long deadline = (timeout > 0 ? System.currentTimeMillis() + timeout : 0);
+    Set sent = new HashSet();
+    while (!out.checkError()) {
+      Set fresh = raw.getRespondingClusters();
+      fresh.removeAll(sent);
+      if (!fresh.isEmpty()) {
+        if (aggregated) {
+          qra.getResultSet().includeXml(new InverseSax(out));
+          endFrame(out);
+        }
+        else {
+          for (Iterator i = fresh.iterator(); i.hasNext(); ) {
+            raw.includeXml(new InverseSax(out), (String) i.next());
+            endFrame(out);
+          }
+        }
+        sent.addAll(fresh);
+      }
+      if (qra.allClustersResponded())
+        break;
+
+      long wait = 0;
+      if (deadline > 0) {
+        wait = deadline - System.currentTimeMillis();
+        if (wait <= 0)
+          break;
+      }
+      pl.waitForChange(wait);
+    }
+
+    Set responded = raw.getRespondingClusters();
+    InverseSax doc = new InverseSax(out);
+    doc.addElement(QueryResultAdapter.QUERY_COMPLETE_TAG);
+    doc.addAttribute(AggregationResultSet.QUERY_ID_ATT, qra.getID());
+    for (Enumeration en = qra.getQuery().getSourceClusters();
+         en.hasMoreElements(); )
+    {
+      String clusterID = (String) en.nextElement();
+      if (!responded.contains(clusterID))
+        doc.addTextElement(QueryResultAdapter.MISSING_CLUSTER_TAG, clusterID);
+    }
+    doc.endElement();
+    endFrame(out);
+
+    unsubscribe(s);
+    removeQuery(qra);
+  }
+
+  private static void endFrame(PrintWriter out)
+  {
+    out.print('\f');
+    out.flush();
+  }
+
+  /**
+   * Write the XML for an object, followed by a line break, directly to the
+   * output rather than first building the whole document in memory.
+   */
+  protected static void printXml(PrintWriter out, XmlTransferable x)
+  {
+    x.includeXml(new InverseSax(out));
+    out.println();
+  }
+
   // Remove the query from the logplan as well as any Alerts that depend on it
   protected void removeQuery (QueryResultAdapter q)
   {
@@ -287,6 +476,8 @@ public abstract class AggregationServletInterface
       for (Iterator i = q.getAlerts(); i.hasNext(); )
         blackboard.publishRemove(i.next());
       blackboard.publishRemove(q);
+      if (queryRegistry != null)
+        queryRegistry.remove(q);
     } catch (Exception e) {
       e.printStackTrace();
     } finally {
@@ -314,19 +505,31 @@ public abstract class AggregationServletInterface
    */
   protected QueryResultAdapter findQuery(String queryId)
   {
-    Iterator qras = query(new QuerySeeker(queryId)).iterator();
+    Iterator qras = findQueries(queryId).iterator();
     return qras.hasNext() ? (QueryResultAdapter)qras.next() : null;
   }
 
+  /**
+   * Get the QueryResultAdapters for the given query id.  The registry is
+   * consulted first; the blackboard is searched only if it has no entry,
+   * as is the case for a query the AggregationPlugin has not yet seen.
+   */
+  private Collection findQueries(String queryId)
+  {
+    if (queryRegistry != null) {
+      QueryResultAdapter qra = queryRegistry.get(queryId);
+      if (qra != null)
+        return Collections.singleton(qra);
+    }
+    return query(new QuerySeeker(queryId));
+  }
+
   // used to be "removeQuery" --
   // find the query matching the specified ID and remove it from the logplan
   protected void findAndRemoveQuery (String queryId)
   {
     // find query adapter on log plan
-    blackboard.openTransaction();
-    Collection qs = blackboard.query(new QuerySeeker(queryId));
-    blackboard.closeTransaction();
-    Iterator qi = qs.iterator();
+    Iterator qi = findQueries(queryId).iterator();
 
     // remove all queries matching query id
     while (qi.hasNext())
@@ -337,10 +540,7 @@ public abstract class AggregationServletInterface
   protected void findAndUpdateQuery (String queryId, AggregationQuery aq)
   {
     // find query adapter on log plan
-    blackboard.openTransaction();
-    Collection qs = blackboard.query(new QuerySeeker(queryId));
-    blackboard.closeTransaction();
-    Iterator qi = qs.iterator();
+    Iterator qi = findQueries(queryId).iterator();
 
     // remove all queries matching query id
     while (qi.hasNext()) {
@@ -39,12 +39,15 @@ import org.cougaar.core.service.UIDService;
 import org.cougaar.core.service.wp.WhitePagesService;
 import org.cougaar.core.wp.ListAllAgents;
 import org.cougaar.lib.aggagent.query.AggregationQuery;
+import org.cougaar.lib.aggagent.query.AggregationResultSet;
 import org.cougaar.lib.aggagent.query.Alert;
 import org.cougaar.lib.aggagent.query.AlertDescriptor;
 import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
 import org.cougaar.lib.aggagent.session.SessionManager;
 import org.cougaar.lib.aggagent.session.XMLEncoder;
 import org.cougaar.lib.aggagent.session.XmlIncrement;
+import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.lib.aggagent.util.XmlUtils;
 import org.cougaar.lib.aggagent.util.Enum.QueryType;
 import org.cougaar.util.UnaryPredicate;
@@ -112,7 +115,8 @@ public class AggregationXMLInterface extends AggregationServletInterface
     out.println("<queries>");
     for (Iterator i = qs.iterator(); i.hasNext();)
     {
-      out.println(((QueryResultAdapter)i.next()).toWholeXml());
+      ((QueryResultAdapter)i.next()).includeWholeXml(new InverseSax(out));
+      out.println();
     }
     out.println("</queries>");
   }
@@ -128,7 +132,7 @@ public class AggregationXMLInterface extends AggregationServletInterface
     {
       Alert a = (Alert)i.next();
       AlertDescriptor ad = new AlertDescriptor(a);
-      out.println(ad.toXml());
+      printXml(out, ad);
     }
     out.println("</alerts>");
   }
@@ -169,25 +173,28 @@ public class AggregationXMLInterface extends AggregationServletInterface
   }
 
   /**
-   * publish a new query based on incoming XML.
+   * publish a new query based on incoming XML.  If the STREAM parameter is
+   * present, a transient query's results are streamed as they arrive.
    */
   private void publishXMLQuery (HttpServletRequest request, PrintWriter out) {
     try {
       Element root = XmlUtils.parse(request.getInputStream());
       AggregationQuery aq = new AggregationQuery(root);
       QueryResultAdapter qra = new QueryResultAdapter(aq, getUIDService().nextUID());
-      publishAdd(qra);
 
       if (aq.getType() == QueryType.PERSISTENT)
       {
+        publishAdd(qra);
         out.println(qra.getID());
       }
-      else
+      else if (request.getParameter("STREAM") != null)
       {
-        if (aq.timeoutSupplied())
-          waitForAndReturnResults(qra.getID(), out, true, aq.getTimeout());
-        else
-          waitForAndReturnResults(qra.getID(), out, true);
+        if (!runStreamingQuery(qra, out))
+          out.println(-1);
+      }
+      else if (!runTransientQuery(qra, out, true))
+      {
+        out.println(-1);
       }
     }
     catch (Exception e)
@@ -276,7 +283,9 @@ public class AggregationXMLInterface extends AggregationServletInterface
   }
 
   /**
-   * Return an up to date AggregationResultSet for given query id
+   * Return an up to date AggregationResultSet for given query id.  If the
+   * SINCE parameter gives the version of the client's copy, only the changes
+   * made since then are returned, unless they are no longer known.
    */
   private void getResultSet(HttpServletRequest request, PrintWriter out) {
     String id = request.getParameter("QUERY_ID");
@@ -284,11 +293,26 @@ public class AggregationXMLInterface extends AggregationServletInterface
     if (qra == null)
     {
       out.println("<result_set_not_found />");
+      return;
     }
-    else
+
+    AggregationResultSet rs = qra.getResultSet();
+    String since = request.getParameter("SINCE");
+    if (since != null)
     {
-      out.println(qra.getResultSet().toXml());
+      try {
+        ResultSetChanges changes = rs.getChangesSince(Long.parseLong(since));
+        if (!changes.isFull())
+        {
+          printXml(out, changes);
+          return;
+        }
+      }
+      catch (NumberFormatException nfe) {
+        // send the whole result set instead
+      }
     }
+    printXml(out, rs);
   }
 
   /**
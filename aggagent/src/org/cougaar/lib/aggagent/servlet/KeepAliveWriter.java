@@ -0,0 +1,313 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.servlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ *  KeepAliveWriter serves the output of any number of keep-alive sessions
+ *  with a small, fixed pool of writer threads.  Each session is represented
+ *  by a Stream, to which messages are posted without blocking; the messages
+ *  of a Stream are written in order, by one writer thread at a time, each
+ *  followed by a form feed.  A single Timer posts the keep-alive
+ *  acknowledgement to every open Stream at regular intervals, so that a dead
+ *  connection is eventually noticed even when there are no updates to send;
+ *  it is not posted to a Stream that already has messages waiting.
+ *  <br><br>
+ *  A Stream whose client does not keep up is closed once the messages waiting
+ *  to be written to it exceed MAX_BACKLOG characters (configured by the
+ *  system property org.cougaar.lib.aggagent.keepAliveBacklog), so that a
+ *  stalled client cannot consume memory without limit.  The session is then
+ *  ended as if the connection had failed.
+ *  <br><br>
+ *  A framed Stream (see openFramed) carries the messages of many sessions
+ *  over one connection.  Each message is written as a frame:  the number of
+ *  the session's channel and the length of the message, as four-byte
+ *  big-endian integers, followed by the message in UTF-8.  Messages not
+ *  belonging to any session, such as the keep-alive acknowledgement, are
+ *  sent on CONTROL_CHANNEL.
+ */
+class KeepAliveWriter {
+  public static final int CONTROL_CHANNEL = -1;
+
+  public static final int MAX_BACKLOG = Integer.getInteger(
+    "org.cougaar.lib.aggagent.keepAliveBacklog", 4 * 1024 * 1024).intValue();
+
+  private LinkedList ready = new LinkedList();
+  private LinkedList streams = new LinkedList();
+  private Thread[] writers = null;
+  private Timer ticker = null;
+  private boolean running = true;
+
+  /**
+   *  Create a KeepAliveWriter with the given number of writer threads.  The
+   *  tick message is posted to every open Stream once per tick period.
+   */
+  public KeepAliveWriter (int nWriters, final String tick, long tickPeriod) {
+    writers = new Thread[nWriters];
+    for (int i = 0; i < nWriters; i++) {
+      writers[i] = new Thread(new Runnable() {
+          public void run () {
+            serve();
+          }
+        }, "KeepAliveWriter-" + i);
+      writers[i].setDaemon(true);
+      writers[i].start();
+    }
+
+    ticker = new Timer(true);
+    ticker.schedule(new TimerTask() {
+        public void run () {
+          postToAll(tick);
+        }
+      }, tickPeriod, tickPeriod);
+  }
+
+  /**
+   *  Begin serving a new Stream with the given output.
+   */
+  public Stream open (PrintWriter out) {
+    Stream s = new Stream(out, null);
+    synchronized (streams) {
+      streams.add(s);
+    }
+    return s;
+  }
+
+  /**
+   *  Begin serving a new framed Stream with the given output.
+   */
+  public Stream openFramed (OutputStream os) {
+    Stream s = new Stream(null,
+      new DataOutputStream(new BufferedOutputStream(os)));
+    synchronized (streams) {
+      streams.add(s);
+    }
+    return s;
+  }
+
+  /**
+   *  Stop the writer threads and the Timer, and close all open Streams.
+   */
+  public void shutDown () {
+    ticker.cancel();
+    synchronized (ready) {
+      running = false;
+      ready.notifyAll();
+    }
+    LinkedList l;
+    synchronized (streams) {
+      l = new LinkedList(streams);
+    }
+    for (Iterator i = l.iterator(); i.hasNext(); )
+      ((Stream) i.next()).close();
+  }
+
+  private void postToAll (String message) {
+    LinkedList l;
+    synchronized (streams) {
+      l = new LinkedList(streams);
+    }
+    for (Iterator i = l.iterator(); i.hasNext(); )
+      ((Stream) i.next()).postIfIdle(message);
+  }
+
+  private void schedule (Stream s) {
+    synchronized (ready) {
+      ready.addLast(s);
+      ready.notify();
+    }
+  }
+
+  private void serve () {
+    while (true) {
+      Stream s;
+      synchronized (ready) {
+        while (running && ready.isEmpty()) {
+          try {
+            ready.wait();
+          }
+          catch (InterruptedException ie) {
+          }
+        }
+        if (!running)
+          return;
+        s = (Stream) ready.removeFirst();
+      }
+      s.drain();
+    }
+  }
+
+  /**
+   *  A Stream is the output channel of one keep-alive session.
+   */
+  public class Stream {
+    private PrintWriter out = null;
+    private DataOutputStream framed = null;
+    // queued messages, each preceded by its channel number
+    private LinkedList messages = new LinkedList();
+    // total length of the queued messages
+    private long backlog = 0;
+    // true while this Stream is waiting for or held by a writer thread
+    private boolean scheduled = false;
+    private boolean closed = false;
+    // true if this Stream was closed because its client fell too far behind
+    private boolean overflow = false;
+
+    private Stream (PrintWriter out, DataOutputStream framed) {
+      this.out = out;
+      this.framed = framed;
+    }
+
+    /**
+     *  Queue a message to be written.  Messages posted after the Stream is
+     *  closed are discarded.
+     */
+    public void post (String message) {
+      post(CONTROL_CHANNEL, message);
+    }
+
+    /**
+     *  Queue a message to be written on the given channel.  The channel
+     *  matters only if this is a framed Stream.  If the messages waiting to
+     *  be written would exceed MAX_BACKLOG, then the Stream is closed instead.
+     */
+    public void post (int channel, String message) {
+      post(channel, message, false);
+    }
+
+    // Queue the message only if no others are waiting
+    private void postIfIdle (String message) {
+      post(CONTROL_CHANNEL, message, true);
+    }
+
+    private void post (int channel, String message, boolean ifIdle) {
+      synchronized (this) {
+        if (closed || (ifIdle && !messages.isEmpty()))
+          return;
+        if (backlog + message.length() > MAX_BACKLOG && !messages.isEmpty())
+        {
+          overflow = true;
+        }
+        else {
+          messages.addLast(new Integer(channel));
+          messages.addLast(message);
+          backlog += message.length();
+          if (scheduled)
+            return;
+          scheduled = true;
+        }
+      }
+      if (isOverflowed())
+        close();
+      else
+        schedule(this);
+    }
+
+    // Write the queued messages.  Only one writer thread at a time calls
+    // this method for a given Stream.
+    private void drain () {
+      while (true) {
+        int channel;
+        String message;
+        synchronized (this) {
+          if (closed || messages.isEmpty()) {
+            scheduled = false;
+            return;
+          }
+          channel = ((Integer) messages.removeFirst()).intValue();
+          message = (String) messages.removeFirst();
+          backlog -= message.length();
+        }
+        if (framed != null) {
+          try {
+            byte[] b = message.getBytes("UTF-8");
+            framed.writeInt(channel);
+            framed.writeInt(b.length);
+            framed.write(b);
+            framed.flush();
+          }
+          catch (IOException ioe) {
+            close();
+          }
+        }
+        else {
+          out.print(message);
+          out.print('\f');
+          out.flush();
+          if (out.checkError())
+            close();
+        }
+      }
+    }
+
+    /**
+     *  Close this Stream, discarding any messages not yet written, and wake
+     *  the thread waiting for it to close.
+     */
+    public void close () {
+      synchronized (this) {
+        closed = true;
+        messages.clear();
+        backlog = 0;
+        notifyAll();
+      }
+      synchronized (streams) {
+        streams.remove(this);
+      }
+    }
+
+    public synchronized boolean isClosed () {
+      return closed;
+    }
+
+    /**
+     *  Tell whether this Stream was closed because the messages waiting to be
+     *  written to it exceeded MAX_BACKLOG.
+     */
+    public synchronized boolean isOverflowed () {
+      return overflow;
+    }
+
+    /**
+     *  Wait until this Stream is closed, either explicitly or by an error in
+     *  writing to it.
+     */
+    public synchronized void awaitClose () throws InterruptedException {
+      while (!closed)
+        wait();
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.servlet;
+
+import java.util.LinkedList;
+
+/**
+ *  TransientQueryPool runs transient queries, which may wait a long time for
+ *  their results, on a fixed number of worker threads.  At most a given
+ *  number of queries may be waiting for a worker; beyond that, new queries
+ *  are refused, so that a burst of slow queries cannot tie up every thread
+ *  the servlet container has to offer.
+ */
+class TransientQueryPool {
+  private LinkedList queue = new LinkedList();
+  private int maxQueued = 0;
+  private Thread[] workers = null;
+  private boolean running = true;
+
+  // a queued task, and the means of waiting for it to finish
+  private static class Job {
+    public Runnable task;
+    public boolean done = false;
+    // false if the job was abandoned without being run
+    public boolean ran = false;
+
+    public Job (Runnable r) {
+      task = r;
+    }
+
+    public synchronized void finish (boolean ran) {
+      this.ran = ran;
+      done = true;
+      notifyAll();
+    }
+
+    public synchronized boolean await () {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        }
+        catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+      return ran;
+    }
+  }
+
+  /**
+   *  Create a pool with the given number of worker threads, which will hold
+   *  at most maxQueued tasks waiting for a worker.
+   */
+  public TransientQueryPool (int nWorkers, int maxQueued) {
+    this.maxQueued = maxQueued;
+    workers = new Thread[nWorkers];
+    for (int i = 0; i < nWorkers; i++) {
+      workers[i] = new Thread(new Runnable() {
+          public void run () {
+            serve();
+          }
+        }, "TransientQueryWorker-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   *  Run a task on one of the worker threads and wait for it to finish.  The
+   *  wait is not interrupted, since the task may be writing to the caller's
+   *  output.
+   *  @return false if the task was not run, either because the queue was full
+   *          or because the pool was shut down before it could be run.  The
+   *          caller is responsible for reporting the failure.
+   */
+  public boolean run (Runnable task) {
+    Job job = new Job(task);
+    synchronized (queue) {
+      if (!running || queue.size() >= maxQueued)
+        return false;
+      queue.addLast(job);
+      queue.notify();
+    }
+    return job.await();
+  }
+
+  /**
+   *  Stop the worker threads once they have finished their current tasks.
+   *  Tasks still waiting in the queue are abandoned, and their callers
+   *  are told so (see run()).
+   */
+  public void shutDown () {
+    LinkedList abandoned;
+    synchronized (queue) {
+      running = false;
+      abandoned = new LinkedList(queue);
+      queue.clear();
+      queue.notifyAll();
+    }
+    while (!abandoned.isEmpty())
+      ((Job) abandoned.removeFirst()).finish(false);
+  }
+
+  private void serve () {
+    while (true) {
+      Job job;
+      synchronized (queue) {
+        while (running && queue.isEmpty()) {
+          try {
+            queue.wait();
+          }
+          catch (InterruptedException ie) {
+          }
+        }
+        if (!running)
+          return;
+        job = (Job) queue.removeFirst();
+      }
+      try {
+        job.task.run();
+      }
+      catch (Throwable t) {
+        if (t instanceof ThreadDeath)
+          throw (ThreadDeath) t;
+        t.printStackTrace();
+      }
+      finally {
+        job.finish(true);
+      }
+    }
+  }
+}
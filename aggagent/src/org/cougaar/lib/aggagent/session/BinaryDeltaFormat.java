@@ -0,0 +1,335 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+
+/**
+ *  BinaryDeltaFormat is a compact alternative to the XML representation of an
+ *  UpdateDelta, for use between society agents and an aggregation agent.  It
+ *  applies only to deltas whose contents are ResultSetDataAtoms.
+ *  <br><br>
+ *  The encoding is a sequence of unsigned variable-length integers ("varints",
+ *  seven bits per byte, least significant group first) and strings.  Each
+ *  message carries its own string table:  the first occurrence of a string is
+ *  written as a zero followed by the length and UTF-8 bytes of the string,
+ *  which is thereby entered into the table; later occurrences are written as
+ *  the string's (one-based) index in the table.  Identifier names, which
+ *  recur in every atom, thus occupy only a byte or two apiece.  The layout is
+ *  <pre>
+ *    magic (2 bytes), version, mode,
+ *    agent id, query id, session id, [sequence number,]
+ *    mode INCREMENT:   added atoms, changed atoms, removed atoms
+ *    mode PATCHED:     added atoms, changed atoms, removed atoms,
+ *                      patched atoms
+ *    mode REPLACEMENT: replacement atoms
+ *    mode ERROR:       error report
+ *    [source exceptions]
+ *  </pre>
+ *  where each list of atoms is a count followed by the atoms, and each atom
+ *  is a count of identifiers, the identifiers as name-value pairs, a count of
+ *  values, and the values as name-value pairs.  Mode PATCHED is used only
+ *  when the delta has a patched list, so that deltas without one remain
+ *  readable by decoders that predate it.  Likewise, the sequence number (a
+ *  varint) is present only in version 2, which is used only for numbered
+ *  deltas.  A chunk with more to follow has the MORE bit set in its mode.
+ *  A delta carrying the exceptions of the sender's sources has the
+ *  EXCEPTIONS bit set, and they follow the atoms as a count and then
+ *  agent-description pairs of strings.
+ */
+public class BinaryDeltaFormat {
+  private static final int MAGIC_0 = 'A';
+  private static final int MAGIC_1 = 'D';
+  private static final int VERSION = 1;
+  private static final int SEQUENCED_VERSION = 2;
+
+  private static final int INCREMENT = 0;
+  private static final int REPLACEMENT = 1;
+  private static final int ERROR = 2;
+  private static final int PATCHED = 3;
+  private static final int MORE = 0x10;
+  private static final int EXCEPTIONS = 0x20;
+
+  private static final String ENCODING = "UTF-8";
+
+  /**
+   *  Encode an UpdateDelta in binary form.  An IllegalArgumentException is
+   *  raised if the delta holds anything other than ResultSetDataAtoms.
+   */
+  public static byte[] encode (UpdateDelta del) {
+    Encoder enc = new Encoder();
+    enc.out.write(MAGIC_0);
+    enc.out.write(MAGIC_1);
+    enc.out.write(del.getSequence() > 0 ? SEQUENCED_VERSION : VERSION);
+    int more = del.hasMore() ? MORE : 0;
+    if (!del.isErrorReport() && !del.getSourceExceptions().isEmpty())
+      more |= EXCEPTIONS;
+    if (del.isErrorReport()) {
+      enc.out.write(ERROR | more);
+      enc.writeHeader(del);
+      enc.writeString(del.getErrorReport());
+    }
+    else if (del.isReplacement()) {
+      enc.out.write(REPLACEMENT | more);
+      enc.writeHeader(del);
+      enc.writeAtoms(del.getReplacementList());
+    }
+    else {
+      boolean patched = !del.getPatchedList().isEmpty();
+      enc.out.write((patched ? PATCHED : INCREMENT) | more);
+      enc.writeHeader(del);
+      enc.writeAtoms(del.getAddedList());
+      enc.writeAtoms(del.getChangedList());
+      enc.writeAtoms(del.getRemovedList());
+      if (patched)
+        enc.writeAtoms(del.getPatchedList());
+    }
+    if ((more & EXCEPTIONS) != 0)
+      enc.writeExceptions(del.getSourceExceptions());
+    return enc.out.toByteArray();
+  }
+
+  /**
+   *  Reconstitute an UpdateDelta from its binary encoding.
+   */
+  public static UpdateDelta decode (byte[] buf) throws IOException {
+    Decoder dec = new Decoder(buf);
+    if (dec.readByte() != MAGIC_0 || dec.readByte() != MAGIC_1)
+      throw new IOException("Not a binary UpdateDelta");
+    int version = dec.readByte();
+    if (version != VERSION && version != SEQUENCED_VERSION)
+      throw new IOException("Unsupported binary UpdateDelta version " + version);
+
+    int mode = dec.readByte();
+    UpdateDelta ret = new UpdateDelta(
+      dec.readString(), dec.readString(), dec.readString());
+    ret.setMore((mode & MORE) != 0);
+    boolean exceptions = (mode & EXCEPTIONS) != 0;
+    mode &= ~(MORE | EXCEPTIONS);
+    if (version == SEQUENCED_VERSION)
+      ret.setSequence(dec.readVarlong());
+    if (mode == ERROR) {
+      ret.setErrorReport(dec.readString());
+    }
+    else if (mode == REPLACEMENT) {
+      ret.setReplacement(true);
+      dec.readAtoms(ret.getReplacementList());
+    }
+    else if (mode == INCREMENT || mode == PATCHED) {
+      ret.setReplacement(false);
+      dec.readAtoms(ret.getAddedList());
+      dec.readAtoms(ret.getChangedList());
+      dec.readAtoms(ret.getRemovedList());
+      if (mode == PATCHED)
+        dec.readAtoms(ret.getPatchedList());
+    }
+    else {
+      throw new IOException("Unknown binary UpdateDelta mode " + mode);
+    }
+    if (exceptions)
+      dec.readExceptions(ret.getSourceExceptions());
+    return ret;
+  }
+
+  private static class Encoder {
+    public ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    private Map table = new HashMap();
+
+    public void writeVarint (int n) {
+      while ((n & ~0x7f) != 0) {
+        out.write((n & 0x7f) | 0x80);
+        n >>>= 7;
+      }
+      out.write(n);
+    }
+
+    public void writeVarlong (long n) {
+      while ((n & ~0x7fL) != 0) {
+        out.write((int) (n & 0x7f) | 0x80);
+        n >>>= 7;
+      }
+      out.write((int) n);
+    }
+
+    public void writeString (String s) {
+      if (s == null)
+        s = "";
+      Integer ref = (Integer) table.get(s);
+      if (ref != null) {
+        writeVarint(ref.intValue());
+        return;
+      }
+      table.put(s, new Integer(table.size() + 1));
+      byte[] b = null;
+      try {
+        b = s.getBytes(ENCODING);
+      }
+      catch (UnsupportedEncodingException uee) {
+        throw new RuntimeException(uee.toString());
+      }
+      writeVarint(0);
+      writeVarint(b.length);
+      out.write(b, 0, b.length);
+    }
+
+    public void writeHeader (UpdateDelta del) {
+      writeString(del.getAgentId());
+      writeString(del.getQueryId());
+      writeString(del.getSessionKey());
+      if (del.getSequence() > 0)
+        writeVarlong(del.getSequence());
+    }
+
+    public void writeExceptions (Map m) {
+      writeVarint(m.size());
+      for (Iterator i = m.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        writeString(e.getKey().toString());
+        writeString(e.getValue().toString());
+      }
+    }
+
+    public void writeAtoms (List atoms) {
+      writeVarint(atoms.size());
+      for (Iterator i = atoms.iterator(); i.hasNext(); ) {
+        Object o = i.next();
+        if (!(o instanceof ResultSetDataAtom))
+          throw new IllegalArgumentException(
+            "Cannot encode " + o.getClass().getName() + " in binary");
+        ResultSetDataAtom atom = (ResultSetDataAtom) o;
+
+        List names = toList(atom.getIdentifierNames());
+        writeVarint(names.size());
+        for (Iterator j = names.iterator(); j.hasNext(); ) {
+          Object name = j.next();
+          writeString(name.toString());
+          writeString(atom.getIdentifier(name).toString());
+        }
+
+        names = toList(atom.getValueNames());
+        writeVarint(names.size());
+        for (Iterator j = names.iterator(); j.hasNext(); ) {
+          Object name = j.next();
+          writeString(name.toString());
+          writeString(atom.getValue(name).toString());
+        }
+      }
+    }
+
+    private static List toList (Iterator i) {
+      List ret = new ArrayList();
+      while (i.hasNext())
+        ret.add(i.next());
+      return ret;
+    }
+  }
+
+  private static class Decoder {
+    private byte[] buf;
+    private int pos = 0;
+    private List table = new ArrayList();
+
+    public Decoder (byte[] b) {
+      buf = b;
+    }
+
+    public int readByte () throws IOException {
+      if (pos >= buf.length)
+        throw new IOException("Binary UpdateDelta is truncated");
+      return buf[pos++] & 0xff;
+    }
+
+    public int readVarint () throws IOException {
+      int ret = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = readByte();
+        ret |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0)
+          return ret;
+      }
+      throw new IOException("Malformed varint in binary UpdateDelta");
+    }
+
+    public long readVarlong () throws IOException {
+      long ret = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        ret |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0)
+          return ret;
+      }
+      throw new IOException("Malformed varint in binary UpdateDelta");
+    }
+
+    public String readString () throws IOException {
+      int ref = readVarint();
+      if (ref > 0) {
+        if (ref > table.size())
+          throw new IOException("Bad string reference in binary UpdateDelta");
+        return (String) table.get(ref - 1);
+      }
+      int len = readVarint();
+      if (len < 0 || len > buf.length - pos)
+        throw new IOException("Binary UpdateDelta is truncated");
+      String s = new String(buf, pos, len, ENCODING);
+      pos += len;
+      table.add(s);
+      return s;
+    }
+
+    public void readExceptions (Map m) throws IOException {
+      int n = readVarint();
+      for (int i = 0; i < n; i++) {
+        String agent = readString();
+        m.put(agent, readString());
+      }
+    }
+
+    public void readAtoms (List l) throws IOException {
+      int n = readVarint();
+      for (int i = 0; i < n; i++) {
+        ResultSetDataAtom atom = new ResultSetDataAtom();
+        int k = readVarint();
+        for (int j = 0; j < k; j++)
+          atom.addIdentifier(readString(), readString());
+        k = readVarint();
+        for (int j = 0; j < k; j++)
+          atom.addValue(readString(), readString());
+        l.add(atom);
+      }
+    }
+  }
+}
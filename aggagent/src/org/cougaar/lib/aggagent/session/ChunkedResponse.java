@@ -0,0 +1,153 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  ChunkedResponse encodes the results of a transient query as a series of
+ *  UpdateDeltas ("chunks") of bounded size, rather than as a single delta.
+ *  The objects matching the query are gathered at the outset, but each is
+ *  encoded only when the chunk containing it is produced, so that no more
+ *  than one chunk's worth of encoded data need exist at a time.  The size of
+ *  a chunk is given as a number of objects, since the IncrementFormat
+ *  decides how many atoms each object yields.
+ *  <br><br>
+ *  The chunks are numbered from one (see UpdateDelta.getSequence()), and
+ *  all but the last are marked as having more to follow (see
+ *  UpdateDelta.hasMore()).  If the IncrementFormat produces a replacement,
+ *  only the first chunk is sent as such, and the contents of the rest are
+ *  sent as additions.  An error in encoding any chunk ends the series with
+ *  an error report.
+ */
+public class ChunkedResponse {
+  private String agentId = null;
+  private String queryId = null;
+  private IncrementFormat formatter = null;
+  private List objects = null;
+  private int chunkSize = 0;
+
+  // the index of the next object to be encoded
+  private int next = 0;
+  private long sequence = 0;
+  private boolean finished = false;
+
+  /**
+   *  Create a ChunkedResponse for the given objects, which are to be encoded
+   *  by an IncrementFormat no more than "size" at a time.
+   */
+  public ChunkedResponse (String agent, String query, IncrementFormat f,
+      Collection c, int size)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException("chunk size must be positive");
+    agentId = agent;
+    queryId = query;
+    formatter = f;
+    objects = new ArrayList(c);
+    chunkSize = size;
+  }
+
+  /**
+   *  Report the sequence number of the last chunk produced, or zero if none
+   *  has been.
+   */
+  public long getSequence () {
+    return sequence;
+  }
+
+  /**
+   *  Tell whether the last chunk has been produced.
+   */
+  public boolean isFinished () {
+    return finished;
+  }
+
+  /**
+   *  Encode the next chunk of objects.  An IllegalStateException is raised
+   *  if the last chunk has already been produced.
+   */
+  public UpdateDelta nextChunk () {
+    if (finished)
+      throw new IllegalStateException("no more chunks");
+
+    int end = Math.min(next + chunkSize, objects.size());
+    UpdateDelta del = new UpdateDelta(agentId, queryId, "");
+    del.setSequence(++sequence);
+    try {
+      formatter.encode(del, new Slice(objects.subList(next, end)));
+      if (sequence > 1 && del.isReplacement()) {
+        del.setReplacement(false);
+        del.getChangedList().clear();
+        del.getRemovedList().clear();
+      }
+    }
+    catch (Throwable err) {
+      if (err instanceof ThreadDeath)
+        throw (ThreadDeath) err;
+      del.setErrorReport(err);
+      end = objects.size();
+    }
+
+    // release the objects already encoded
+    for (; next < end; next++)
+      objects.set(next, null);
+    finished = next >= objects.size();
+    if (finished)
+      objects = null;
+    del.setMore(!finished);
+    return del;
+  }
+
+  // presents a portion of the results as if newly added to a subscription
+  private static class Slice implements SubscriptionAccess {
+    private Collection added = null;
+
+    public Slice (Collection c) {
+      added = Collections.unmodifiableCollection(c);
+    }
+
+    public Collection getAddedCollection () {
+      return added;
+    }
+
+    public Collection getChangedCollection () {
+      return Collections.EMPTY_LIST;
+    }
+
+    public Collection getRemovedCollection () {
+      return Collections.EMPTY_LIST;
+    }
+
+    public Collection getMembership () {
+      return added;
+    }
+  }
+}
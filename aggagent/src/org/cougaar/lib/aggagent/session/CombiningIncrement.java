@@ -0,0 +1,104 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.cougaar.lib.aggagent.query.BatchAggregator;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+
+/**
+ *  CombiningIncrement is an IncrementFormat that wraps another and, rather
+ *  than sending the atoms that one produces, melds them at the source into
+ *  partial atoms (see MergeableMelder).  A BatchAggregator collates the raw
+ *  atoms and remembers the groups between calls, so each UpdateDelta carries
+ *  only the partials of the groups that have changed, and the removal of
+ *  those that have vanished.  The aggregation agent merges the partials from
+ *  all of the sources into the final result.
+ *  <br><br>
+ *  Since each instance holds the groups of one session, instances must not
+ *  be shared between sessions.
+ */
+public class CombiningIncrement implements IncrementFormat {
+  private IncrementFormat delegate = null;
+  private BatchAggregator combiner = null;
+
+  /**
+   *  Create a new CombiningIncrement, which uses the given IncrementFormat to
+   *  encode the subscription data and the given BatchAggregator, whose melder
+   *  must be mergeable, to produce the partial atoms.
+   */
+  public CombiningIncrement (IncrementFormat f, BatchAggregator b) {
+    if (f == null || b == null)
+      throw new IllegalArgumentException("cannot accept a null argument");
+
+    delegate = f;
+    combiner = b;
+    combiner.setProducePartials(true);
+  }
+
+  public void encode (UpdateDelta out, SubscriptionAccess sacc) {
+    UpdateDelta raw = new UpdateDelta(
+      out.getAgentId(), out.getQueryId(), out.getSessionKey());
+    delegate.encode(raw, sacc);
+    if (raw.isErrorReport()) {
+      out.setErrorReport(raw.getErrorReport());
+      return;
+    }
+
+    List retired = new LinkedList();
+    List produced = new LinkedList();
+    if (raw.isReplacement()) {
+      // the replacement list doubles as the added list
+      combiner.clear();
+      raw.setReplacement(false);
+      combiner.update(raw, retired, produced);
+      out.setReplacement(true);
+      out.getReplacementList().addAll(produced);
+      return;
+    }
+
+    combiner.update(raw, retired, produced);
+    out.setReplacement(false);
+    out.getChangedList().addAll(produced);
+
+    // groups no longer producing a partial must be removed at the receiver
+    Set keys = new HashSet();
+    for (Iterator i = produced.iterator(); i.hasNext(); )
+      keys.add(ResultSetChanges.getKey((ResultSetDataAtom) i.next()));
+    for (Iterator i = retired.iterator(); i.hasNext(); ) {
+      ResultSetDataAtom a = (ResultSetDataAtom) i.next();
+      if (keys.add(ResultSetChanges.getKey(a)))
+        out.getRemovedList().add(a);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.lib.aggagent.query.CompoundKey;
+import org.cougaar.lib.aggagent.query.ProbeKey;
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+
+/**
+ *  FieldDiffIncrement is an IncrementFormat that wraps another and reduces
+ *  the atoms in the "changed" list of each UpdateDelta to field-level diffs.
+ *  It remembers the values last sent for each atom (as distinguished by its
+ *  identifiers), and when a changed atom is encoded again, only those values
+ *  that differ are sent, as a partial atom in the delta's "patched" list.
+ *  The receiving result set applies these to the atoms it already holds.
+ *  <br><br>
+ *  A changed atom is sent whole if it has not been sent before or if any of
+ *  its former values has been dropped, and it is not sent at all if none of
+ *  its values has changed.  Values are compared by their String forms, as
+ *  that is how they are transmitted.
+ *  <br><br>
+ *  The values of at most MEMORY_LIMIT atoms are remembered (configured by the
+ *  system property org.cougaar.lib.aggagent.fieldDiffMemory); those of the
+ *  atoms least recently sent are forgotten first, and such atoms are sent
+ *  whole when next they change.
+ *  <br><br>
+ *  Since each instance remembers what was sent to one recipient, instances
+ *  must not be shared between sessions.
+ */
+public class FieldDiffIncrement implements IncrementFormat {
+  public static final int MEMORY_LIMIT =
+    Integer.getInteger("org.cougaar.lib.aggagent.fieldDiffMemory", 4096).intValue();
+
+  private IncrementFormat delegate = null;
+
+  // maps the identifiers of each atom sent to the values last sent for it,
+  // least recently sent first
+  private Map sent = new LinkedHashMap(16, 0.75f, true) {
+      protected boolean removeEldestEntry (Map.Entry eldest) {
+        return size() > MEMORY_LIMIT;
+      }
+    };
+
+  private ProbeKey probe = new ProbeKey();
+
+  /**
+   *  Create a new FieldDiffIncrement, which uses the given IncrementFormat to
+   *  encode the subscription data.
+   */
+  public FieldDiffIncrement (IncrementFormat f) {
+    if (f == null)
+      throw new IllegalArgumentException("cannot accept a null format");
+
+    delegate = f;
+  }
+
+  public void encode (UpdateDelta out, SubscriptionAccess sacc) {
+    delegate.encode(out, sacc);
+    if (out.isErrorReport())
+      return;
+
+    if (out.isReplacement()) {
+      sent.clear();
+      rememberAll(out.getReplacementList());
+      return;
+    }
+
+    rememberAll(out.getAddedList());
+    for (Iterator i = out.getRemovedList().iterator(); i.hasNext(); ) {
+      Object o = i.next();
+      if (o instanceof ResultSetDataAtom)
+        sent.remove(probe.setAll((ResultSetDataAtom) o));
+    }
+
+    List patched = out.getPatchedList();
+    for (Iterator i = out.getChangedList().iterator(); i.hasNext(); ) {
+      Object o = i.next();
+      if (!(o instanceof ResultSetDataAtom))
+        continue;
+      ResultSetDataAtom atom = (ResultSetDataAtom) o;
+      Map old = remember(atom);
+      if (old == null)
+        continue;
+
+      ResultSetDataAtom patch = diff(old, atom);
+      if (patch != null) {
+        i.remove();
+        if (patch.getValueNames().hasNext())
+          patched.add(patch);
+      }
+    }
+  }
+
+  // Create a partial atom with the identifiers of the given atom and those of
+  // its values which differ from the old ones.  Returns null if any old value
+  // is missing from the atom, in which case the whole atom must be sent.
+  private static ResultSetDataAtom diff (Map old, ResultSetDataAtom a) {
+    for (Iterator i = old.keySet().iterator(); i.hasNext(); )
+      if (a.getValue(i.next()) == null)
+        return null;
+
+    ResultSetDataAtom ret = new ResultSetDataAtom();
+    for (Iterator i = a.getIdentifierNames(); i.hasNext(); ) {
+      Object name = i.next();
+      ret.addIdentifier(name, a.getIdentifier(name));
+    }
+    for (Iterator i = a.getValueNames(); i.hasNext(); ) {
+      Object name = i.next();
+      Object val = a.getValue(name);
+      if (!String.valueOf(val).equals(old.get(name)))
+        ret.addValue(name, val);
+    }
+    return ret;
+  }
+
+  private void rememberAll (List atoms) {
+    for (Iterator i = atoms.iterator(); i.hasNext(); ) {
+      Object o = i.next();
+      if (o instanceof ResultSetDataAtom)
+        remember((ResultSetDataAtom) o);
+    }
+  }
+
+  // Record the values sent for an atom, and return those sent before, if any
+  private Map remember (ResultSetDataAtom atom) {
+    Map values = toStrings(atom);
+    probe.setAll(atom);
+    Map old = (Map) sent.get(probe);
+    if (old != null) {
+      sent.put(probe, values);
+      return old;
+    }
+    CompoundKey key = probe.toInternedKey();
+    sent.put(key, values);
+    return null;
+  }
+
+  private static Map toStrings (ResultSetDataAtom atom) {
+    Map ret = new HashMap();
+    for (Iterator i = atom.getValueNames(); i.hasNext(); ) {
+      Object name = i.next();
+      ret.put(name, String.valueOf(atom.getValue(name)));
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.io.Serializable;
+
+import org.cougaar.lib.aggagent.util.InverseSax;
+import org.w3c.dom.Element;
+
+/**
+ *  A PushPolicy governs how often a PUSH session reports to its client.
+ *  Changes to the subscription are accumulated, with the usual cancellation
+ *  of adds, changes, and removes, into a batch that is sent when one of the
+ *  following conditions is met:
+ *  <ul>
+ *    <li>the batch holds at least maxBatch objects (if maxBatch is positive)</li>
+ *    <li>at least minInterval milliseconds have passed since the previous
+ *      report</li>
+ *    <li>maxLatency milliseconds have passed since the first change in the
+ *      batch (if maxLatency is positive), regardless of minInterval</li>
+ *  </ul>
+ *  The default policy, with all three parameters zero, reports every change
+ *  as soon as it is seen.
+ */
+public class PushPolicy implements Serializable {
+  public static final PushPolicy IMMEDIATE = new PushPolicy(0, 0, 0);
+
+  private static String MIN_INTERVAL_ATT = "push_min_interval";
+  private static String MAX_BATCH_ATT = "push_max_batch";
+  private static String MAX_LATENCY_ATT = "push_max_latency";
+
+  private long minInterval = 0;
+  private int maxBatch = 0;
+  private long maxLatency = 0;
+
+  /**
+   *  Create a new PushPolicy with the given parameters.  Intervals are given
+   *  in milliseconds; a zero or negative value disables the corresponding
+   *  condition.
+   */
+  public PushPolicy (long minInterval, int maxBatch, long maxLatency) {
+    this.minInterval = Math.max(0, minInterval);
+    this.maxBatch = Math.max(0, maxBatch);
+    this.maxLatency = Math.max(0, maxLatency);
+  }
+
+  /**
+   *  Create a PushPolicy from the attributes of an XML element, as written by
+   *  the includeXml method.  Missing attributes are taken to be zero.
+   */
+  public PushPolicy (Element root) {
+    this(parseLong(root.getAttribute(MIN_INTERVAL_ATT)),
+      (int) parseLong(root.getAttribute(MAX_BATCH_ATT)),
+      parseLong(root.getAttribute(MAX_LATENCY_ATT)));
+  }
+
+  private static long parseLong (String s) {
+    if (s == null || s.length() == 0)
+      return 0;
+    return Long.parseLong(s);
+  }
+
+  public long getMinInterval () {
+    return minInterval;
+  }
+
+  public int getMaxBatch () {
+    return maxBatch;
+  }
+
+  public long getMaxLatency () {
+    return maxLatency;
+  }
+
+  /**
+   *  Tell whether this policy reports every change immediately.
+   */
+  public boolean isImmediate () {
+    return minInterval == 0 && maxBatch == 0;
+  }
+
+  /**
+   *  Find the time at which a batch should be sent.
+   *  @param pending the number of objects in the batch
+   *  @param firstChange the time of the first change in the batch
+   *  @param lastSent the time of the previous report
+   *  @return the time at which to send the batch, or Long.MAX_VALUE if there
+   *    is nothing to send
+   */
+  public long getSendTime (int pending, long firstChange, long lastSent) {
+    if (pending == 0)
+      return Long.MAX_VALUE;
+    if (isImmediate() || (maxBatch > 0 && pending >= maxBatch))
+      return firstChange;
+
+    long t = Math.max(firstChange, lastSent + minInterval);
+    if (maxLatency > 0)
+      t = Math.min(t, firstChange + maxLatency);
+    return t;
+  }
+
+  /**
+   *  Add the parameters of this policy to the current element of an XML
+   *  document as attributes.  Parameters with value zero are omitted.
+   */
+  public void includeXml (InverseSax doc) {
+    if (minInterval > 0)
+      doc.addAttribute(MIN_INTERVAL_ATT, String.valueOf(minInterval));
+    if (maxBatch > 0)
+      doc.addAttribute(MAX_BATCH_ATT, String.valueOf(maxBatch));
+    if (maxLatency > 0)
+      doc.addAttribute(MAX_LATENCY_ATT, String.valueOf(maxLatency));
+  }
+
+  public String toString () {
+    return "PushPolicy[minInterval=" + minInterval + ", maxBatch=" +
+      maxBatch + ", maxLatency=" + maxLatency + "]";
+  }
+}
@@ -25,9 +25,14 @@
  */
 package org.cougaar.lib.aggagent.session;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.cougaar.core.blackboard.IncrementalSubscription;
 import org.cougaar.core.service.BlackboardService;
@@ -49,6 +54,11 @@ import org.cougaar.util.UnaryPredicate;
  *  transaction, which is started by calling open() and ended by calling
  *  close().  An IllegalStateException may be raised if the expected protocol
  *  is not followed.
+ *  </p><p>
+ *  Between transactions, the pending state of each object (added, changed,
+ *  or removed) is kept in a single identity map, so that each notification
+ *  from the blackboard costs time in proportion to the number of objects it
+ *  mentions rather than the number already pending.
  *  </p>
  */
 public class RemoteBlackboardSubscription implements SubscriptionAccess {
@@ -61,13 +71,16 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
   protected IncrementalSubscription subs = null;
   protected BlackboardService bbs = null;
 
-  private Set added = null;
-  private Set changed = null;
-  private Set removed = null;
+  // pending states of objects in the newStates map
+  private static final Object ADDED = "added";
+  private static final Object CHANGED = "changed";
+  private static final Object REMOVED = "removed";
+
+  private Collection added = null;
+  private Collection changed = null;
+  private Collection removed = null;
 
-  private Set newAdds = new HashSet();
-  private Set newChanges = new HashSet();
-  private Set newRemoves = new HashSet();
+  private Map newStates = new IdentityHashMap();
 
   /**
    *  Create a new RemoteBlackboardSubscription specifying no initialization
@@ -154,6 +167,20 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
     }
   }
 
+  /**
+   *  Report the number of blackboard objects that would appear in the lists
+   *  of the next reporting transaction.  Objects added and later removed, or
+   *  the like, are not counted, as they would not be reported.  This
+   *  operation is not legal during reporting transactions.
+   */
+  public int getPendingCount () {
+    synchronized (lock) {
+      checkDead("getPendingCount");
+      checkOpened("getPendingCount");
+      return newStates.size();
+    }
+  }
+
   /**
    *  Begin a reporting transaction.  Lists of added, changed, and removed
    *  blackboard objects are constructed and held constant until the end of
@@ -171,12 +198,23 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
       checkOpened("open");
 
       opened = true;
-      added = newAdds;
-      changed = newChanges;
-      removed = newRemoves;
-      newAdds = new HashSet();
-      newChanges = new HashSet();
-      newRemoves = new HashSet();
+      List a = new ArrayList();
+      List c = new ArrayList();
+      List r = new ArrayList();
+      for (Iterator i = newStates.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        Object state = e.getValue();
+        if (state == ADDED)
+          a.add(e.getKey());
+        else if (state == CHANGED)
+          c.add(e.getKey());
+        else
+          r.add(e.getKey());
+      }
+      added = Collections.unmodifiableCollection(a);
+      changed = Collections.unmodifiableCollection(c);
+      removed = Collections.unmodifiableCollection(r);
+      newStates = new IdentityHashMap();
       hasNewStuff = false;
     }
   }
@@ -198,7 +236,7 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
 
   /**
    *  This method is legal only during a reporting transaction; calling it at
-   *  another time raises an IllegalStateException.  A Collection view of the
+   *  another time raises an IllegalStateException.  A read-only view of the
    *  list of blackboard Objects added since the start of the last transaction
    *  is returned.
    */
@@ -206,13 +244,13 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
     synchronized (lock) {
       checkDead("getAddedCollection");
       checkClosed("getAddedCollection");
-      return new HashSet(added);
+      return added;
     }
   }
 
   /**
    *  This method is legal only during a reporting transaction; calling it at
-   *  another time raises an IllegalStateException.  A Collection view of the
+   *  another time raises an IllegalStateException.  A read-only view of the
    *  list of blackboard Objects changed since the start of the last
    *  transaction is returned.
    */
@@ -220,13 +258,13 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
     synchronized (lock) {
       checkDead("getChangedCollection");
       checkClosed("getChangedCollection");
-      return new HashSet(changed);
+      return changed;
     }
   }
 
   /**
    *  This method is legal only during a reporting transaction; calling it at
-   *  another time raises an IllegalStateException.  A Collection view of the
+   *  another time raises an IllegalStateException.  A read-only view of the
    *  list of blackboard Objects removed since the start of the last
    *  transaction is returned.
    */
@@ -234,7 +272,7 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
     synchronized (lock) {
       checkDead("getRemovedCollection");
       checkClosed("getRemovedCollection");
-      return new HashSet(removed);
+      return removed;
     }
   }
 
@@ -252,27 +290,30 @@ public class RemoteBlackboardSubscription implements SubscriptionAccess {
     return new HashSet(subs);
   }
 
+  // an addition or removal supersedes any earlier pending state
   private void add (Collection c) {
     synchronized (lock) {
-      newAdds.addAll(c);
-      newRemoves.removeAll(c);
-      newChanges.removeAll(c);
+      for (Iterator i = c.iterator(); i.hasNext(); )
+        newStates.put(i.next(), ADDED);
     }
   }
 
+  // a change is not reported for an object already pending addition or
+  // removal
   private void change (Collection c) {
     synchronized (lock) {
-      newChanges.addAll(c);
-      newChanges.removeAll(newAdds);
-      newChanges.removeAll(newRemoves);
+      for (Iterator i = c.iterator(); i.hasNext(); ) {
+        Object o = i.next();
+        if (!newStates.containsKey(o))
+          newStates.put(o, CHANGED);
+      }
     }
   }
 
   private void remove (Collection c) {
     synchronized (lock) {
-      newRemoves.addAll(c);
-      newAdds.removeAll(c);
-      newChanges.removeAll(c);
+      for (Iterator i = c.iterator(); i.hasNext(); )
+        newStates.put(i.next(), REMOVED);
     }
   }
 
@@ -56,6 +56,9 @@ public abstract class RemoteSession implements Serializable {
   // ID of the local COUGAAR agent
   private String agentId = null;
 
+  // the sequence number of the most recent UpdateDelta
+  private long sequence = 0;
+
   /**
    *  Create a new RemoteSession instance.  It carries an ID for itself and
    *  the associated client-side query.  It also has an IncrementFormat for
@@ -94,6 +97,14 @@ public abstract class RemoteSession implements Serializable {
     return key;
   }
 
+  /**
+   *  Report the sequence number of the most recently created UpdateDelta, or
+   *  zero if none has been created.
+   */
+  public long getSequence () {
+    return sequence;
+  }
+
   /**
    *  Get the SubscriptionAccess implementation containing the data to be
    *  encoded and sent to a client.  Different concrete subclasses will
@@ -104,10 +115,12 @@ public abstract class RemoteSession implements Serializable {
   /**
    *  Encode the data contained in the local SubscriptionAccess and send the
    *  results back to the client.  If an error is detected during the gathering
-   *  process, then an error report is returned in lieu of a data set.
+   *  process, then an error report is returned in lieu of a data set.  Each
+   *  UpdateDelta is numbered one higher than its predecessor.
    */
   protected UpdateDelta createUpdateDelta () {
     UpdateDelta del = new UpdateDelta(agentId, queryId, key);
+    del.setSequence(++sequence);
 
     Iterator errors = getErrorCollection().iterator();
     if (errors.hasNext()) {
@@ -0,0 +1,135 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.cougaar.lib.aggagent.query.AggregationResultSet;
+import org.cougaar.lib.aggagent.query.QueryResultAdapter;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+
+/**
+ *  ResultSetIncrement is an IncrementFormat that reports the contents of the
+ *  result set of a QueryResultAdapter found in the subscription, rather than
+ *  encoding the subscribed objects themselves.  It is used by an aggregation
+ *  agent acting as a source for a higher-level aggregation agent (see
+ *  AggregationQuery.addDelegate()).
+ *  <br><br>
+ *  The first UpdateDelta is a replacement.  Thereafter, the result set is
+ *  compared with a record of what was last sent, and only the atoms added,
+ *  changed, or removed since then are reported.  The result sets passed up
+ *  in this way are those of aggregated queries, and so are generally small.
+ *  They hold partial atoms, since only persistent, combined queries with
+ *  mergeable melders are delegated (see QueryResultAdapter.isMergingPartials).
+ *  Every UpdateDelta also carries the exceptions reported by the delegate's
+ *  own sources.
+ *  <br><br>
+ *  Since each instance remembers what was sent to one recipient, instances
+ *  must not be shared between sessions.
+ */
+public class ResultSetIncrement implements IncrementFormat {
+  // maps the identifiers of each atom sent to the values last sent for it,
+  // or null if nothing has yet been sent
+  private Map sent = null;
+
+  public void encode (UpdateDelta out, SubscriptionAccess sacc) {
+    QueryResultAdapter qra = findQuery(sacc);
+    if (qra == null) {
+      out.setReplacement(false);
+      return;
+    }
+
+    // exceptions are recorded only on the raw result set; they are passed on
+    // along with the data, which the other sources may still be supplying
+    AggregationResultSet raw = qra.getRawResultSet();
+    if (raw.exceptionThrown())
+      out.getSourceExceptions().putAll(raw.getExceptionMap());
+
+    AggregationResultSet rs = qra.getResultSet();
+
+    Map current = new HashMap();
+    Map atoms = new HashMap();
+    for (Iterator i = rs.getAllAtoms(); i.hasNext(); ) {
+      ResultSetDataAtom a = (ResultSetDataAtom) i.next();
+      Map key = ResultSetChanges.getKey(a);
+      current.put(key, toStrings(a));
+      atoms.put(key, a);
+    }
+
+    if (sent == null) {
+      out.setReplacement(true);
+      out.getReplacementList().addAll(atoms.values());
+    }
+    else {
+      out.setReplacement(false);
+      for (Iterator i = current.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        Object old = sent.get(e.getKey());
+        if (old == null)
+          out.getAddedList().add(atoms.get(e.getKey()));
+        else if (!old.equals(e.getValue()))
+          out.getChangedList().add(atoms.get(e.getKey()));
+      }
+      for (Iterator i = sent.keySet().iterator(); i.hasNext(); ) {
+        Map key = (Map) i.next();
+        if (!current.containsKey(key))
+          out.getRemovedList().add(toAtom(key));
+      }
+    }
+    sent = current;
+  }
+
+  private static QueryResultAdapter findQuery (SubscriptionAccess sacc) {
+    for (Iterator i = sacc.getMembership().iterator(); i.hasNext(); ) {
+      Object o = i.next();
+      if (o instanceof QueryResultAdapter)
+        return (QueryResultAdapter) o;
+    }
+    return null;
+  }
+
+  private static Map toStrings (ResultSetDataAtom atom) {
+    Map ret = new HashMap();
+    for (Iterator i = atom.getValueNames(); i.hasNext(); ) {
+      Object name = i.next();
+      ret.put(name, String.valueOf(atom.getValue(name)));
+    }
+    return ret;
+  }
+
+  private static ResultSetDataAtom toAtom (Map key) {
+    ResultSetDataAtom ret = new ResultSetDataAtom();
+    for (Iterator i = key.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry e = (Map.Entry) i.next();
+      ret.addIdentifier(e.getKey(), e.getValue());
+    }
+    return ret;
+  }
+}
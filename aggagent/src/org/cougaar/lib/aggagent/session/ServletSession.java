@@ -31,6 +31,7 @@ import org.cougaar.core.blackboard.Subscription;
 import org.cougaar.core.service.BlackboardService;
 import org.cougaar.lib.aggagent.servlet.SubscriptionListener;
 import org.cougaar.lib.aggagent.servlet.SubscriptionMonitorSupport;
+import org.cougaar.lib.aggagent.util.InverseSax;
 import org.cougaar.util.UnaryPredicate;
 
 /**
@@ -107,7 +108,8 @@ public class ServletSession extends RemoteSession
       del = createUpdateDelta();
       data.close();
     }
-    out.println(del.toXml());
+    del.includeXml(new InverseSax(out));
+    out.println();
     out.flush();
   }
 
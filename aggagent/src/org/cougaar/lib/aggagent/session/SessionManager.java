@@ -27,6 +27,7 @@ package org.cougaar.lib.aggagent.session;
 
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.cougaar.core.service.BlackboardService;
@@ -57,17 +58,24 @@ public class SessionManager {
   }
 
   public Set getKeys () {
-    return sessions.keySet();
+    synchronized (sessions) {
+      return new HashSet(sessions.keySet());
+    }
   }
 
   public String addSession (
       UnaryPredicate p, IncrementFormat f, String queryId)
   {
-    String k = String.valueOf(id_counter++);
+    String k;
+    synchronized (sessions) {
+      k = String.valueOf(id_counter++);
+    }
     ServletSession s = new ServletSession(k, queryId, f);
     s.start(agentId, blackboard, sms, p);
 
-    sessions.put(k, s);
+    synchronized (sessions) {
+      sessions.put(k, s);
+    }
 
     return k;
   }
@@ -78,12 +86,18 @@ public class SessionManager {
       System.out.println(
         "SessionManager::cancelSession:  called on \"" + k + "\"");
     }
-    ServletSession sess = (ServletSession) sessions.remove(k);
-    sess.endSession();
+    ServletSession sess;
+    synchronized (sessions) {
+      sess = (ServletSession) sessions.remove(k);
+    }
+    if (sess != null)
+      sess.endSession();
   }
 
   private ServletSession getSession (String k) {
-    return (ServletSession) sessions.get(k);
+    synchronized (sessions) {
+      return (ServletSession) sessions.get(k);
+    }
   }
 
   public void sendUpdate(String k, PrintWriter out) {
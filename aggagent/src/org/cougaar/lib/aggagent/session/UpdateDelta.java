@@ -28,9 +28,11 @@ package org.cougaar.lib.aggagent.session;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.cougaar.lib.aggagent.query.CompoundKey;
 import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
@@ -58,16 +60,37 @@ import org.w3c.dom.NodeList;
  *  lists), while the latter produces a new result set in its entirety.  The
  *  mode may be set at any time without losing data, but a good practice is to
  *  set the mode once before any content elements are added.
+ *  <br><br>
+ *  In increment mode, there may also be a "patched" list, containing partial
+ *  atoms that carry only those values which have changed since the atom with
+ *  the same identifiers was last sent (see FieldDiffIncrement).
+ *  <br><br>
+ *  A delta from an aggregation agent acting as a delegate (see
+ *  ResultSetIncrement) may also carry, alongside its data, the exceptions
+ *  reported to that agent by its own sources, keyed by agent name.
+ *  <br><br>
+ *  Deltas produced by a RemoteSession are numbered consecutively, starting
+ *  with one, so that the recipient can tell how far it has gotten.  A
+ *  sequence number of zero means that the delta is not numbered.
+ *  <br><br>
+ *  A large response to a transient query may be sent in several deltas, or
+ *  "chunks", numbered in the same way (see ChunkedResponse).  Each chunk but
+ *  the last is marked as having more to follow.
  */
 public class UpdateDelta {
   private static String AGENT_ID = "agent_id";
   private static String QUERY_ID = "query_id";
   private static String SESSION_ID = "session_id";
+  private static String SEQUENCE_ATT = "seq";
+  private static String MORE_ATT = "more";
   private static String ADDED_TAG = "added";
   private static String CHANGED_TAG = "changed";
   private static String REMOVED_TAG = "removed";
+  private static String PATCHED_TAG = "patched";
   private static String REPLACEMENT_TAG = "replacement";
   private static String ERROR_TAG = "error";
+  private static String SOURCE_EXCEPTION_TAG = "source_exception";
+  private static String SOURCE_ATT = "agent";
 
   public static String UPDATE_TAG = "update";
 
@@ -81,10 +104,14 @@ public class UpdateDelta {
   private List addedList = new LinkedList();
   private List changedList = new LinkedList();
   private List removedList = new LinkedList();
+  private List patchedList = new LinkedList();
+  private Map sourceExceptions = new HashMap();
 
   private String cougaarAgentId = null;
   private String queryId = null;
   private String sessionKey = null;
+  private long sequence = 0;
+  private boolean more = false;
 
   /**
    *  Create a new UpdateDelta, presumably for transport to a remote location.
@@ -110,6 +137,8 @@ public class UpdateDelta {
   public UpdateDelta (Element root) {
     this(root.getAttribute(AGENT_ID), root.getAttribute(QUERY_ID),
       root.getAttribute(SESSION_ID));
+    setSequence(parseSequence(root.getAttribute(SEQUENCE_ATT)));
+    setMore("true".equals(root.getAttribute(MORE_ATT)));
 
     NodeList nl = root.getElementsByTagName(ERROR_TAG);
     if (nl.getLength() > 0) {
@@ -126,6 +155,13 @@ public class UpdateDelta {
         loadAtoms(addedList, root.getElementsByTagName(ADDED_TAG));
         loadAtoms(changedList, root.getElementsByTagName(CHANGED_TAG));
         loadAtoms(removedList, root.getElementsByTagName(REMOVED_TAG));
+        loadAtoms(patchedList, root.getElementsByTagName(PATCHED_TAG));
+      }
+      nl = root.getElementsByTagName(SOURCE_EXCEPTION_TAG);
+      for (int i = 0; i < nl.getLength(); i++) {
+        Element e = (Element) nl.item(i);
+        sourceExceptions.put(
+          e.getAttribute(SOURCE_ATT), XmlUtils.getElementText(e));
       }
     }
   }
@@ -143,6 +179,21 @@ public class UpdateDelta {
       l.add(new ResultSetDataAtom((Element) atoms.item(i)));
   }
 
+  /**
+   *  Interpret the text of a sequence number attribute.  A missing or
+   *  malformed attribute yields zero, i.e., no sequence number.
+   */
+  static long parseSequence (String s) {
+    if (s == null || s.length() == 0)
+      return 0;
+    try {
+      return Long.parseLong(s);
+    }
+    catch (NumberFormatException nfe) {
+      return 0;
+    }
+  }
+
   public String getAgentId () {
     return cougaarAgentId;
   }
@@ -151,6 +202,34 @@ public class UpdateDelta {
     return queryId;
   }
 
+  public String getSessionKey () {
+    return sessionKey;
+  }
+
+  /**
+   *  Report the position of this delta in the series sent by its session, or
+   *  zero if it is not numbered.
+   */
+  public long getSequence () {
+    return sequence;
+  }
+
+  public void setSequence (long n) {
+    sequence = n;
+  }
+
+  /**
+   *  Tell whether this delta is one of a series of chunks, and more of them
+   *  are to follow.
+   */
+  public boolean hasMore () {
+    return more;
+  }
+
+  public void setMore (boolean b) {
+    more = b;
+  }
+
   public List getAddedList () {
     return addedList;
   }
@@ -163,14 +242,34 @@ public class UpdateDelta {
     return removedList;
   }
 
+  /**
+   *  Provide the list of partial atoms, each of which holds the identifiers
+   *  of an atom previously sent and those of its values that have changed.
+   *  Only meaningful in increment mode.
+   */
+  public List getPatchedList () {
+    return patchedList;
+  }
+
   public List getReplacementList () {
     return addedList;
   }
 
+  /**
+   *  Provide the map of exceptions reported by the sources of the agent that
+   *  sent this delta, from agent name to description.  Meaningful in either
+   *  mode, but not in an error report.
+   */
+  public Map getSourceExceptions () {
+    return sourceExceptions;
+  }
+
   public void clearContents () {
     addedList.clear();
     changedList.clear();
     removedList.clear();
+    patchedList.clear();
+    sourceExceptions.clear();
   }
 
   public boolean isErrorReport () {
@@ -193,6 +292,15 @@ public class UpdateDelta {
     clearContents();
   }
 
+  /**
+   *  Install an error report that has already been rendered as text, as when
+   *  the delta is being read from XML by an UpdateDeltaReader.
+   */
+  void setErrorReport (String s) {
+    errorReport = s;
+    clearContents();
+  }
+
   public boolean isReplacement () {
     return replacementMode;
   }
@@ -227,6 +335,10 @@ public class UpdateDelta {
     doc.addAttribute(SESSION_ID, sessionKey);
     doc.addAttribute(QUERY_ID, queryId);
     doc.addAttribute(AGENT_ID, cougaarAgentId);
+    if (sequence > 0)
+      doc.addAttribute(SEQUENCE_ATT, String.valueOf(sequence));
+    if (more)
+      doc.addAttribute(MORE_ATT, "true");
     if (isErrorReport()) {
       doc.addTextElement(ERROR_TAG, errorReport);
     }
@@ -237,6 +349,15 @@ public class UpdateDelta {
       sendBunch(addedList, ADDED_TAG, doc);
       sendBunch(changedList, CHANGED_TAG, doc);
       sendBunch(removedList, REMOVED_TAG, doc);
+      if (!patchedList.isEmpty())
+        sendBunch(patchedList, PATCHED_TAG, doc);
+    }
+    if (!isErrorReport()) {
+      for (Iterator i = sourceExceptions.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry e = (Map.Entry) i.next();
+        doc.addEltAttText(SOURCE_EXCEPTION_TAG, SOURCE_ATT,
+          e.getKey().toString(), e.getValue().toString());
+      }
     }
     doc.endElement();
   }
@@ -269,6 +390,7 @@ public class UpdateDelta {
       summarizeList("added", addedList);
       summarizeList("changed", changedList);
       summarizeList("removed", removedList);
+      summarizeList("patched", patchedList);
     }
   }
 
@@ -307,6 +429,18 @@ public class UpdateDelta {
     catch (Exception eek) {
       System.out.println("  - Failed (" + eek + ")");
     }
+
+    System.out.println("Reading XML as a stream:");
+    try {
+      UpdateDelta ud3 = UpdateDeltaReader.read(ud.toXml());
+      ud3.summarize();
+
+      System.out.println("Regenerating XML:");
+      System.out.print(ud3.toXml());
+    }
+    catch (Exception eek) {
+      System.out.println("  - Failed (" + eek + ")");
+    }
     System.out.println("<< done >>");
   }
 
@@ -0,0 +1,259 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.session;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+
+/**
+ *  UpdateDeltaReader reconstitutes an UpdateDelta from its XML representation
+ *  without first building a DOM tree.  The document is read with a StAX pull
+ *  parser, and the ResultSetDataAtoms are created as their elements are
+ *  encountered.  The result is the same as that of the UpdateDelta(Element)
+ *  constructor, but the cost in time and memory is proportional to the size
+ *  of the delta rather than to that of its document tree.
+ *  <br><br>
+ *  Within a single document, identifier and value names are shared among
+ *  the atoms that use them, so a large delta does not hold many copies of
+ *  the same few names.
+ */
+public class UpdateDeltaReader implements XMLStreamConstants {
+  private static String AGENT_ID = "agent_id";
+  private static String QUERY_ID = "query_id";
+  private static String SESSION_ID = "session_id";
+  private static String SEQUENCE_ATT = "seq";
+  private static String MORE_ATT = "more";
+  private static String ADDED_TAG = "added";
+  private static String CHANGED_TAG = "changed";
+  private static String REMOVED_TAG = "removed";
+  private static String PATCHED_TAG = "patched";
+  private static String REPLACEMENT_TAG = "replacement";
+  private static String ERROR_TAG = "error";
+  private static String SOURCE_EXCEPTION_TAG = "source_exception";
+  private static String SOURCE_ATT = "agent";
+  private static String ID_TAG = "id";
+  private static String VALUE_TAG = "value";
+  private static String NAME_ATT = "name";
+  private static String VALUE_ATT = "value";
+
+  private static XMLInputFactory factory = null;
+
+  private static synchronized XMLInputFactory getFactory () {
+    if (factory == null) {
+      factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      factory.setProperty(
+        XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+    return factory;
+  }
+
+  private XMLStreamReader in = null;
+  private Map names = new HashMap();
+
+  // the contents found so far; as with the DOM-based constructor, only the
+  // first list of each variety and the first error element are used
+  private List added = null;
+  private List changed = null;
+  private List removed = null;
+  private List patched = null;
+  private List replacement = null;
+  private StringBuffer error = null;
+  private Map sourceExceptions = new HashMap();
+
+  private UpdateDeltaReader (Reader r) throws XMLStreamException {
+    in = getFactory().createXMLStreamReader(r);
+  }
+
+  /**
+   *  Read an UpdateDelta from the text of an XML document.
+   */
+  public static UpdateDelta read (String s) throws XMLStreamException {
+    return read(new StringReader(s));
+  }
+
+  /**
+   *  Read an UpdateDelta from a character stream containing an XML document.
+   *  The stream is not closed by this method.
+   */
+  public static UpdateDelta read (Reader r) throws XMLStreamException {
+    UpdateDeltaReader udr = new UpdateDeltaReader(r);
+    try {
+      return udr.readDelta();
+    }
+    finally {
+      udr.in.close();
+    }
+  }
+
+  private UpdateDelta readDelta () throws XMLStreamException {
+    in.nextTag();
+    UpdateDelta ret = new UpdateDelta(getAttribute(AGENT_ID),
+      getAttribute(QUERY_ID), getAttribute(SESSION_ID));
+    ret.setSequence(UpdateDelta.parseSequence(getAttribute(SEQUENCE_ATT)));
+    ret.setMore("true".equals(getAttribute(MORE_ATT)));
+
+    readContents();
+
+    if (error != null) {
+      ret.setErrorReport(error.toString());
+    }
+    else if (replacement != null) {
+      ret.setReplacement(true);
+      ret.getReplacementList().addAll(replacement);
+    }
+    else {
+      ret.setReplacement(false);
+      if (added != null)
+        ret.getAddedList().addAll(added);
+      if (changed != null)
+        ret.getChangedList().addAll(changed);
+      if (removed != null)
+        ret.getRemovedList().addAll(removed);
+      if (patched != null)
+        ret.getPatchedList().addAll(patched);
+    }
+    if (error == null)
+      ret.getSourceExceptions().putAll(sourceExceptions);
+    return ret;
+  }
+
+  // The reader is positioned at the start of the document element.  Read up
+  // to the end of the document, collecting atom lists, error text, and the
+  // exceptions of the sender's sources.
+  private void readContents () throws XMLStreamException {
+    // the list into which atoms are presently being collected, if any
+    List bunch = null;
+    ResultSetDataAtom atom = null;
+    // element depth, where the document element is at depth zero
+    int depth = 0;
+    int bunchDepth = -1;
+    int errorDepth = -1;
+
+    while (in.hasNext()) {
+      int event = in.next();
+      if (event == START_ELEMENT) {
+        depth++;
+        String tag = in.getLocalName();
+        if (atom != null) {
+          if (tag.equals(ID_TAG))
+            atom.addIdentifier(getName(), getAttribute(VALUE_ATT));
+          else if (tag.equals(VALUE_TAG))
+            atom.addValue(getName(), getAttribute(VALUE_ATT));
+        }
+        else if (tag.equals(ResultSetDataAtom.DATA_ATOM_TAG)) {
+          if (bunch != null)
+            atom = new ResultSetDataAtom();
+        }
+        else if (bunch == null && errorDepth < 0) {
+          if (tag.equals(ERROR_TAG)) {
+            if (error == null) {
+              error = new StringBuffer();
+              errorDepth = depth;
+            }
+          }
+          else if (tag.equals(SOURCE_EXCEPTION_TAG)) {
+            // the element's text is read here; the parser is left at its end
+            String agent = getAttribute(SOURCE_ATT);
+            sourceExceptions.put(agent, in.getElementText());
+            depth--;
+          }
+          else {
+            bunch = startBunch(tag);
+            if (bunch != null)
+              bunchDepth = depth;
+          }
+        }
+      }
+      else if (event == END_ELEMENT) {
+        if (atom != null &&
+            in.getLocalName().equals(ResultSetDataAtom.DATA_ATOM_TAG))
+        {
+          bunch.add(atom);
+          atom = null;
+        }
+        else if (depth == bunchDepth) {
+          bunch = null;
+          bunchDepth = -1;
+        }
+        else if (depth == errorDepth) {
+          errorDepth = -1;
+        }
+        depth--;
+      }
+      else if ((event == CHARACTERS || event == CDATA || event == SPACE) &&
+          depth == errorDepth)
+      {
+        error.append(in.getTextCharacters(), in.getTextStart(),
+          in.getTextLength());
+      }
+    }
+  }
+
+  // Begin collecting atoms for a list of the kind named by the tag, unless
+  // one of that kind has already been seen.
+  private List startBunch (String tag) {
+    if (tag.equals(ADDED_TAG) && added == null)
+      return added = new LinkedList();
+    else if (tag.equals(CHANGED_TAG) && changed == null)
+      return changed = new LinkedList();
+    else if (tag.equals(REMOVED_TAG) && removed == null)
+      return removed = new LinkedList();
+    else if (tag.equals(PATCHED_TAG) && patched == null)
+      return patched = new LinkedList();
+    else if (tag.equals(REPLACEMENT_TAG) && replacement == null)
+      return replacement = new LinkedList();
+    return null;
+  }
+
+  // As in the DOM, a missing attribute is treated as an empty String
+  private String getAttribute (String name) {
+    String ret = in.getAttributeValue(null, name);
+    if (ret == null)
+      return "";
+    return ret;
+  }
+
+  private String getName () {
+    String s = getAttribute(NAME_ATT);
+    String ret = (String) names.get(s);
+    if (ret == null)
+      names.put(s, ret = s);
+    return ret;
+  }
+}
@@ -26,10 +26,13 @@
 
 package org.cougaar.lib.aggagent.test;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.cougaar.lib.aggagent.query.AggregationQuery;
 import org.cougaar.lib.aggagent.query.Alert;
+import org.cougaar.lib.aggagent.query.ResultSetChanges;
 import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
 import org.cougaar.lib.aggagent.query.ScriptSpec;
 import org.cougaar.lib.aggagent.util.Enum.Language;
@@ -50,6 +53,9 @@ public class CycleSizeAlert extends Alert {
 
   private int threshold = 0;
 
+  // keys of the atoms currently found below the threshold
+  private transient Set lowAtoms = new HashSet();
+
   public CycleSizeAlert (int t) {
     threshold = t;
     setName("Default_" + (count++));
@@ -57,20 +63,42 @@ public class CycleSizeAlert extends Alert {
 
   public void handleUpdate () {
     System.out.println("CycleSizeAlert::handleUpdate:  called");
+    lowAtoms = new HashSet();
     Iterator i = getQueryAdapter().getResultSet().getAllAtoms();
     while (i.hasNext())
     {
       ResultSetDataAtom d = (ResultSetDataAtom) i.next();
-      try {
-        int val = Integer.parseInt(d.getValue("value").toString());
-        if (val < threshold) {
-          setAlerted(true);
-          return;
-        }
-      }
-      catch (Exception eek) { }
+      if (isLow(d))
+        lowAtoms.add(ResultSetChanges.getKey(d));
+    }
+    setAlerted(!lowAtoms.isEmpty());
+  }
+
+  /**
+   *  Only the changed atoms need be examined, given the set of those already
+   *  known to be below the threshold.
+   */
+  public void handleChanges () {
+    if (lowAtoms == null) {
+      handleUpdate();
+      return;
+    }
+    for (Iterator i = getChanges().getChanges(); i.hasNext(); ) {
+      ResultSetChanges.Change c = (ResultSetChanges.Change) i.next();
+      if (!c.isRemoval() && isLow(c.getAtom()))
+        lowAtoms.add(c.getKey());
+      else
+        lowAtoms.remove(c.getKey());
+    }
+    setAlerted(!lowAtoms.isEmpty());
+  }
+
+  private boolean isLow (ResultSetDataAtom d) {
+    try {
+      return Integer.parseInt(d.getValue("value").toString()) < threshold;
     }
-    setAlerted(false);
+    catch (Exception eek) { }
+    return false;
   }
 
   /**
@@ -0,0 +1,144 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2003-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.lib.aggagent.test;
+
+import java.text.DecimalFormat;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.cougaar.lib.aggagent.plugin.PayloadCodec;
+import org.cougaar.lib.aggagent.plugin.XMLMessage;
+import org.cougaar.lib.aggagent.query.CompoundKey;
+import org.cougaar.lib.aggagent.query.ResultSetDataAtom;
+import org.cougaar.lib.aggagent.session.UpdateDelta;
+import org.cougaar.lib.aggagent.util.Enum.WireFormat;
+
+/**
+ *  WireFormatBenchmark compares the available PayloadCodecs by encoding and
+ *  decoding synthetic UpdateDeltas of various sizes.  For each codec and
+ *  delta size, the size of the encoded message and the average time taken to
+ *  encode and decode it are reported.  Usage:
+ *  <pre>
+ *    java org.cougaar.lib.aggagent.test.WireFormatBenchmark [atoms [reps]]
+ *  </pre>
+ *  where "atoms" is the largest delta size tried (default 100000) and "reps"
+ *  is the number of timed repetitions for each trial (default 10).
+ */
+public class WireFormatBenchmark {
+  private static String[] ORGS = {
+    "1-35-ARBN", "2-7-INFBN", "3-69-ARBN", "3-FSB", "1-BDE-3-ID", "3-ID"};
+  private static String[] ITEMS = {
+    "NSN/9150001806383", "NSN/9130010315816", "NSN/8970001491094",
+    "NSN/2520011520460", "NSN/1005013170429"};
+
+  private static DecimalFormat MILLIS = new DecimalFormat("0.00");
+
+  private static List idNames = new LinkedList();
+  static {
+    idNames.add("org");
+    idNames.add("item");
+    idNames.add("serial");
+  }
+
+  public static void main (String[] argv) {
+    int maxAtoms = 100000;
+    int reps = 10;
+    if (argv.length > 0)
+      maxAtoms = Integer.parseInt(argv[0]);
+    if (argv.length > 1)
+      reps = Integer.parseInt(argv[1]);
+
+    System.out.println(pad("format", 7) + pad("atoms", 8) +
+      pad("bytes", 12) + pad("bytes/atom", 12) + pad("encode(ms)", 12) +
+      pad("decode(ms)", 12));
+    for (int n = 10; n <= maxAtoms; n *= 10) {
+      UpdateDelta del = makeDelta(n);
+      trial(PayloadCodec.forWireFormat(WireFormat.XML), del, n, reps);
+      trial(PayloadCodec.forWireFormat(WireFormat.BINARY), del, n, reps);
+    }
+  }
+
+  private static UpdateDelta makeDelta (int n) {
+    UpdateDelta ud = new UpdateDelta("3-ID", "17", "4");
+    ud.setReplacement(false);
+    for (int i = 0; i < n; i++) {
+      ResultSetDataAtom atom = new ResultSetDataAtom(idNames, new CompoundKey(
+        new String[] {ORGS[i % ORGS.length], ITEMS[i % ITEMS.length],
+          String.valueOf(i)}));
+      atom.addValue("quantity", String.valueOf(i % 250));
+      atom.addValue("rate", String.valueOf((i % 1000) / 8.0));
+      atom.addValue("unit", "Each");
+      if (i % 5 == 0)
+        ud.getChangedList().add(atom);
+      else if (i % 7 == 0)
+        ud.getRemovedList().add(atom);
+      else
+        ud.getAddedList().add(atom);
+    }
+    return ud;
+  }
+
+  private static void trial (PayloadCodec codec, UpdateDelta del, int n,
+      int reps)
+  {
+    try {
+      // warm up before timing
+      XMLMessage msg = codec.encode(del);
+      codec.decode(msg);
+
+      long t0 = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++)
+        msg = codec.encode(del);
+      long t1 = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++)
+        codec.decode(msg);
+      long t2 = System.currentTimeMillis();
+
+      long bytes = msg.isBinary() ?
+        msg.getData().length : msg.getText().getBytes("UTF-8").length;
+      System.out.println(pad(codec.getWireFormat().toString(), 7) +
+        pad(String.valueOf(n), 8) + pad(String.valueOf(bytes), 12) +
+        pad(String.valueOf(bytes / n), 12) +
+        pad(MILLIS.format((double) (t1 - t0) / reps), 12) +
+        pad(MILLIS.format((double) (t2 - t1) / reps), 12));
+    }
+    catch (Exception eek) {
+      System.out.println("Trial failed for " + codec.getWireFormat() + ":");
+      eek.printStackTrace();
+    }
+  }
+
+  // Right-justify a column, always leaving at least one space before it so
+  // that an overlong value cannot run into its neighbor
+  private static String pad (String s, int width) {
+    StringBuffer buf = new StringBuffer(" ");
+    for (int i = s.length() + 1; i < width; i++)
+      buf.append(' ');
+    buf.append(s);
+    return buf.toString();
+  }
+}
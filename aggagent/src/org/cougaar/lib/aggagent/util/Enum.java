@@ -242,4 +242,54 @@ public abstract class Enum implements Serializable {
       return (Collection) validValues.clone();
     }
   }
+
+  public static class WireFormat extends Enum {
+    private static final LinkedList validValues = new LinkedList();
+    public static final WireFormat XML = new WireFormat("xml");
+    public static final WireFormat BINARY = new WireFormat("binary");
+
+    private WireFormat (String name) {
+      super(name);
+      validValues.add(this);
+    }
+
+    protected String getStringObject(String enumName)
+    {
+      Enum en = (Enum) findEnum(validValues, enumName);
+      return en == null ? null : en.toString();
+    }
+
+    public static WireFormat fromString (String enumName) {
+      return (WireFormat) findEnum(validValues, enumName);
+    }
+
+    public static Collection getValidValues () {
+      return (Collection) validValues.clone();
+    }
+  }
+
+  public static class StoreType extends Enum {
+    private static final LinkedList validValues = new LinkedList();
+    public static final StoreType MAP = new StoreType("Map");
+    public static final StoreType COLUMNAR = new StoreType("Columnar");
+
+    private StoreType (String name) {
+      super(name);
+      validValues.add(this);
+    }
+
+    protected String getStringObject(String enumName)
+    {
+      Enum en = (Enum) findEnum(validValues, enumName);
+      return en == null ? null : en.toString();
+    }
+
+    public static StoreType fromString (String enumName) {
+      return (StoreType) findEnum(validValues, enumName);
+    }
+
+    public static Collection getValidValues () {
+      return (Collection) validValues.clone();
+    }
+  }
 }
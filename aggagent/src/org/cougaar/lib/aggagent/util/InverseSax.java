@@ -26,6 +26,13 @@
 
 package org.cougaar.lib.aggagent.util;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -37,6 +44,13 @@ import org.w3c.dom.NodeList;
  *  of parts of the XML structure through method calls.  Those parts include
  *  opening and closing tags, attributes, and text.  In the attributes and
  *  text, encoding of special characters is handled automatically.
+ *  <br><br>
+ *  By default, the document is accumulated in memory and retrieved by calling
+ *  toString().  Alternatively, an InverseSax may be constructed to write the
+ *  document to a Writer or OutputStream as it is generated, so that a large
+ *  document need never be held in memory all at once.  In that case, the
+ *  output is flushed when the root element is closed, and any failure to
+ *  write is reported by checkError(), in the manner of a PrintWriter.
  */
 public class InverseSax {
   private static class NameNode {
@@ -57,7 +71,14 @@ public class InverseSax {
 
   private byte state = EMPTY;
 
-  private StringBuffer buf = new StringBuffer();
+  // names that have passed validation, indexed by their hash codes.  Tag
+  // and attribute names are nearly always constants, so this saves checking
+  // the same few names over and over.  Entries may be overwritten freely.
+  private static String[] validNames = new String[256];
+
+  private StringBuilder buf = null;
+  private Writer out = null;
+  private IOException error = null;
   private NameNode nameStack = null;
   private boolean lenientMode = false;
   private boolean prettyPrint = false;
@@ -77,23 +98,97 @@ public class InverseSax {
     return p.tag;
   }
 
+  /**
+   *  Create an InverseSax that accumulates the document in memory.
+   */
+  public InverseSax () {
+    buf = new StringBuilder();
+  }
+
+  /**
+   *  Create an InverseSax that writes the document to the given Writer.
+   */
+  public InverseSax (Writer w) {
+    out = w;
+  }
+
+  /**
+   *  Create an InverseSax that writes the document to the given OutputStream
+   *  in the UTF-8 encoding.
+   */
+  public InverseSax (OutputStream os) {
+    try {
+      out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+    }
+    catch (UnsupportedEncodingException uee) {
+      // every JVM supports UTF-8
+      throw new RuntimeException(uee);
+    }
+  }
+
+  private void append (String s) {
+    if (buf != null) {
+      buf.append(s);
+    }
+    else if (error == null) {
+      try {
+        out.write(s);
+      }
+      catch (IOException ioe) {
+        error = ioe;
+      }
+    }
+  }
+
+  private void append (String s, int start, int end) {
+    if (buf != null) {
+      buf.append(s, start, end);
+    }
+    else if (error == null) {
+      try {
+        out.write(s, start, end - start);
+      }
+      catch (IOException ioe) {
+        error = ioe;
+      }
+    }
+  }
+
+  private void flush () {
+    if (out != null && error == null) {
+      try {
+        out.flush();
+      }
+      catch (IOException ioe) {
+        error = ioe;
+      }
+    }
+  }
+
+  // Copy the text, replacing special characters with entities.  The runs of
+  // ordinary characters between them are copied whole.
   private void encode (String s) {
-    char[] chars = s.toCharArray();
-    for (int i = 0; i < chars.length; i++) {
-      char c = chars[i];
-      if (c == '&')
-        buf.append("&amp;");
-      else if (c == '<')
-        buf.append("&lt;");
-      else if (c == '>')
-        buf.append("&gt;");
-      else if (c == '\'')
-        buf.append("&apos;");
-      else if (c == '"')
-        buf.append("&quot;");
-      else
-        buf.append(c);
+    int n = s.length();
+    int start = 0;
+    for (int i = 0; i < n; i++) {
+      String entity;
+      switch (s.charAt(i)) {
+        case '&':  entity = "&amp;";  break;
+        case '<':  entity = "&lt;";   break;
+        case '>':  entity = "&gt;";   break;
+        case '\'': entity = "&apos;"; break;
+        case '"':  entity = "&quot;"; break;
+        default:   continue;
+      }
+      if (start < i)
+        append(s, start, i);
+      append(entity);
+      start = i + 1;
     }
+    if (start == 0)
+      append(s);
+    else if (start < n)
+      append(s, start, n);
   }
 
   /**
@@ -123,9 +218,9 @@ public class InverseSax {
 
   // add indentation
   private void indent () {
-    buf.append("\n");
+    append("\n");
     for (int i = 0; i < indentTabs; i++)
-      buf.append("  ");
+      append("  ");
   }
 
   // Allow upper- and lower-case letters and underscores.
@@ -143,18 +238,22 @@ public class InverseSax {
   }
 
   private boolean validateName (String s) {
-    if (s == null || s.length() == 0) {
+    if (s == null || s.length() == 0)
       return false;
-    }
-    else if (!lenientMode) {
-      char[] chars = s.toCharArray();
-      if (!validateInitial(chars[0]))
+    else if (lenientMode)
+      return true;
+
+    int slot = s.hashCode() & (validNames.length - 1);
+    String known = validNames[slot];
+    if (known == s || s.equals(known))
+      return true;
+
+    if (!validateInitial(s.charAt(0)))
+      return false;
+    for (int i = 1; i < s.length(); i++)
+      if (!validateNameChar(s.charAt(i)))
         return false;
-      else
-        for (int i = 1; i < chars.length; i++)
-          if (!validateNameChar(chars[i]))
-            return false;
-    }
+    validNames[slot] = s;
     return true;
   }
 
@@ -163,7 +262,8 @@ public class InverseSax {
    *  work previously in progress.
    */
   public void reset () {
-    buf = new StringBuffer();
+    if (buf != null)
+      buf = new StringBuilder();
     nameStack = null;
     state = EMPTY;
   }
@@ -181,14 +281,14 @@ public class InverseSax {
     if (!validateName(tag))
       throw new IllegalArgumentException("illegal tag name:  " + tag);
     if (state == IN_TAG)
-      buf.append(">");
+      append(">");
     if (prettyPrint) {
       if (state == IN_TAG || state == IN_TEXT)
         indentTabs++;
       indent();
     }
-    buf.append("<");
-    buf.append(tag);
+    append("<");
+    append(tag);
     pushName(tag);
     state = IN_TAG;
   }
@@ -236,11 +336,11 @@ public class InverseSax {
       throw new IllegalStateException("attributes belong inside an XML tag");
     if (!validateName(name))
       throw new IllegalArgumentException("illegal attribute name:  " + name);
-    buf.append(" ");
-    buf.append(name);
-    buf.append("=\"");
+    append(" ");
+    append(name);
+    append("=\"");
     encode(value);
-    buf.append("\"");
+    append("\"");
   }
 
   /**
@@ -254,7 +354,7 @@ public class InverseSax {
     if (state == EMPTY || state == DONE)
       throw new IllegalStateException("text belongs inside an XML element");
     if (state == IN_TAG) {
-      buf.append(">");
+      append(">");
       state = IN_TEXT;
     }
     encode(text);
@@ -269,19 +369,21 @@ public class InverseSax {
       throw new IllegalStateException("can't close element--none is current");
     String tag = popName();
     if (state == IN_TAG) {
-      buf.append("/>");
+      append("/>");
     }
     else {
       if (prettyPrint && state == IN_ELEMENT) {
         indentTabs--;
         indent();
       }
-      buf.append("</");
-      buf.append(tag);
-      buf.append(">");
+      append("</");
+      append(tag);
+      append(">");
     }
-    if (nameStackEmpty())
+    if (nameStackEmpty()) {
       state = DONE;
+      flush();
+    }
     else
       state = IN_ELEMENT;
   }
@@ -301,12 +403,28 @@ public class InverseSax {
     while (!nameStackEmpty())
       endElement();
     state = DONE;
+    flush();
   }
 
   /**
-   *  Return the text of the XML document.
+   *  Flush the output, if the document is being written to a Writer or
+   *  OutputStream, and tell whether an error has prevented any of it from
+   *  being written.
+   */
+  public boolean checkError () {
+    flush();
+    return error != null;
+  }
+
+  /**
+   *  Return the text of the XML document.  If the document is being written
+   *  to a Writer or OutputStream, it is not retained, and an
+   *  IllegalStateException is thrown instead.
    */
   public String toString () {
+    if (buf == null)
+      throw new IllegalStateException(
+        "document is written to a stream and not retained");
     return buf.toString();
   }
 